@@ -2,14 +2,18 @@ plugins {
 	java
 	id("org.springframework.boot") version "3.5.4"
 	id("io.spring.dependency-management") version "1.1.7"
+	id("me.champeau.jmh") version "0.7.3"
 }
 
+// AOT-generated bean definitions in the boot jar, used when started with -Dspring.aot.enabled=true (see Dockerfile)
+apply(plugin = "org.springframework.boot.aot")
+
 group = "me.foglio"
 version = "0.0.1-SNAPSHOT"
 
 java {
 	toolchain {
-		languageVersion = JavaLanguageVersion.of(17)
+		languageVersion = JavaLanguageVersion.of(21)
 	}
 }
 
@@ -28,11 +32,70 @@ dependencies {
 	implementation("com.h2database:h2")
 	implementation("org.postgresql:postgresql")
 	implementation("org.springframework.boot:spring-boot-starter-thymeleaf")
+	implementation("com.github.ben-manes.caffeine:caffeine")
+	runtimeOnly("io.micrometer:micrometer-registry-prometheus")
 	testImplementation("org.springframework.boot:spring-boot-starter-test")
 	testImplementation("org.springframework.security:spring-security-test")
 	testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+	jmh("org.springframework:spring-test")
+	// already on the runtime classpath through micrometer-core; the load test records latencies with it
+	jmh("org.hdrhistogram:HdrHistogram:2.2.2")
 }
 
 tasks.withType<Test> {
 	useJUnitPlatform()
 }
+
+jmh {
+	warmupIterations = 2
+	iterations = 5
+	fork = 1
+	// JSON so results can be compared across commits (e.g. gradle jmh -PjmhIncludes=UploadBenchmark)
+	resultFormat = "JSON"
+	resultsFile = layout.buildDirectory.file("results/jmh/results.json")
+	includes = providers.gradleProperty("jmhIncludes").map { listOf(it) }.orElse(listOf())
+}
+
+tasks.register<JavaExec>("slowClientLoad") {
+	description = "Counts how many concurrent slow downloads platform and virtual request threads sustain."
+	group = "verification"
+	classpath = sourceSets["jmh"].runtimeClasspath
+	mainClass = "me.foglio.benchmark.SlowClientLoad"
+	args(providers.gradleProperty("clients").getOrElse("1000"))
+	// same carrier cap as the Docker image, see SlowClientLoad
+	jvmArgs("-Djdk.virtualThreadScheduler.maxPoolSize=1024")
+}
+
+tasks.register<JavaExec>("loadTest") {
+	description = "Drives a mixed request load against the app on H2 and reports latency percentiles and throughput per endpoint."
+	group = "verification"
+	classpath = sourceSets["jmh"].runtimeClasspath
+	mainClass = "me.foglio.benchmark.HttpLoadTest"
+	argumentProviders.add(CommandLineArgumentProvider {
+		listOf(layout.buildDirectory.dir("reports/load").get().asFile.path,
+			providers.gradleProperty("clients").getOrElse("64"),
+			providers.gradleProperty("duration").getOrElse("60"),
+			providers.gradleProperty("slowClients").getOrElse("8"),
+			providers.gradleProperty("warmup").getOrElse("10"))
+	})
+	jvmArgs("-Djdk.virtualThreadScheduler.maxPoolSize=1024", "-Djava.awt.headless=true")
+}
+
+tasks.named<org.springframework.boot.gradle.tasks.aot.ProcessAot>("processAot") {
+	// bean definitions and @Conditional outcomes are fixed for these profiles; the Docker build passes -PaotProfiles=docker
+	args("--spring.profiles.active=" + providers.gradleProperty("aotProfiles").getOrElse("default"))
+}
+
+tasks.register<JavaExec>("startupBenchmark") {
+	description = "Measures time to first request and RSS of the boot jar, plain and with AOT, CDS and lazy initialization."
+	group = "verification"
+	val bootJar = tasks.named<org.springframework.boot.gradle.tasks.bundling.BootJar>("bootJar")
+	dependsOn(bootJar)
+	classpath = sourceSets["jmh"].runtimeClasspath
+	mainClass = "me.foglio.benchmark.StartupBenchmark"
+	argumentProviders.add(CommandLineArgumentProvider {
+		listOf(bootJar.get().archiveFile.get().asFile.path,
+			layout.buildDirectory.dir("reports/startup").get().asFile.path,
+			providers.gradleProperty("runs").getOrElse("5"))
+	})
+}
@@ -0,0 +1,110 @@
+package me.foglio.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import me.foglio.model.User;
+import me.foglio.repository.UserRepository;
+import me.foglio.security.ApiKeyAuthFilter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link ApiKeyAuthFilter} over one request per way a key can arrive: header (cached, and with every lookup
+ * missing the cache), query parameter on a multipart upload, malformed, and none at all. The repository is a stub
+ * that counts lookups, so the numbers cover key parsing, the cache and the security context only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ApiKeyAuthBenchmark {
+
+    private static final FilterChain CHAIN = (request, response) -> { };
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final User user = User.builder().id(1L).name("bench").apiKey(UUID.randomUUID()).build();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    private ApiKeyAuthFilter filter;
+    private ApiKeyAuthFilter uncachedFilter;
+    private MockHttpServletRequest header;
+    private MockHttpServletRequest multipartQuery;
+    private MockHttpServletRequest malformed;
+    private MockHttpServletRequest anonymous;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        UserRepository users = Stubs.repository(UserRepository.class, Map.of("findByApiKey", args -> {
+            lookups.incrementAndGet();
+            return user.getApiKey().equals(args[0]) ? Optional.of(user) : Optional.empty();
+        }));
+        StaticListableBeanFactory beans = new StaticListableBeanFactory(Map.of("userRepository", users));
+        filter = new ApiKeyAuthFilter(beans.getBeanProvider(UserRepository.class), new SimpleMeterRegistry(),
+                10_000, Duration.ofMinutes(5), Duration.ofSeconds(30), Set.of());
+        // no room in the cache: every request goes to the repository
+        uncachedFilter = new ApiKeyAuthFilter(beans.getBeanProvider(UserRepository.class), new SimpleMeterRegistry(),
+                0, Duration.ofMinutes(5), Duration.ofSeconds(30), Set.of());
+
+        header = new MockHttpServletRequest("GET", "/api/files");
+        header.addHeader("X-API-KEY", user.getApiKey().toString());
+        multipartQuery = new MockHttpServletRequest("POST", "/api/files/upload/stream");
+        multipartQuery.setContentType("multipart/form-data; boundary=x");
+        multipartQuery.setQueryString("public=true&apiKey=" + user.getApiKey());
+        malformed = new MockHttpServletRequest("GET", "/api/files");
+        malformed.addHeader("X-API-KEY", "not-a-key");
+        anonymous = new MockHttpServletRequest("GET", "/api/files/public");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println("\nrepository lookups: " + lookups.get());
+    }
+
+    @Benchmark
+    public Object headerCached() throws ServletException, IOException {
+        return filter(filter, header);
+    }
+
+    @Benchmark
+    public Object headerUncached() throws ServletException, IOException {
+        return filter(uncachedFilter, header);
+    }
+
+    @Benchmark
+    public Object multipartQueryParameter() throws ServletException, IOException {
+        return filter(filter, multipartQuery);
+    }
+
+    @Benchmark
+    public Object malformedKey() throws ServletException, IOException {
+        return filter(filter, malformed);
+    }
+
+    @Benchmark
+    public Object noKey() throws ServletException, IOException {
+        return filter(filter, anonymous);
+    }
+
+    private Object filter(ApiKeyAuthFilter target, MockHttpServletRequest request) throws ServletException, IOException {
+        // OncePerRequestFilter marks the request as filtered and authentication lands in the context
+        request.clearAttributes();
+        try {
+            target.doFilter(request, response, CHAIN);
+            return request.getAttribute("authenticatedUser");
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+}
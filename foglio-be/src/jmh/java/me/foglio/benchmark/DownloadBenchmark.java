@@ -0,0 +1,166 @@
+package me.foglio.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import me.foglio.model.File;
+import me.foglio.service.DownloadService;
+import me.foglio.service.FileService;
+import me.foglio.service.TransferEngine;
+import me.foglio.storage.StoredObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the download copy loop of {@link TransferEngine} with the {@code UrlResource} path
+ * that Spring's resource message converter used to take, and measures the whole download path of
+ * {@code GET /api/files/{id}/download} from {@link FileService#findContent} through {@link DownloadService#send}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DownloadBenchmark {
+
+    @Param({"65536", "1048576", "33554432"})
+    public int fileSize;
+
+    private Path dir;
+    private Path path;
+    private TransferEngine channelEngine;
+    private TransferEngine heapEngine;
+    private FileService fileService;
+    private DownloadService downloadService;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("foglio-jmh");
+        path = dir.resolve("blob.bin");
+        byte[] content = new byte[fileSize];
+        new Random(1).nextBytes(content);
+        Files.write(path, content);
+        channelEngine = engine(TransferEngine.Mode.CHANNEL);
+        heapEngine = engine(TransferEngine.Mode.HEAP);
+        fileService = Stubs.fileService(dir);
+        downloadService = new DownloadService(channelEngine, Duration.ofDays(365));
+        file = File.builder().id(UUID.randomUUID()).originalName("blob.bin").contentType("application/octet-stream")
+                .size((long) fileSize).storedFileName("blob.bin").isPublic(true).createdAt(LocalDateTime.now()).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(dir);
+    }
+
+    private static TransferEngine engine(TransferEngine.Mode mode) {
+        return new TransferEngine(new SimpleMeterRegistry(), mode,
+                DataSize.ofMegabytes(8), DataSize.ofKilobytes(64), DataSize.ofKilobytes(48));
+    }
+
+    @Benchmark
+    public void urlResource(Blackhole bh) throws IOException {
+        Resource resource = new UrlResource(path.toUri());
+        try (InputStream in = resource.getInputStream()) {
+            StreamUtils.copy(in, new BlackholeOutputStream(bh));
+        }
+    }
+
+    @Benchmark
+    public void channelTransfer(Blackhole bh) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channelEngine.copy(channel, 0, fileSize, new BlackholeOutputStream(bh));
+        }
+    }
+
+    @Benchmark
+    public void heapBuffer(Blackhole bh) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            heapEngine.copy(channel, 0, fileSize, new BlackholeOutputStream(bh));
+        }
+    }
+
+    @Benchmark
+    public void download(Blackhole bh) throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/" + file.getId() + "/download");
+        BlackholeResponse response = new BlackholeResponse(bh);
+        StoredObject content = fileService.findContent(file).orElseThrow();
+        downloadService.send(file, content, "attachment", request, response);
+    }
+
+    // headers go to a mock response, the body to the blackhole rather than a growing buffer
+    static final class BlackholeResponse extends HttpServletResponseWrapper {
+
+        private final ServletOutputStream body;
+
+        BlackholeResponse(Blackhole bh) {
+            super(new MockHttpServletResponse());
+            BlackholeOutputStream out = new BlackholeOutputStream(bh);
+            this.body = new ServletOutputStream() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener listener) {
+                }
+
+                @Override
+                public void write(int b) {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    out.write(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return body;
+        }
+    }
+
+    static final class BlackholeOutputStream extends OutputStream {
+
+        private final Blackhole bh;
+
+        BlackholeOutputStream(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(int b) {
+            bh.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bh.consume(b);
+            bh.consume(len);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package me.foglio.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import me.foglio.FoglioApplication;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Latency and throughput of each file endpoint under a mixed load.
+ * <p>
+ * Boots the application with the default {@code application.properties} (in-memory H2) on a random port and a
+ * temporary storage root, uploads a set of shared public files (images among them, so previews render thumbnails),
+ * then runs {@code clients} closed-loop clients, each registered as its own user, through a weighted mix of
+ * register, upload, list, metadata, preview and download. Upload sizes are log-uniform within three bands (mostly
+ * small, some around a megabyte, a few of several megabytes). Alongside them {@code slowClients} downloads read a
+ * large file at 64KB/s and hang up after 512KB, holding server resources the way mobile clients do.
+ * <p>
+ * After {@code warmup} seconds the counters are reset and the mix runs for {@code duration} seconds. Latency is
+ * measured to the last byte of the response (to the response headers for slow downloads); being closed-loop, a
+ * stalled server shows up as lower throughput rather than as queued requests. Results are printed and written to
+ * {@code load.json} in the output directory.
+ * <p>
+ * Run with {@code gradle loadTest -Pclients=64 -Pduration=60 -PslowClients=8}.
+ */
+public final class HttpLoadTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    private static final int SHARED_FILES = 50;
+    private static final int SLOW_FILE_SIZE = 8 * 1024 * 1024;
+    private static final int SLOW_READ_BYTES = 512 * 1024;
+    private static final int SLOW_CHUNK = 8 * 1024;
+    private static final long SLOW_CHUNK_PAUSE_MILLIS = 125;
+
+    private enum Operation {
+        REGISTER(2), UPLOAD(10), LIST(15), METADATA(25), PREVIEW(10), DOWNLOAD(38), DOWNLOAD_SLOW(0);
+
+        private final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+
+        String label() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    private record Stats(ConcurrentHistogram micros, AtomicLong errors) {
+        Stats() {
+            this(new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(5), 3), new AtomicLong());
+        }
+
+        void reset() {
+            micros.reset();
+            errors.set(0);
+        }
+    }
+
+    private final String base;
+    private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10)).build();
+    private final Map<Operation, Stats> stats = new LinkedHashMap<>();
+    private final List<String> downloadable = new CopyOnWriteArrayList<>();
+    private final List<String> images = new CopyOnWriteArrayList<>();
+    private final byte[] image;
+    private volatile boolean running = true;
+    private String slowFile;
+
+    private HttpLoadTest(int port) throws IOException {
+        this.base = "http://localhost:" + port;
+        for (Operation op : Operation.values()) stats.put(op, new Stats());
+        this.image = png(800, 600);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path out = Files.createDirectories(Path.of(args[0]));
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int duration = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        int slowClients = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        int warmup = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        Path storage = Files.createTempDirectory("foglio-load");
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(FoglioApplication.class).run(
+                "--server.port=0",
+                "--app.files.storage=" + storage,
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN")) {
+            HttpLoadTest test = new HttpLoadTest(((WebServerApplicationContext) ctx).getWebServer().getPort());
+            test.seed();
+            try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < clients; i++) threads.submit(test::client);
+                for (int i = 0; i < slowClients; i++) threads.submit(test::slowClient);
+                Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+                test.stats.values().forEach(Stats::reset);
+                Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+                test.running = false;
+            }
+            test.report(out, clients, slowClients, duration);
+        } finally {
+            try (Stream<Path> paths = Files.walk(storage)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // shared public files every client reads, and the large one the slow clients download
+    private void seed() throws Exception {
+        String apiKey = register("seed");
+        for (int i = 0; i < SHARED_FILES; i++) {
+            if (i % 5 == 0) {
+                images.add(upload(apiKey, "photo-" + i + ".png", "image/png", image));
+            } else {
+                downloadable.add(upload(apiKey, "file-" + i + ".bin", "application/octet-stream", randomBytes(uploadSize())));
+            }
+        }
+        downloadable.addAll(images);
+        slowFile = upload(apiKey, "large.bin", "application/octet-stream", randomBytes(SLOW_FILE_SIZE));
+    }
+
+    private void client() {
+        String apiKey;
+        try {
+            apiKey = register("client");
+        } catch (Exception e) {
+            stats.get(Operation.REGISTER).errors().incrementAndGet();
+            return;
+        }
+        int total = Stream.of(Operation.values()).mapToInt(op -> op.weight).sum();
+        while (running) {
+            int pick = ThreadLocalRandom.current().nextInt(total);
+            Operation op = null;
+            for (Operation candidate : Operation.values()) {
+                pick -= candidate.weight;
+                if (pick < 0) {
+                    op = candidate;
+                    break;
+                }
+            }
+            String key = apiKey;
+            Operation chosen = op;
+            timed(chosen, () -> switch (chosen) {
+                case REGISTER -> register("client") != null;
+                case UPLOAD -> {
+                    int size = uploadSize();
+                    downloadable.add(upload(key, "upload.bin", "application/octet-stream", randomBytes(size)));
+                    yield true;
+                }
+                case LIST -> get("/api/files?limit=50", key) == 200;
+                case METADATA -> get("/api/files/" + any(downloadable) + "/metadata", key) == 200;
+                case PREVIEW -> get("/api/files/" + any(images) + "/preview?size=256", key) == 200;
+                default -> get("/api/files/" + any(downloadable) + "/download", key) == 200;
+            });
+        }
+    }
+
+    private void slowClient() {
+        while (running) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/api/files/" + slowFile + "/download"))
+                    .timeout(REQUEST_TIMEOUT).build();
+            long start = System.nanoTime();
+            try {
+                HttpResponse<InputStream> response = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                record(Operation.DOWNLOAD_SLOW, start, response.statusCode() == 200);
+                try (InputStream body = response.body()) {
+                    byte[] chunk = new byte[SLOW_CHUNK];
+                    for (int read = 0; read < SLOW_READ_BYTES && running; read += body.readNBytes(chunk, 0, chunk.length)) {
+                        Thread.sleep(SLOW_CHUNK_PAUSE_MILLIS);
+                    }
+                }
+            } catch (IOException e) {
+                stats.get(Operation.DOWNLOAD_SLOW).errors().incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private interface Call {
+        boolean run() throws Exception;
+    }
+
+    private void timed(Operation op, Call call) {
+        long start = System.nanoTime();
+        boolean ok;
+        try {
+            ok = call.run();
+        } catch (Exception e) {
+            ok = false;
+        }
+        record(op, start, ok);
+    }
+
+    private void record(Operation op, long start, boolean ok) {
+        Stats s = stats.get(op);
+        if (ok) {
+            s.micros().recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), s.micros().getHighestTrackableValue()));
+        } else {
+            s.errors().incrementAndGet();
+        }
+    }
+
+    private String register(String name) throws Exception {
+        HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(base + "/api/users/register?name=" + name))
+                .timeout(REQUEST_TIMEOUT).POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) throw new IOException("register: " + response.statusCode());
+        return JSON.readTree(response.body()).get("apiKey").asText();
+    }
+
+    private String upload(String apiKey, String name, String contentType, byte[] content) throws Exception {
+        String boundary = "foglio-load-" + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+        byte[] head = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + name + "\"\r\n"
+                + "Content-Type: " + contentType + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(base + "/api/files/upload?public=true"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("X-API-KEY", apiKey)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(head, content, tail))).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) throw new IOException("upload: " + response.statusCode());
+        JsonNode file = JSON.readTree(response.body());
+        return file.get("id").asText();
+    }
+
+    private int get(String path, String apiKey) throws Exception {
+        return http.send(HttpRequest.newBuilder(URI.create(base + path)).timeout(REQUEST_TIMEOUT).header("X-API-KEY", apiKey).build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static String any(List<String> ids) {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    // 80% 1-64KB, 18% 64KB-1MB, 2% 1-8MB, log-uniform within each band
+    private static int uploadSize() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int band = random.nextInt(100);
+        double low = band < 80 ? 1 << 10 : band < 98 ? 64 << 10 : 1 << 20;
+        double high = band < 80 ? 64 << 10 : band < 98 ? 1 << 20 : 8 << 20;
+        return (int) Math.exp(random.nextDouble(Math.log(low), Math.log(high)));
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] content = new byte[size];
+        ThreadLocalRandom.current().nextBytes(content);
+        return content;
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) img.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | (x ^ y) & 0xff);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    private void report(Path out, int clients, int slowClients, int duration) throws IOException {
+        ObjectNode report = JSON.createObjectNode().put("timestamp", Instant.now().toString()).put("clients", clients)
+                .put("slowClients", slowClients).put("durationSeconds", duration);
+        ObjectNode endpoints = report.putObject("endpoints");
+        System.out.printf("%n%-14s %9s %7s %10s %10s %10s %10s%n", "endpoint", "requests", "errors", "req/s", "p50", "p99", "p99.9");
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            Histogram h = entry.getValue().micros();
+            long errors = entry.getValue().errors().get();
+            if (h.getTotalCount() == 0 && errors == 0) continue;
+            double perSecond = (double) h.getTotalCount() / duration;
+            endpoints.putObject(entry.getKey().label())
+                    .put("requests", h.getTotalCount())
+                    .put("errors", errors)
+                    .put("throughput", perSecond)
+                    .put("p50Millis", millis(h, 50))
+                    .put("p99Millis", millis(h, 99))
+                    .put("p999Millis", millis(h, 99.9))
+                    .put("maxMillis", h.getMaxValue() / 1000.0);
+            System.out.printf("%-14s %9d %7d %10.1f %8.1fms %8.1fms %8.1fms%n", entry.getKey().label(), h.getTotalCount(), errors,
+                    perSecond, millis(h, 50), millis(h, 99), millis(h, 99.9));
+        }
+        JSON.writerWithDefaultPrettyPrinter().writeValue(out.resolve("load.json").toFile(), report);
+        System.out.println("\nWritten to " + out.resolve("load.json"));
+    }
+
+    private static double millis(Histogram h, double percentile) {
+        return h.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
@@ -0,0 +1,81 @@
+package me.foglio.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.foglio.dto.FileMetadataDTO;
+import me.foglio.dto.FilePageDTO;
+import me.foglio.model.File;
+import me.foglio.model.User;
+import me.foglio.service.FilePage;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps file rows to {@link FileMetadataDTO} and writes a {@code GET /api/files} page as JSON, with an object mapper
+ * built the way Spring Boot builds the MVC one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetadataBenchmark {
+
+    private static final User OWNER = User.builder().id(1L).name("bench").apiKey(UUID.randomUUID()).build();
+
+    private final File file = file(1);
+    private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @State(Scope.Benchmark)
+    public static class Page {
+
+        @Param({"1", "50", "200"})
+        public int pageSize;
+
+        private FilePage page;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            List<File> files = new ArrayList<>(pageSize);
+            for (int i = 0; i < pageSize; i++) files.add(file(i));
+            page = new FilePage(files, "eyJjIjoiMjAyNS0wMS0wMVQxMDowMCJ9");
+        }
+    }
+
+    private static File file(int i) {
+        UUID id = UUID.randomUUID();
+        return File.builder()
+                .id(id)
+                .originalName("report-" + i + ".pdf")
+                .extension(".pdf")
+                .contentType("application/pdf")
+                .size(1_048_576L + i)
+                .sha256("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08")
+                .owner(OWNER)
+                .isPublic(i % 2 == 0)
+                .storedFileName(id + ".pdf")
+                .createdAt(LocalDateTime.of(2025, 1, 1, 10, 0).plusMinutes(i))
+                .requestCount((long) i)
+                .lastRequestedAt(LocalDateTime.of(2025, 1, 2, 10, 0))
+                .build();
+    }
+
+    @Benchmark
+    public FileMetadataDTO fromEntity() {
+        return FileMetadataDTO.fromEntity(file);
+    }
+
+    @Benchmark
+    public FilePageDTO mapPage(Page page) {
+        return FilePageDTO.fromPage(page.page);
+    }
+
+    @Benchmark
+    public byte[] serializePage(Page page) throws IOException {
+        return mapper.writeValueAsBytes(FilePageDTO.fromPage(page.page));
+    }
+}
@@ -0,0 +1,173 @@
+package me.foglio.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.foglio.FoglioApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * How many concurrent slow downloads each request execution mode sustains.
+ * <p>
+ * Boots the application on platform and on virtual threads, with both download transfer modes (random port,
+ * in-memory H2), parks {@code clients} downloads that stop reading after the response headers, then checks how many
+ * of them got their headers and whether short probe requests still get through while they are parked.
+ * <p>
+ * On JDK 21 Tomcat's blocking NIO write waits on a monitor, which pins the carrier; the scheduler compensates with
+ * extra carriers only up to {@code jdk.virtualThreadScheduler.maxPoolSize} (256 by default), so the task raises it.
+ * <p>
+ * Run with {@code gradle slowClientLoad -Pclients=1000}.
+ */
+public final class SlowClientLoad {
+
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+    private static final Duration HEADER_TIMEOUT = Duration.ofSeconds(10);
+    private static final int PROBES = 20;
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private SlowClientLoad() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        List<String> rows = new ArrayList<>();
+        for (String transfer : new String[]{"channel", "sendfile"}) {
+            for (boolean virtual : new boolean[]{false, true}) {
+                rows.add(run(virtual, transfer, clients));
+            }
+        }
+        System.out.printf("%n%-9s %-9s %8s %10s %14s %10s %12s%n", "threads", "transfer", "clients", "headers", "headers p50", "probes", "probe p50");
+        rows.forEach(System.out::println);
+    }
+
+    private static String run(boolean virtual, String transfer, int clients) throws Exception {
+        Path storage = Files.createTempDirectory("foglio-load");
+        try (ConfigurableApplicationContext ctx = new SpringApplicationBuilder(FoglioApplication.class).run(
+                "--server.port=0",
+                "--spring.threads.virtual.enabled=" + virtual,
+                "--spring.datasource.url=jdbc:h2:mem:load-" + transfer + "-" + virtual + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.show-sql=false",
+                "--app.files.storage=" + storage,
+                // sendfile hands bodies to Tomcat's poller, channel keeps the request thread writing the body
+                "--app.files.transfer.mode=" + transfer,
+                "--logging.level.root=WARN")) {
+            int port = ((WebServerApplicationContext) ctx).getWebServer().getPort();
+            HttpClient http = HttpClient.newBuilder().connectTimeout(HEADER_TIMEOUT).build();
+            String fileId = uploadFixture(http, port);
+
+            List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+            long[] headerMillis;
+            try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<Long>> parked = new ArrayList<>(clients);
+                for (int i = 0; i < clients; i++) {
+                    parked.add(clientThreads.submit(() -> park(port, fileId, sockets)));
+                }
+                headerMillis = new long[clients];
+                for (int i = 0; i < clients; i++) headerMillis[i] = parked.get(i).get();
+            }
+            long[] received = Arrays.stream(headerMillis).filter(ms -> ms >= 0).sorted().toArray();
+
+            long[] probeMillis = new long[PROBES];
+            for (int i = 0; i < PROBES; i++) probeMillis[i] = probe(http, port, fileId);
+            long[] answered = Arrays.stream(probeMillis).filter(ms -> ms >= 0).sorted().toArray();
+
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // closing anyway
+                }
+            }
+            return String.format("%-9s %-9s %8d %10d %12sms %7d/%d %10sms", virtual ? "virtual" : "platform", transfer, clients,
+                    received.length, median(received), answered.length, PROBES, median(answered));
+        }
+    }
+
+    private static String uploadFixture(HttpClient http, int port) throws Exception {
+        HttpResponse<String> registered = http.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/users/register?name=load"))
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        String apiKey = JSON.readTree(registered.body()).get("apiKey").asText();
+
+        byte[] content = new byte[FILE_SIZE];
+        new Random(1).nextBytes(content);
+        String boundary = "foglio-load";
+        byte[] head = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"load.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        HttpResponse<String> uploaded = http.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/files/upload/stream?public=true"))
+                .header("X-API-KEY", apiKey)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(head, content, tail))).build(), HttpResponse.BodyHandlers.ofString());
+        JsonNode file = JSON.readTree(uploaded.body());
+        return file.get("id").asText();
+    }
+
+    // opens a download that reads the response headers and then stalls; -1 if the headers never came
+    private static long park(int port, String fileId, List<Socket> sockets) throws IOException {
+        Socket socket = new Socket();
+        sockets.add(socket);
+        socket.setReceiveBufferSize(4096);
+        long start = System.nanoTime();
+        socket.connect(new InetSocketAddress("localhost", port), (int) HEADER_TIMEOUT.toMillis());
+        socket.setSoTimeout((int) HEADER_TIMEOUT.toMillis());
+        socket.getOutputStream().write(("GET /api/files/" + fileId + "/download HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        InputStream in = socket.getInputStream();
+        StringBuilder statusLine = new StringBuilder();
+        int matched = 0;
+        try {
+            // read byte by byte up to the blank line ending the headers
+            int b;
+            while (matched < 4 && (b = in.read()) != -1) {
+                if (statusLine.length() < 12) statusLine.append((char) b);
+                matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+        } catch (SocketTimeoutException e) {
+            return -1;
+        }
+        // error responses (e.g. a timed out connection pool) don't count as sustained downloads
+        boolean ok = matched == 4 && statusLine.toString().equals("HTTP/1.1 200");
+        return ok ? Duration.ofNanos(System.nanoTime() - start).toMillis() : -1;
+    }
+
+    private static long probe(HttpClient http, int port, String fileId) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<Void> response = http.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/files/" + fileId + "/metadata"))
+                    .timeout(Duration.ofSeconds(2)).build(), HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() == 200 ? Duration.ofNanos(System.nanoTime() - start).toMillis() : -1;
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private static String median(long[] sorted) {
+        return sorted.length == 0 ? "-" : String.valueOf(sorted[sorted.length / 2]);
+    }
+}
@@ -0,0 +1,163 @@
+package me.foglio.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to first request and resident memory of the boot jar, started the way the Docker image can start it.
+ * <p>
+ * Each mode launches a fresh JVM (in-memory H2, random port) and times from process start until
+ * {@code POST /api/users/register} answers, which goes through security, MVC and JPA; RSS is read from
+ * {@code /proc} right after (Linux only). The modes add one optimization at a time: the unpacked jar layout,
+ * AOT-generated bean definitions, a CDS archive from a training run, and lazy initialization.
+ * <p>
+ * Results are printed and written to {@code startup.json} in the output directory, so CI can keep them per build.
+ * Run with {@code gradle startupBenchmark -Pruns=5}.
+ */
+public final class StartupBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(2);
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private record Mode(String name, boolean unpacked, List<String> jvmArgs) {
+    }
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path jar = Path.of(args[0]).toAbsolutePath();
+        Path out = Files.createDirectories(Path.of(args[1]));
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        String java = ProcessHandle.current().info().command().orElse("java");
+
+        Path extracted = out.resolve("extracted");
+        Path archive = out.resolve("app.jsa");
+        exec(List.of(java, "-Djarmode=tools", "-jar", jar.toString(), "extract", "--force", "--destination", extracted.toString()));
+        // training run: refresh the context once and dump every class it loaded
+        Files.deleteIfExists(archive);
+        Path unpackedJar = extracted.resolve(jar.getFileName());
+        exec(command(java, unpackedJar, List.of("-XX:ArchiveClassesAtExit=" + archive, "-Dspring.aot.enabled=true",
+                "-Dspring.context.exit=onRefresh"), out.resolve("training"), freePort()));
+
+        List<Mode> modes = List.of(
+                new Mode("jar", false, List.of()),
+                new Mode("extracted", true, List.of()),
+                new Mode("aot", true, List.of("-Dspring.aot.enabled=true")),
+                new Mode("aot+cds", true, List.of("-Dspring.aot.enabled=true", "-XX:SharedArchiveFile=" + archive)),
+                new Mode("aot+cds+lazy", true, List.of("-Dspring.aot.enabled=true", "-XX:SharedArchiveFile=" + archive,
+                        "-Dspring.main.lazy-initialization=true")));
+
+        ObjectNode report = JSON.createObjectNode().put("timestamp", Instant.now().toString()).put("runs", runs)
+                .put("java", Runtime.version().toString());
+        ArrayNode results = report.putArray("modes");
+        System.out.printf("%n%-14s %16s %16s%n", "mode", "first request", "rss");
+        for (Mode mode : modes) {
+            long[] millis = new long[runs];
+            long[] rss = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                int port = freePort();
+                long[] sample = measure(command(java, mode.unpacked() ? unpackedJar : jar, mode.jvmArgs(),
+                        out.resolve("files-" + i), port), port);
+                millis[i] = sample[0];
+                rss[i] = sample[1];
+            }
+            Arrays.sort(millis);
+            Arrays.sort(rss);
+            long medianMillis = millis[runs / 2];
+            long medianRss = rss[runs / 2];
+            results.addObject().put("mode", mode.name()).put("firstRequestMillis", medianMillis).put("rssBytes", medianRss);
+            System.out.printf("%-14s %14dms %14s%n", mode.name(), medianMillis,
+                    medianRss < 0 ? "-" : medianRss / (1024 * 1024) + "MB");
+        }
+        JSON.writerWithDefaultPrettyPrinter().writeValue(out.resolve("startup.json").toFile(), report);
+        System.out.println("\nWritten to " + out.resolve("startup.json"));
+    }
+
+    private static List<String> command(String java, Path jar, List<String> jvmArgs, Path storage, int port) {
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.add("-Djdk.virtualThreadScheduler.maxPoolSize=1024");
+        command.addAll(jvmArgs);
+        command.add("-jar");
+        command.add(jar.toString());
+        command.addAll(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:startup;DB_CLOSE_DELAY=-1",
+                "--spring.jpa.show-sql=false",
+                "--app.files.storage=" + storage,
+                "--logging.level.root=WARN",
+                "--server.port=" + port));
+        return command;
+    }
+
+    // {millis to first request, rss bytes or -1}
+    private static long[] measure(List<String> command, int port) throws Exception {
+        URI first = URI.create("http://localhost:" + port + "/api/users/register?name=startup");
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            while (true) {
+                if (!process.isAlive()) throw new IllegalStateException("Exited with " + process.exitValue() + ": " + command);
+                if (System.nanoTime() - start > TIMEOUT.toNanos()) throw new IllegalStateException("No answer within " + TIMEOUT);
+                try {
+                    HttpResponse<Void> response = http.send(HttpRequest.newBuilder(first).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                            HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() == 200) break;
+                } catch (ConnectException e) {
+                    // not listening yet
+                }
+                Thread.sleep(5);
+            }
+            long millis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+            return new long[]{millis, rss(process.pid())};
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) process.destroyForcibly();
+        }
+    }
+
+    private static long rss(long pid) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/" + pid + "/status"))) {
+                if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    private static void exec(List<String> command) throws Exception {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        if (!process.waitFor(TIMEOUT.toSeconds(), TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new IllegalStateException("Timed out: " + command);
+        }
+        if (process.exitValue() != 0) throw new IllegalStateException("Exited with " + process.exitValue() + ": " + command);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package me.foglio.benchmark;
+
+import me.foglio.service.StorageLayout;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Looks up random files in a flat storage root and in the {@link StorageLayout} shards, the way a download
+ * resolves its path (stat, then open).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StorageLayoutBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int fileCount;
+
+    private Path dir;
+    private Path[] flat;
+    private Path[] sharded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("foglio-jmh-layout");
+        flat = new Path[fileCount];
+        sharded = new Path[fileCount];
+        Path flatRoot = Files.createDirectory(dir.resolve("flat"));
+        Path shardedRoot = Files.createDirectory(dir.resolve("sharded"));
+        for (int i = 0; i < fileCount; i++) {
+            String name = UUID.randomUUID() + ".bin";
+            flat[i] = Files.createFile(flatRoot.resolve(name));
+            sharded[i] = shardedRoot.resolve(StorageLayout.sharded(name));
+            Files.createDirectories(sharded[i].getParent());
+            Files.createFile(sharded[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public long flat() throws IOException {
+        return statAndOpen(flat[ThreadLocalRandom.current().nextInt(fileCount)]);
+    }
+
+    @Benchmark
+    public long sharded() throws IOException {
+        return statAndOpen(sharded[ThreadLocalRandom.current().nextInt(fileCount)]);
+    }
+
+    private static long statAndOpen(Path path) throws IOException {
+        long size = Files.readAttributes(path, BasicFileAttributes.class).size();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return size + channel.size();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package me.foglio.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.foglio.repository.BlobRepository;
+import me.foglio.repository.FileRepository;
+import me.foglio.service.CompressionPolicy;
+import me.foglio.service.ContentAddressedStore;
+import me.foglio.service.FileMetadataCache;
+import me.foglio.service.FileService;
+import me.foglio.service.HotObjectCache;
+import me.foglio.service.RequestCounter;
+import me.foglio.storage.LocalStorageBackend;
+import org.springframework.util.unit.DataSize;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * In-memory stand-ins for the JPA repositories, so benchmarks measure the code around a query rather than a
+ * database. Unlike mocks they record nothing, which would otherwise grow with every invocation.
+ */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    /**
+     * A repository answering the named methods with {@code answers}; any other repository method throws.
+     */
+    static <T> T repository(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals" -> { return proxy == args[0]; }
+                case "hashCode" -> { return System.identityHashCode(proxy); }
+                case "toString" -> { return "stub " + type.getSimpleName(); }
+            }
+            Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer == null) throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+            return answer.apply(args);
+        }));
+    }
+
+    /**
+     * A {@link FileService} over local storage in {@code root}, with dedup, compression and the hot-object cache off
+     * and {@code save} handing the row back as the database would.
+     */
+    static FileService fileService(Path root) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        LocalStorageBackend storage = new LocalStorageBackend(root.toString(), DataSize.ofKilobytes(64));
+        FileRepository files = repository(FileRepository.class, Map.of("save", args -> args[0]));
+        FileMetadataCache metadataCache = new FileMetadataCache(meterRegistry, 10_000, Duration.ofMinutes(10));
+        return new FileService(files, storage,
+                new ContentAddressedStore(repository(BlobRepository.class, Map.of()), storage, meterRegistry, root.toString(), false),
+                new CompressionPolicy(meterRegistry, false, List.of(), DataSize.ofKilobytes(1), 6),
+                new RequestCounter(files, metadataCache), metadataCache,
+                new HotObjectCache(meterRegistry, false, DataSize.ofMegabytes(64), DataSize.ofKilobytes(256), 10, Duration.ofHours(1)),
+                event -> { }, meterRegistry, DataSize.ofGigabytes(1), DataSize.ofGigabytes(1));
+    }
+}
@@ -0,0 +1,65 @@
+package me.foglio.benchmark;
+
+import me.foglio.model.File;
+import me.foglio.model.User;
+import me.foglio.service.FileService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * {@link FileService#uploadFile} from an in-memory multipart part to local storage: hashing, the copy loop and
+ * the sharded write. Each stored file is deleted again outside the measurement.
+ * <p>
+ * Throughput in MB/s is the score times {@code fileSize}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UploadBenchmark {
+
+    @Param({"4096", "1048576", "16777216"})
+    public int fileSize;
+
+    private final User owner = User.builder().id(1L).name("bench").apiKey(UUID.randomUUID()).build();
+
+    private Path dir;
+    private FileService fileService;
+    private MockMultipartFile part;
+    private File stored;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("foglio-jmh-upload");
+        fileService = Stubs.fileService(dir);
+        byte[] content = new byte[fileSize];
+        new Random(1).nextBytes(content);
+        part = new MockMultipartFile("file", "blob.bin", "application/octet-stream", content);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteStored() throws IOException {
+        if (stored != null) Files.deleteIfExists(dir.resolve(stored.getStoredFileName()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public File uploadFile() {
+        stored = fileService.uploadFile(part, owner, false);
+        return stored;
+    }
+}
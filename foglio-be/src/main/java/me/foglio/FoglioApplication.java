@@ -1,13 +1,36 @@
 package me.foglio;
 
+import jakarta.servlet.Filter;
+import org.springframework.boot.LazyInitializationExcludeFilter;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Controller;
+
+import java.util.Arrays;
 
 @SpringBootApplication
+@EnableScheduling
 public class FoglioApplication {
 
 	public static void main(String[] args) {
 		SpringApplication.run(FoglioApplication.class, args);
 	}
 
+	/**
+	 * Beans still created at startup under {@code spring.main.lazy-initialization=true} (the Docker fast start):
+	 * controllers and filters, so the first request doesn't pay for the services and repositories they pull in,
+	 * and beans with {@link Scheduled} methods, which are only scheduled once created.
+	 */
+	@Bean
+	static LazyInitializationExcludeFilter eagerHotPath() {
+		return (beanName, definition, beanType) -> beanType != null
+				&& (AnnotatedElementUtils.hasAnnotation(beanType, Controller.class)
+				|| Filter.class.isAssignableFrom(beanType)
+				|| Arrays.stream(beanType.getMethods()).anyMatch(m -> m.isAnnotationPresent(Scheduled.class)));
+	}
+
 }
@@ -1,24 +1,39 @@
 package me.foglio.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import me.foglio.dto.ArchiveRequestDTO;
+import me.foglio.dto.BatchUploadDTO;
+import me.foglio.dto.BulkDeleteDTO;
+import me.foglio.dto.BulkDeleteRequestDTO;
 import me.foglio.dto.FileMetadataDTO;
+import me.foglio.dto.FilePageDTO;
 import me.foglio.model.File;
 import me.foglio.model.User;
+import me.foglio.service.ArchiveService;
+import me.foglio.service.BatchUploadService;
+import me.foglio.service.BulkDeleteService;
+import me.foglio.service.DownloadService;
 import me.foglio.service.FileService;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
+import me.foglio.service.MultipartStreamReader;
+import me.foglio.service.ThumbnailService;
+import me.foglio.storage.StoredObject;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
 
-import java.net.MalformedURLException;
-import java.nio.file.Path;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.UUID;
 
 @RestController
@@ -26,19 +41,39 @@ import java.util.UUID;
 public class FileController {
 
     private final FileService fileService;
+    private final DownloadService downloadService;
+    private final ThumbnailService thumbnailService;
+    private final BatchUploadService batchUploadService;
+    private final BulkDeleteService bulkDeleteService;
+    private final ArchiveService archiveService;
 
-    public FileController(FileService fileService) {
+    public FileController(FileService fileService, DownloadService downloadService, ThumbnailService thumbnailService,
+                          BatchUploadService batchUploadService, BulkDeleteService bulkDeleteService,
+                          ArchiveService archiveService) {
         this.fileService = fileService;
+        this.downloadService = downloadService;
+        this.thumbnailService = thumbnailService;
+        this.batchUploadService = batchUploadService;
+        this.bulkDeleteService = bulkDeleteService;
+        this.archiveService = archiveService;
     }
 
     @GetMapping("")
-    public List<FileMetadataDTO> listMine(Authentication authentication) {
+    public FilePageDTO listMine(Authentication authentication,
+                                @RequestParam(value = "cursor", required = false) String cursor,
+                                @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                @RequestParam(value = "sort", defaultValue = "newest") String sort,
+                                @RequestParam(value = "contentType", required = false) String contentType,
+                                @RequestParam(value = "public", required = false) Boolean isPublic) {
         if (authentication == null || !(authentication.getPrincipal() instanceof User user)) {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Authentication required");
         }
-        return fileService.listFilesByOwner(user).stream()
-                .map(FileMetadataDTO::fromEntity)
-                .toList();
+        boolean ascending = switch (sort) {
+            case "newest" -> false;
+            case "oldest" -> true;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort must be 'newest' or 'oldest'");
+        };
+        return FilePageDTO.fromPage(fileService.listFilesByOwner(user, contentType, isPublic, ascending, cursor, limit));
     }
 
     @GetMapping("/{id}/metadata")
@@ -49,7 +84,9 @@ public class FileController {
     }
 
     @GetMapping("/{id}/preview")
-    public ResponseEntity<Resource> preview(@PathVariable UUID id, Authentication authentication) {
+    public void preview(@PathVariable UUID id, Authentication authentication,
+                        @RequestParam(value = "size", required = false) Integer size,
+                        HttpServletRequest request, HttpServletResponse response) throws IOException {
         Optional<File> opt = fileService.getFileMetadata(id);
         File f = getFile(authentication, opt);
         String ct = f.getContentType();
@@ -57,41 +94,66 @@ public class FileController {
         boolean isPreviewable = ct.startsWith("image/") || ct.startsWith("video/");
         if (!isPreviewable) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Preview only available for images and videos");
 
-        Path p = fileService.getFilePath(f);
-        try {
-            Resource resource = new UrlResource(p.toUri());
-            if (!resource.exists() || !resource.isReadable()) throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        Optional<ThumbnailService.Rendition> rendition = Optional.empty();
+        if (size != null) {
+            if (!thumbnailService.isConfiguredSize(size)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be one of " + Arrays.toString(thumbnailService.getSizes()));
+            }
+            // videos and undecodable images are previewed in full
+            if (thumbnailService.canRender(f)) rendition = thumbnailService.rendition(f, size);
+        }
+        // the ETag names what is sent: the thumbnail only once it exists, otherwise the original
+        String variant = rendition.isPresent() ? "w" + size : null;
+        if (downloadService.checkNotModified(f, variant, request, response)) {
             fileService.touch(f);
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType(ct));
-            headers.setContentLength(f.getSize() != null ? f.getSize() : -1);
-            headers.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + f.getOriginalName() + "\"");
-            return new ResponseEntity<>(resource, headers, HttpStatus.OK);
-        } catch (MalformedURLException e) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+            return;
+        }
+        if (rendition.isPresent()) {
+            fileService.touch(f);
+            downloadService.send(f, variant, rendition.get().contentType(), rendition.get().path(), "inline", request, response);
+            return;
         }
+        StoredObject content = fileService.findContent(f).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        fileService.touch(f);
+        downloadService.send(f, content, "inline", request, response);
     }
 
     @GetMapping("/{id}/download")
-    public ResponseEntity<Resource> download(@PathVariable UUID id, Authentication authentication) {
+    public void download(@PathVariable UUID id, Authentication authentication,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
         Optional<File> opt = fileService.getFileMetadata(id);
         if (opt.isEmpty()) throw new ResponseStatusException(HttpStatus.NOT_FOUND);
         File f = getFile(authentication, opt);
 
-        Path p = fileService.getFilePath(f);
-        try {
-            Resource resource = new UrlResource(p.toUri());
-            if (!resource.exists() || !resource.isReadable()) throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        if (downloadService.checkNotModified(f, request, response)) {
             fileService.touch(f);
-            HttpHeaders headers = new HttpHeaders();
-            String ct = f.getContentType() != null ? f.getContentType() : "application/octet-stream";
-            headers.setContentType(MediaType.parseMediaType(ct));
-            headers.setContentLength(f.getSize() != null ? f.getSize() : -1);
-            headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + f.getOriginalName() + "\"");
-            return new ResponseEntity<>(resource, headers, HttpStatus.OK);
-        } catch (MalformedURLException e) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+            return;
         }
+        StoredObject content = fileService.findContent(f).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        fileService.touch(f);
+        downloadService.send(f, content, "attachment", request, response);
+    }
+
+    // one ZIP of the listed files, written while it is sent; each file is checked as its own download would be
+    @PostMapping("/archive")
+    public void archive(@RequestBody ArchiveRequestDTO request, Authentication authentication,
+                        HttpServletResponse response) throws IOException {
+        if (request.ids == null || request.ids.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "ids must not be empty");
+        }
+        archiveService.checkEntryCount(request.ids.size());
+        List<File> files = new ArrayList<>();
+        for (UUID id : new LinkedHashSet<>(request.ids)) {
+            files.add(getFile(authentication, fileService.getFileMetadata(id)));
+        }
+        ArchiveService.Archive archive = archiveService.prepare(files);
+
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename=\"files.zip\"");
+        OptionalLong length = archive.contentLength();
+        if (length.isPresent()) response.setContentLengthLong(length.getAsLong());
+        files.forEach(fileService::touch);
+        archive.writeTo(response.getOutputStream());
     }
 
     @PostMapping("/upload")
@@ -105,6 +167,50 @@ public class FileController {
         return FileMetadataDTO.fromEntity(saved);
     }
 
+    // 207 when some parts failed; each result carries the status its part would have got on its own
+    @PostMapping("/upload/batch")
+    public ResponseEntity<BatchUploadDTO> uploadBatch(@RequestParam(value = "files", required = false) List<MultipartFile> files,
+                                                      @RequestParam(value = "public", required = false, defaultValue = "false") boolean isPublic,
+                                                      Authentication authentication) {
+        if (authentication == null || !(authentication.getPrincipal() instanceof User user)) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Authentication required");
+        }
+        BatchUploadDTO result = BatchUploadDTO.fromResults(batchUploadService.upload(files, user, isPublic));
+        return ResponseEntity.status(result.failed == 0 ? HttpStatus.OK : HttpStatus.MULTI_STATUS).body(result);
+    }
+
+    @PostMapping("/upload/stream")
+    public FileMetadataDTO uploadStream(HttpServletRequest request, Authentication authentication) throws IOException {
+        if (authentication == null || !(authentication.getPrincipal() instanceof User user)) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Authentication required");
+        }
+        String boundary = MultipartStreamReader.boundaryOf(request.getContentType());
+        if (boundary == null) {
+            throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "multipart/form-data required");
+        }
+        fileService.checkRequestLength(request.getContentLengthLong());
+
+        // request.getParameter would make the container parse and spool the whole body
+        boolean isPublic = Boolean.parseBoolean(UriComponentsBuilder.newInstance()
+                .query(request.getQueryString()).build().getQueryParams().getFirst("public"));
+
+        MultipartStreamReader reader = new MultipartStreamReader(request.getInputStream(), boundary);
+        MultipartStreamReader.Part part;
+        try {
+            while ((part = reader.next()) != null) {
+                if ("public".equals(part.name()) && !part.isFile()) {
+                    isPublic = Boolean.parseBoolean(new String(part.body().readNBytes(16), StandardCharsets.UTF_8).trim());
+                } else if ("file".equals(part.name()) && part.isFile()) {
+                    File saved = fileService.uploadStream(part.body(), part.filename(), part.contentType(), user, isPublic);
+                    return FileMetadataDTO.fromEntity(saved);
+                }
+            }
+        } catch (MultipartStreamReader.MalformedMultipartException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "file part is required");
+    }
+
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> delete(@PathVariable UUID id, Authentication authentication) {
         if (authentication == null || !(authentication.getPrincipal() instanceof User user)) {
@@ -126,6 +232,25 @@ public class FileController {
         return ResponseEntity.noContent().build();
     }
 
+    // stored bytes are removed in the background after the response
+    @PostMapping("/bulk-delete")
+    public BulkDeleteDTO bulkDelete(@RequestBody BulkDeleteRequestDTO request, Authentication authentication) {
+        if (authentication == null || !(authentication.getPrincipal() instanceof User user)) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Authentication required");
+        }
+        if (request.ids != null) {
+            if (request.hasFilter() || request.all) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Give either ids or a filter");
+            }
+            return BulkDeleteDTO.fromResult(bulkDeleteService.deleteByIds(request.ids, user));
+        }
+        if (!request.hasFilter() && !request.all) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Give ids, a filter, or all: true");
+        }
+        return BulkDeleteDTO.fromResult(bulkDeleteService.deleteMatching(request.contentType, request.isPublic,
+                request.createdBefore, user));
+    }
+
     private static File getFile(Authentication authentication, Optional<File> opt) {
         if (opt.isEmpty()) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND);
@@ -0,0 +1,168 @@
+package me.foglio.controller;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Time to first byte and full transfer time of the {@code /api/files} endpoints, plus the number of uploads and
+ * downloads in progress. Only endpoints that carry a file body count as either; listings, metadata, deletes and
+ * upload session bookkeeping are timed but not counted.
+ * <p>
+ * Both timers start when the request reaches the application. The first byte is the first write or flush of the
+ * response body, or the end of the handler when it writes none (304s, errors, and sendfile, where the container
+ * sends the body after the handler returns; the transfer time then ends at that hand-off too).
+ */
+@Component
+public class TransferMetricsFilter extends OncePerRequestFilter {
+
+    private static final String PREFIX = "/api/files";
+    // paths below PREFIX
+    private static final Pattern UPLOADS = Pattern.compile("/upload(/batch|/stream)?|/uploads/[^/]+/chunks/[^/]+");
+    private static final Pattern DOWNLOADS = Pattern.compile("/[^/]+/(download|preview)|/archive");
+
+    private final MeterRegistry meterRegistry;
+    private final AtomicInteger activeUploads = new AtomicInteger();
+    private final AtomicInteger activeDownloads = new AtomicInteger();
+
+    public TransferMetricsFilter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("foglio.transfers.active", activeUploads, AtomicInteger::get)
+                .description("Requests currently sending or receiving file bodies")
+                .tag("direction", "upload")
+                .register(meterRegistry);
+        Gauge.builder("foglio.transfers.active", activeDownloads, AtomicInteger::get)
+                .description("Requests currently sending or receiving file bodies")
+                .tag("direction", "download")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return !request.getRequestURI().startsWith(request.getContextPath() + PREFIX);
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull FilterChain filterChain) throws ServletException, IOException {
+        AtomicInteger active = activeTransfers(request);
+        FirstByteResponse timed = new FirstByteResponse(response);
+        long start = System.nanoTime();
+        if (active != null) active.incrementAndGet();
+        boolean failed = true;
+        try {
+            filterChain.doFilter(request, timed);
+            failed = false;
+        } finally {
+            long end = System.nanoTime();
+            if (active != null) active.decrementAndGet();
+            // the handler's pattern rather than the path, so ids don't each get their own series
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            Tags tags = Tags.of("method", request.getMethod(), "uri", pattern != null ? pattern.toString() : "UNKNOWN",
+                    "status", failed ? "500" : String.valueOf(response.getStatus()));
+            timer("foglio.http.ttfb", "Time from request arrival to the first byte of the response body", tags)
+                    .record((timed.firstByte != 0 ? timed.firstByte : end) - start, TimeUnit.NANOSECONDS);
+            timer("foglio.http.transfer", "Time from request arrival to the end of the response", tags)
+                    .record(end - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // by endpoint rather than method: archive is a POST that sends a body, bulk-delete a POST that moves none
+    private AtomicInteger activeTransfers(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length() + PREFIX.length());
+        String method = request.getMethod();
+        if (("POST".equals(method) || "PUT".equals(method)) && UPLOADS.matcher(path).matches()) return activeUploads;
+        if (("GET".equals(method) || "POST".equals(method)) && DOWNLOADS.matcher(path).matches()) return activeDownloads;
+        return null;
+    }
+
+    private Timer timer(String name, String description, Tags tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(10))
+                .register(meterRegistry);
+    }
+
+    // notes when the body starts going out
+    private static final class FirstByteResponse extends HttpServletResponseWrapper {
+
+        private long firstByte;
+        private ServletOutputStream out;
+
+        FirstByteResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        private void mark() {
+            if (firstByte == 0) firstByte = System.nanoTime();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            mark();
+            super.flushBuffer();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                ServletOutputStream target = super.getOutputStream();
+                out = new ServletOutputStream() {
+                    @Override
+                    public boolean isReady() {
+                        return target.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener listener) {
+                        target.setWriteListener(listener);
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        mark();
+                        target.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        mark();
+                        target.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        mark();
+                        target.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        target.close();
+                    }
+                };
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package me.foglio.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import me.foglio.dto.FileMetadataDTO;
+import me.foglio.dto.UploadSessionDTO;
+import me.foglio.model.UploadSession;
+import me.foglio.model.User;
+import me.foglio.service.UploadSessionService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Resumable uploads: create a session, PUT its chunks in any order (retrying any that failed), check which
+ * chunks arrived, then complete it into a regular file.
+ */
+@RestController
+@RequestMapping("/api/files/uploads")
+public class UploadSessionController {
+
+    private final UploadSessionService uploadSessionService;
+
+    public UploadSessionController(UploadSessionService uploadSessionService) {
+        this.uploadSessionService = uploadSessionService;
+    }
+
+    @PostMapping("")
+    public ResponseEntity<UploadSessionDTO> create(@RequestParam("name") String name,
+                                                   @RequestParam("size") long size,
+                                                   @RequestParam(value = "contentType", required = false) String contentType,
+                                                   @RequestParam(value = "public", defaultValue = "false") boolean isPublic,
+                                                   @RequestParam(value = "chunkSize", required = false) Long chunkSize,
+                                                   Authentication authentication) {
+        User user = requireUser(authentication);
+        UploadSession session = uploadSessionService.create(user, name, contentType, isPublic, size, chunkSize);
+        return ResponseEntity.created(URI.create("/api/files/uploads/" + session.getId()))
+                .body(UploadSessionDTO.fromEntity(session, List.of()));
+    }
+
+    @GetMapping("/{id}")
+    public UploadSessionDTO status(@PathVariable UUID id, Authentication authentication) {
+        UploadSession session = uploadSessionService.get(id, requireUser(authentication));
+        return UploadSessionDTO.fromEntity(session, uploadSessionService.receivedChunks(id));
+    }
+
+    @PutMapping("/{id}/chunks/{index}")
+    public ResponseEntity<Void> putChunk(@PathVariable UUID id, @PathVariable int index, Authentication authentication,
+                                         HttpServletRequest request) throws IOException {
+        User user = requireUser(authentication);
+        uploadSessionService.writeChunk(id, user, index, request.getInputStream());
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping("/{id}/complete")
+    public FileMetadataDTO complete(@PathVariable UUID id, Authentication authentication) {
+        return FileMetadataDTO.fromEntity(uploadSessionService.complete(id, requireUser(authentication)));
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> abort(@PathVariable UUID id, Authentication authentication) {
+        uploadSessionService.abort(id, requireUser(authentication));
+        return ResponseEntity.noContent().build();
+    }
+
+    private static User requireUser(Authentication authentication) {
+        if (authentication == null || !(authentication.getPrincipal() instanceof User user)) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Authentication required");
+        }
+        return user;
+    }
+}
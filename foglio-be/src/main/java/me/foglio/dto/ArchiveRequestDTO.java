@@ -0,0 +1,9 @@
+package me.foglio.dto;
+
+import java.util.List;
+import java.util.UUID;
+
+// files to put in one ZIP, in archive order
+public class ArchiveRequestDTO {
+    public List<UUID> ids;
+}
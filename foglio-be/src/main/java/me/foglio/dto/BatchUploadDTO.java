@@ -0,0 +1,34 @@
+package me.foglio.dto;
+
+import me.foglio.service.BatchUploadService;
+
+import java.util.List;
+
+public class BatchUploadDTO {
+    public int stored;
+    public int failed;
+    // one entry per part, in request order
+    public List<Item> results;
+
+    public static class Item {
+        public String originalName;
+        public int status;
+        public String error;
+        public FileMetadataDTO file;
+    }
+
+    public static BatchUploadDTO fromResults(List<BatchUploadService.Result> results) {
+        BatchUploadDTO dto = new BatchUploadDTO();
+        dto.results = results.stream().map(r -> {
+            Item item = new Item();
+            item.originalName = r.originalName();
+            item.status = r.status().value();
+            item.error = r.error();
+            item.file = r.isStored() ? FileMetadataDTO.fromEntity(r.file()) : null;
+            return item;
+        }).toList();
+        dto.stored = (int) results.stream().filter(BatchUploadService.Result::isStored).count();
+        dto.failed = results.size() - dto.stored;
+        return dto;
+    }
+}
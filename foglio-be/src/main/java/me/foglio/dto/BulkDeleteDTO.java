@@ -0,0 +1,18 @@
+package me.foglio.dto;
+
+import me.foglio.service.BulkDeleteService;
+
+import java.util.List;
+import java.util.UUID;
+
+public class BulkDeleteDTO {
+    public int deleted;
+    public List<UUID> notFound;
+
+    public static BulkDeleteDTO fromResult(BulkDeleteService.Result result) {
+        BulkDeleteDTO dto = new BulkDeleteDTO();
+        dto.deleted = result.deleted();
+        dto.notFound = result.notFound();
+        return dto;
+    }
+}
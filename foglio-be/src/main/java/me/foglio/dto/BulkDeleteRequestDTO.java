@@ -0,0 +1,18 @@
+package me.foglio.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+// either ids, or a filter over the caller's files; all = true with no criteria selects every file
+public class BulkDeleteRequestDTO {
+    public List<UUID> ids;
+    public String contentType;
+    public Boolean isPublic;
+    public LocalDateTime createdBefore;
+    public boolean all;
+
+    public boolean hasFilter() {
+        return contentType != null || isPublic != null || createdBefore != null;
+    }
+}
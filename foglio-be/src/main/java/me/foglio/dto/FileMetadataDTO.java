@@ -11,6 +11,9 @@ public class FileMetadataDTO {
     public String extension;
     public String contentType;
     public Long size;
+    // bytes at rest, null unless the file is compressed in storage
+    public Long compressedSize;
+    public String sha256;
     public Long ownerId;
     public Boolean isPublic;
     public String storedFileName;
@@ -25,6 +28,8 @@ public class FileMetadataDTO {
         dto.extension = f.getExtension();
         dto.contentType = f.getContentType();
         dto.size = f.getSize();
+        dto.compressedSize = f.getContentEncoding() != null ? f.getCompressedSize() : null;
+        dto.sha256 = f.getSha256();
         dto.ownerId = f.getOwner() != null ? f.getOwner().getId() : null;
         dto.isPublic = f.getIsPublic();
         dto.storedFileName = f.getStoredFileName();
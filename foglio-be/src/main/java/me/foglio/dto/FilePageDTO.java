@@ -0,0 +1,17 @@
+package me.foglio.dto;
+
+import me.foglio.service.FilePage;
+
+import java.util.List;
+
+public class FilePageDTO {
+    public List<FileMetadataDTO> items;
+    public String nextCursor;
+
+    public static FilePageDTO fromPage(FilePage page) {
+        FilePageDTO dto = new FilePageDTO();
+        dto.items = page.files().stream().map(FileMetadataDTO::fromEntity).toList();
+        dto.nextCursor = page.nextCursor();
+        return dto;
+    }
+}
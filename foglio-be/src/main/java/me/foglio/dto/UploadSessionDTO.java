@@ -0,0 +1,34 @@
+package me.foglio.dto;
+
+import me.foglio.model.UploadSession;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+public class UploadSessionDTO {
+    public UUID id;
+    public String originalName;
+    public String contentType;
+    public Boolean isPublic;
+    public Long size;
+    public Long chunkSize;
+    public Integer chunkCount;
+    // indexes of the chunks already stored; chunk i covers bytes [i * chunkSize, min((i + 1) * chunkSize, size))
+    public List<Integer> receivedChunks;
+    public LocalDateTime expiresAt;
+
+    public static UploadSessionDTO fromEntity(UploadSession s, List<Integer> receivedChunks) {
+        UploadSessionDTO dto = new UploadSessionDTO();
+        dto.id = s.getId();
+        dto.originalName = s.getOriginalName();
+        dto.contentType = s.getContentType();
+        dto.isPublic = s.getIsPublic();
+        dto.size = s.getSize();
+        dto.chunkSize = s.getChunkSize();
+        dto.chunkCount = s.chunkCount();
+        dto.receivedChunks = receivedChunks;
+        dto.expiresAt = s.getExpiresAt();
+        return dto;
+    }
+}
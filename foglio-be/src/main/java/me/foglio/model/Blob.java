@@ -0,0 +1,37 @@
+package me.foglio.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "blobs")
+public class Blob {
+
+    // hex SHA-256 of the content, shared by every File with the same bytes
+    @Id
+    @Column(name = "sha256", length = 64, updatable = false, nullable = false)
+    private String sha256;
+
+    private Long size;
+
+    @Builder.Default
+    private Long refCount = 0L;
+
+    // stored path relative to the storage root
+    private String storedFileName;
+
+    // encoding of the stored bytes, adopted by every File sharing the blob
+    private String contentEncoding;
+
+    private Long compressedSize;
+
+    @Builder.Default
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+}
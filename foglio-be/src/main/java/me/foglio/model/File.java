@@ -2,6 +2,7 @@ package me.foglio.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.springframework.data.domain.Persistable;
 
 import java.time.LocalDateTime;
 import java.util.UUID;
@@ -9,10 +10,13 @@ import java.util.UUID;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 @Entity
-@Table(name = "files")
-public class File {
+@Table(name = "files", indexes = {
+        // keyset pagination of an owner's files, see FileRepositoryCustom#findPage
+        @Index(name = "idx_files_owner_created", columnList = "user_id, created_at, id")
+})
+public class File implements Persistable<UUID> {
 
     @Id
     @Column(name = "id", updatable = false, nullable = false)
@@ -23,7 +27,12 @@ public class File {
     private String contentType;
     private Long size;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    // hex SHA-256 of the stored bytes
+    @Column(length = 64)
+    private String sha256;
+
+    // reads only need the owner's id, which a lazy reference carries without loading the user
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     @ToString.Exclude
     @EqualsAndHashCode.Exclude
@@ -44,4 +53,30 @@ public class File {
     // stored filename on disk
     private String storedFileName;
 
+    // Content-Encoding of the stored bytes (see CompressionPolicy), null when stored as uploaded
+    private String contentEncoding;
+
+    // bytes at rest when contentEncoding is set; size and sha256 always describe the uploaded content
+    private Long compressedSize;
+
+    // ids are assigned before saving, so without this flag every save would be a merge selecting the row first
+    @Transient
+    @Builder.Default
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private boolean persisted = false;
+
+    @Override
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markPersisted() {
+        persisted = true;
+    }
+
 }
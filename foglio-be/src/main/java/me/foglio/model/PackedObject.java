@@ -0,0 +1,33 @@
+package me.foglio.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+// where a small object lives inside a pack file, see me.foglio.storage.PackedStorageBackend
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "packed_objects", indexes = {
+        @Index(name = "idx_packed_objects_pack", columnList = "pack")
+})
+public class PackedObject {
+
+    @Id
+    @Column(name = "object_key", updatable = false, nullable = false)
+    private String key;
+
+    private Integer pack;
+
+    @Column(name = "pack_offset")
+    private Long offset;
+
+    private Long size;
+
+    @Builder.Default
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+}
@@ -0,0 +1,42 @@
+package me.foglio.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// stored bytes of a deleted file still to be removed from storage, see BlobDeleter
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "pending_deletions", indexes = {
+        @Index(name = "idx_pending_deletions_not_before", columnList = "not_before")
+})
+public class PendingDeletion {
+
+    // id of the deleted file
+    @Id
+    @Column(name = "file_id", updatable = false, nullable = false)
+    private UUID fileId;
+
+    private String storedFileName;
+
+    @Column(length = 64)
+    private String sha256;
+
+    @Builder.Default
+    private Integer attempts = 0;
+
+    @Builder.Default
+    private LocalDateTime enqueuedAt = LocalDateTime.now();
+
+    // not retried before this time
+    @Builder.Default
+    private LocalDateTime notBefore = LocalDateTime.now();
+
+    @Column(length = 500)
+    private String lastError;
+}
@@ -0,0 +1,38 @@
+package me.foglio.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+// one row per chunk written to an upload session's partial file
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = "upload_chunks")
+@IdClass(UploadChunk.Key.class)
+public class UploadChunk {
+
+    @Id
+    @Column(name = "session_id", updatable = false, nullable = false)
+    private UUID sessionId;
+
+    @Id
+    @Column(name = "chunk_index", updatable = false, nullable = false)
+    private Integer chunkIndex;
+
+    @Builder.Default
+    private LocalDateTime receivedAt = LocalDateTime.now();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private UUID sessionId;
+        private Integer chunkIndex;
+    }
+}
@@ -0,0 +1,62 @@
+package me.foglio.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder(toBuilder = true)
+@Entity
+@Table(name = "upload_sessions")
+public class UploadSession {
+
+    public enum State { OPEN, COMPLETING }
+
+    @Id
+    @Column(name = "id", updatable = false, nullable = false)
+    private UUID id;
+
+    @ManyToOne(fetch = FetchType.EAGER)
+    @JoinColumn(name = "user_id")
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private User owner;
+
+    private String originalName;
+    private String contentType;
+
+    @Builder.Default
+    private Boolean isPublic = false;
+
+    // declared total size; the partial file is preallocated to it
+    private Long size;
+    private Long chunkSize;
+
+    @Enumerated(EnumType.STRING)
+    @Builder.Default
+    private State state = State.OPEN;
+
+    // when the session went COMPLETING; a claim held far longer than any complete() takes was left by a dead JVM
+    private LocalDateTime claimedAt;
+
+    @Builder.Default
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    private LocalDateTime expiresAt;
+
+    public int chunkCount() {
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    public long chunkOffset(int index) {
+        return index * chunkSize;
+    }
+
+    public long chunkLength(int index) {
+        return Math.min(chunkSize, size - chunkOffset(index));
+    }
+}
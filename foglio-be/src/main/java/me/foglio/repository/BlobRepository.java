@@ -0,0 +1,38 @@
+package me.foglio.repository;
+
+import me.foglio.model.Blob;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface BlobRepository extends CrudRepository<Blob, String> {
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update Blob b set b.refCount = b.refCount + 1 where b.sha256 = :sha256")
+    int incrementRefCount(@Param("sha256") String sha256);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update Blob b set b.refCount = b.refCount - 1 where b.sha256 = :sha256")
+    int decrementRefCount(@Param("sha256") String sha256);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("delete from Blob b where b.sha256 = :sha256 and b.refCount <= 0")
+    int deleteUnreferenced(@Param("sha256") String sha256);
+
+    @Query("select b.sha256 from Blob b where b.sha256 in :sha256s")
+    List<String> findExisting(@Param("sha256s") Collection<String> sha256s);
+
+    @Query("select coalesce(sum(coalesce(b.compressedSize, b.size)), 0) from Blob b")
+    long physicalBytes();
+
+    @Query("select coalesce(sum(b.size * b.refCount), 0) from Blob b")
+    long logicalBytes();
+}
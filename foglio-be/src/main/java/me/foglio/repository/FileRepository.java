@@ -1,11 +1,52 @@
 package me.foglio.repository;
 
 import me.foglio.model.File;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
-public interface FileRepository extends CrudRepository<File, UUID> {
-    List<File> findByOwner_Id(Long ownerId);
+public interface FileRepository extends CrudRepository<File, UUID>, FileRepositoryCustom {
+
+    interface StoredName {
+        UUID getId();
+
+        String getStoredFileName();
+    }
+
+    interface OwnedId {
+        UUID getId();
+
+        Long getOwnerId();
+    }
+
+    @Query("select f.id as id, f.owner.id as ownerId from File f where f.id in :ids")
+    List<OwnedId> findOwners(@Param("ids") Collection<UUID> ids);
+
+    // files still stored flat at the storage root, in id order for keyset iteration
+    @Query("select f.id as id, f.storedFileName as storedFileName from File f "
+            + "where f.storedFileName not like '%/%' and f.id > :after order by f.id")
+    List<StoredName> findFlatAfter(@Param("after") UUID after, Limit limit);
+
+    // every file, in id order for keyset iteration
+    @Query("select f.id as id, f.storedFileName as storedFileName from File f where f.id > :after order by f.id")
+    List<StoredName> findStoredNamesAfter(@Param("after") UUID after, Limit limit);
+
+    // which of these stored names some file refers to
+    @Query("select f.storedFileName from File f where f.storedFileName in :names")
+    List<String> findStoredNamesIn(@Param("names") Collection<String> names);
+
+    @Query("select count(f) from File f where f.storedFileName not like '%/%'")
+    long countFlat();
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update File f set f.storedFileName = :to where f.id = :id and f.storedFileName = :from")
+    int renameStoredFile(@Param("id") UUID id, @Param("from") String from, @Param("to") String to);
 }
@@ -0,0 +1,98 @@
+package me.foglio.repository;
+
+import me.foglio.model.File;
+import me.foglio.model.User;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface FileRepositoryCustom {
+
+    record RequestCountDelta(UUID fileId, long requests, LocalDateTime lastRequestedAt) {
+    }
+
+    /**
+     * Adds request counts in one JDBC batch of {@code requestCount = requestCount + ?} updates,
+     * never moving {@code lastRequestedAt} backwards.
+     */
+    void addRequestCounts(Collection<RequestCountDelta> deltas);
+
+    /**
+     * The columns of a file row, selected without the owner beyond its id.
+     */
+    record FileRow(UUID id, String originalName, String extension, String contentType, Long size, String sha256,
+                   Long ownerId, Boolean isPublic, Long requestCount, LocalDateTime lastRequestedAt,
+                   LocalDateTime createdAt, String storedFileName, String contentEncoding, Long compressedSize) {
+
+        static final String SELECT = "select f.id, f.originalName, f.extension, f.contentType, f.size, f.sha256, "
+                + "f.owner.id, f.isPublic, f.requestCount, f.lastRequestedAt, f.createdAt, f.storedFileName, "
+                + "f.contentEncoding, f.compressedSize from File f";
+
+        /**
+         * A detached file for reading; its owner is a {@link User} with only the id set.
+         */
+        public File toFile() {
+            return File.builder()
+                    .id(id)
+                    .originalName(originalName)
+                    .extension(extension)
+                    .contentType(contentType)
+                    .size(size)
+                    .sha256(sha256)
+                    .owner(ownerId != null ? User.builder().id(ownerId).build() : null)
+                    .isPublic(isPublic)
+                    .requestCount(requestCount)
+                    .lastRequestedAt(lastRequestedAt)
+                    .createdAt(createdAt)
+                    .storedFileName(storedFileName)
+                    .contentEncoding(contentEncoding)
+                    .compressedSize(compressedSize)
+                    // the row exists: a save or delete of this instance must not treat it as new
+                    .persisted(true)
+                    .build();
+        }
+    }
+
+    /**
+     * A file by id as a {@link FileRow}: one select on {@code files}, nothing added to the persistence context.
+     */
+    Optional<File> findMetadata(UUID id);
+
+    /**
+     * One page of an owner's files in {@code (createdAt, id)} order, built from {@link FileRow}s.
+     *
+     * @param contentType exact content type, or a {@code type/*} wildcard; {@code null} for any
+     * @param isPublic    visibility filter; {@code null} for any
+     * @param afterCreatedAt keyset of the last row of the previous page, {@code null} for the first page
+     */
+    record FilePageQuery(Long ownerId, String contentType, Boolean isPublic, boolean ascending,
+                         LocalDateTime afterCreatedAt, UUID afterId, int limit) {
+    }
+
+    /**
+     * Keyset page over the {@code (user_id, created_at, id)} index: the cost depends on the page size only,
+     * not on how many files precede the cursor.
+     */
+    List<File> findPage(FilePageQuery query);
+
+    /**
+     * An owner's files for bulk operations; {@code null} fields match anything.
+     *
+     * @param contentType exact content type, or a {@code type/*} wildcard
+     */
+    record FileFilter(Long ownerId, String contentType, Boolean isPublic, LocalDateTime createdBefore) {
+    }
+
+    List<UUID> findIds(FileFilter filter);
+
+    /**
+     * Deletes the rows of {@code ids} with set-based statements, queueing their stored bytes in
+     * {@code pending_deletions} in the same transaction.
+     *
+     * @return the number of rows deleted
+     */
+    int deleteAndQueue(Collection<UUID> ids);
+}
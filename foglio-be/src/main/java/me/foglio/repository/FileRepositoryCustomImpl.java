@@ -0,0 +1,152 @@
+package me.foglio.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import me.foglio.model.File;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public class FileRepositoryCustomImpl implements FileRepositoryCustom {
+
+    private static final String ADD_REQUEST_COUNT = """
+            update files
+               set request_count = coalesce(request_count, 0) + ?,
+                   last_requested_at = case when last_requested_at is null or last_requested_at < ? then ? else last_requested_at end
+             where id = ?""";
+
+    // the queue entry is written in the transaction deleting the row, so no stored file is forgotten
+    private static final String QUEUE_DELETIONS = """
+            insert into pending_deletions (file_id, stored_file_name, sha256, attempts, enqueued_at, not_before)
+            select id, stored_file_name, sha256, 0, :now, :now from files where id in (:ids)""";
+    private static final String DELETE_FILES = "delete from files where id in (:ids)";
+    // ids per statement, well under the bind parameter limits of the supported databases
+    private static final int DELETE_CHUNK = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final EntityManager entityManager;
+
+    public FileRepositoryCustomImpl(JdbcTemplate jdbcTemplate, EntityManager entityManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    @Transactional
+    public void addRequestCounts(Collection<RequestCountDelta> deltas) {
+        if (deltas.isEmpty()) return;
+        jdbcTemplate.batchUpdate(ADD_REQUEST_COUNT, deltas, deltas.size(), (ps, delta) -> {
+            Timestamp at = Timestamp.valueOf(delta.lastRequestedAt());
+            ps.setLong(1, delta.requests());
+            ps.setTimestamp(2, at);
+            ps.setTimestamp(3, at);
+            ps.setObject(4, delta.fileId());
+        });
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<File> findMetadata(UUID id) {
+        return entityManager.createQuery(FileRow.SELECT + " where f.id = :id", FileRow.class)
+                .setParameter("id", id)
+                .getResultStream()
+                .findFirst()
+                .map(FileRow::toFile);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<File> findPage(FilePageQuery query) {
+        StringBuilder jpql = new StringBuilder(FileRow.SELECT).append(" where f.owner.id = :ownerId");
+        boolean wildcard = query.contentType() != null && query.contentType().endsWith("/*");
+        if (query.contentType() != null) {
+            jpql.append(wildcard ? " and f.contentType like :contentType escape '!'" : " and f.contentType = :contentType");
+        }
+        if (query.isPublic() != null) {
+            jpql.append(" and f.isPublic = :isPublic");
+        }
+        String cmp = query.ascending() ? ">" : "<";
+        if (query.afterCreatedAt() != null) {
+            // the first term bounds the index range scan, the second breaks ties on createdAt
+            jpql.append(" and f.createdAt ").append(cmp).append("= :afterCreatedAt")
+                    .append(" and (f.createdAt ").append(cmp).append(" :afterCreatedAt or f.id ").append(cmp).append(" :afterId)");
+        }
+        String direction = query.ascending() ? "asc" : "desc";
+        jpql.append(" order by f.createdAt ").append(direction).append(", f.id ").append(direction);
+
+        TypedQuery<FileRow> q = entityManager.createQuery(jpql.toString(), FileRow.class)
+                .setParameter("ownerId", query.ownerId())
+                .setMaxResults(query.limit());
+        if (query.contentType() != null) {
+            String type = query.contentType();
+            q.setParameter("contentType", wildcard
+                    ? type.substring(0, type.length() - 1).replaceAll("[!%_]", "!$0") + "%"
+                    : type);
+        }
+        if (query.isPublic() != null) {
+            q.setParameter("isPublic", query.isPublic());
+        }
+        if (query.afterCreatedAt() != null) {
+            q.setParameter("afterCreatedAt", query.afterCreatedAt());
+            q.setParameter("afterId", query.afterId());
+        }
+        return q.getResultList().stream().map(FileRow::toFile).toList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<UUID> findIds(FileFilter filter) {
+        StringBuilder jpql = new StringBuilder("select f.id from File f where f.owner.id = :ownerId");
+        boolean wildcard = filter.contentType() != null && filter.contentType().endsWith("/*");
+        if (filter.contentType() != null) {
+            jpql.append(wildcard ? " and f.contentType like :contentType escape '!'" : " and f.contentType = :contentType");
+        }
+        if (filter.isPublic() != null) {
+            jpql.append(" and f.isPublic = :isPublic");
+        }
+        if (filter.createdBefore() != null) {
+            jpql.append(" and f.createdAt < :createdBefore");
+        }
+
+        TypedQuery<UUID> q = entityManager.createQuery(jpql.toString(), UUID.class)
+                .setParameter("ownerId", filter.ownerId());
+        if (filter.contentType() != null) {
+            String type = filter.contentType();
+            q.setParameter("contentType", wildcard
+                    ? type.substring(0, type.length() - 1).replaceAll("[!%_]", "!$0") + "%"
+                    : type);
+        }
+        if (filter.isPublic() != null) {
+            q.setParameter("isPublic", filter.isPublic());
+        }
+        if (filter.createdBefore() != null) {
+            q.setParameter("createdBefore", filter.createdBefore());
+        }
+        return q.getResultList();
+    }
+
+    @Override
+    @Transactional
+    public int deleteAndQueue(Collection<UUID> ids) {
+        List<UUID> all = List.copyOf(ids);
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        int deleted = 0;
+        for (int from = 0; from < all.size(); from += DELETE_CHUNK) {
+            List<UUID> chunk = all.subList(from, Math.min(from + DELETE_CHUNK, all.size()));
+            MapSqlParameterSource params = new MapSqlParameterSource("ids", chunk).addValue("now", now);
+            namedJdbcTemplate.update(QUEUE_DELETIONS, params);
+            deleted += namedJdbcTemplate.update(DELETE_FILES, params);
+        }
+        return deleted;
+    }
+}
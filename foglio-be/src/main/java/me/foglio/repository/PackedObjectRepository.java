@@ -0,0 +1,18 @@
+package me.foglio.repository;
+
+import me.foglio.model.PackedObject;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface PackedObjectRepository extends CrudRepository<PackedObject, String> {
+
+    long countByPack(Integer pack);
+
+    // keys in order, for keyset iteration
+    @Query("select p.key from PackedObject p where p.key > :after order by p.key")
+    List<String> findKeysAfter(@Param("after") String after, Limit limit);
+}
@@ -0,0 +1,36 @@
+package me.foglio.repository;
+
+import me.foglio.model.PendingDeletion;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface PendingDeletionRepository extends CrudRepository<PendingDeletion, UUID> {
+
+    @Query("select p from PendingDeletion p where p.notBefore <= :now order by p.notBefore, p.fileId")
+    List<PendingDeletion> findDue(@Param("now") LocalDateTime now, Limit limit);
+
+    // which of these stored names are still waiting to be removed
+    @Query("select p.storedFileName from PendingDeletion p where p.storedFileName in :names")
+    List<String> findStoredNamesIn(@Param("names") Collection<String> names);
+
+    // removes the entry, returning 0 if another deleter already did
+    @Transactional
+    @Modifying
+    @Query("delete from PendingDeletion p where p.fileId = :fileId")
+    int claim(@Param("fileId") UUID fileId);
+
+    @Transactional
+    @Modifying
+    @Query("update PendingDeletion p set p.attempts = p.attempts + 1, p.notBefore = :notBefore, p.lastError = :error "
+            + "where p.fileId = :fileId")
+    int retryLater(@Param("fileId") UUID fileId, @Param("notBefore") LocalDateTime notBefore, @Param("error") String error);
+}
@@ -0,0 +1,24 @@
+package me.foglio.repository;
+
+import me.foglio.model.UploadChunk;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface UploadChunkRepository extends CrudRepository<UploadChunk, UploadChunk.Key> {
+
+    @Query("select c.chunkIndex from UploadChunk c where c.sessionId = :sessionId order by c.chunkIndex")
+    List<Integer> findReceivedIndexes(@Param("sessionId") UUID sessionId);
+
+    long countBySessionId(UUID sessionId);
+
+    @Transactional
+    @Modifying
+    @Query("delete from UploadChunk c where c.sessionId = :sessionId")
+    int deleteBySessionId(@Param("sessionId") UUID sessionId);
+}
@@ -0,0 +1,40 @@
+package me.foglio.repository;
+
+import me.foglio.model.UploadSession;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+public interface UploadSessionRepository extends CrudRepository<UploadSession, UUID> {
+
+    // compare-and-set OPEN -> COMPLETING, so only one finalize runs and no chunk is accepted during it
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update UploadSession s set s.state = me.foglio.model.UploadSession.State.COMPLETING, s.claimedAt = :now " +
+            "where s.id = :id and s.state = me.foglio.model.UploadSession.State.OPEN")
+    int claim(@Param("id") UUID id, @Param("now") LocalDateTime now);
+
+    // hands a claim over to a new holder once it is older than the cutoff; rows claimed before claimedAt existed count as stale
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update UploadSession s set s.claimedAt = :now where s.id = :id " +
+            "and s.state = me.foglio.model.UploadSession.State.COMPLETING and (s.claimedAt is null or s.claimedAt < :cutoff)")
+    int reclaim(@Param("id") UUID id, @Param("cutoff") LocalDateTime cutoff, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update UploadSession s set s.state = :to where s.id = :id and s.state = :from")
+    int transition(@Param("id") UUID id, @Param("from") UploadSession.State from, @Param("to") UploadSession.State to);
+
+    List<UploadSession> findByExpiresAtBefore(LocalDateTime now);
+
+    @Query("select s from UploadSession s where s.state = me.foglio.model.UploadSession.State.COMPLETING " +
+            "and (s.claimedAt is null or s.claimedAt < :cutoff)")
+    List<UploadSession> findClaimedBefore(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -5,27 +5,109 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import me.foglio.model.User;
 import me.foglio.repository.UserRepository;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 @Component
 public class ApiKeyAuthFilter extends OncePerRequestFilter {
 
+    public static final String ADMIN = "ADMIN";
+    private static final List<GrantedAuthority> ADMIN_AUTHORITIES = List.of(new SimpleGrantedAuthority("ROLE_" + ADMIN));
+
     private final ObjectProvider<UserRepository> userRepositoryProvider;
 
-    public ApiKeyAuthFilter(ObjectProvider<UserRepository> userRepositoryProvider) {
+    // apiKey -> user, with unknown keys cached briefly as Optional.empty()
+    private final Cache<UUID, Optional<User>> apiKeyCache;
+    // repository lookups on cache misses, by whether the key belonged to a user
+    private final Timer knownKeyLookups;
+    private final Timer unknownKeyLookups;
+    // keys of the users allowed on the actuator endpoints besides health
+    private final Set<UUID> adminApiKeys;
+
+    public ApiKeyAuthFilter(ObjectProvider<UserRepository> userRepositoryProvider, MeterRegistry meterRegistry,
+                            @Value("${app.security.api-key-cache.max-size:10000}") long maxSize,
+                            @Value("${app.security.api-key-cache.ttl:5m}") Duration ttl,
+                            @Value("${app.security.api-key-cache.negative-ttl:30s}") Duration negativeTtl,
+                            @Value("${app.security.admin-api-keys:}") Set<UUID> adminApiKeys) {
         this.userRepositoryProvider = userRepositoryProvider;
+        this.adminApiKeys = Set.copyOf(adminApiKeys);
+        this.apiKeyCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<UUID, Optional<User>>() {
+                    @Override
+                    public long expireAfterCreate(UUID key, Optional<User> value, long currentTime) {
+                        return (value.isPresent() ? ttl : negativeTtl).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(UUID key, Optional<User> value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(UUID key, Optional<User> value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, apiKeyCache, "apiKeyAuth");
+        this.knownKeyLookups = lookupTimer(meterRegistry, "found");
+        this.unknownKeyLookups = lookupTimer(meterRegistry, "unknown");
+    }
+
+    private static Timer lookupTimer(MeterRegistry registry, String result) {
+        return Timer.builder("foglio.auth.lookup")
+                .description("API key lookups that missed the cache and went to the database")
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    @EventListener
+    public void onApiKeyChanged(ApiKeyChangedEvent event) {
+        invalidate(event.apiKey());
+    }
+
+    public void invalidate(UUID apiKey) {
+        apiKeyCache.invalidate(apiKey);
+    }
+
+    public void invalidateAll() {
+        apiKeyCache.invalidateAll();
+    }
+
+    public CacheStats cacheStats() {
+        return apiKeyCache.stats();
     }
 
     @Override
@@ -34,7 +116,7 @@ public class ApiKeyAuthFilter extends OncePerRequestFilter {
 
         // if not in header, check request parameter
         if (!StringUtils.hasText(apiKey)) {
-            apiKey = request.getParameter("apiKey");
+            apiKey = isMultipart(request) ? queryParameter(request, "apiKey") : request.getParameter("apiKey");
         }
 
         // if not in param, check cookie
@@ -52,10 +134,19 @@ public class ApiKeyAuthFilter extends OncePerRequestFilter {
                 UUID key = UUID.fromString(apiKey.trim());
                 UserRepository userRepository = userRepositoryProvider.getIfAvailable();
                 if (userRepository != null) {
-                    Optional<User> u = userRepository.findByApiKey(key);
-                    if (u.isPresent()) {
+                    Optional<User> u = apiKeyCache.getIfPresent(key);
+                    if (u == null) {
+                        // loaded outside the cache: Cache.get runs the loader under a map bin lock,
+                        // which would pin a virtual thread's carrier for the whole query
+                        Timer.Sample lookup = Timer.start();
+                        u = userRepository.findByApiKey(key);
+                        lookup.stop(u.isPresent() ? knownKeyLookups : unknownKeyLookups);
+                        apiKeyCache.put(key, u);
+                    }
+                    if (u != null && u.isPresent()) {
                         User user = u.get();
-                        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(user, null, java.util.Collections.emptyList());
+                        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(user, null,
+                                adminApiKeys.contains(key) ? ADMIN_AUTHORITIES : java.util.Collections.emptyList());
                         SecurityContextHolder.getContext().setAuthentication(auth);
                         request.setAttribute("authenticatedUser", user);
                     }
@@ -67,4 +158,15 @@ public class ApiKeyAuthFilter extends OncePerRequestFilter {
 
         filterChain.doFilter(request, response);
     }
+
+    // getParameter on a multipart request makes the container parse (and spool) the whole body
+    private static boolean isMultipart(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/");
+    }
+
+    private static String queryParameter(HttpServletRequest request, String name) {
+        String value = UriComponentsBuilder.newInstance().query(request.getQueryString()).build().getQueryParams().getFirst(name);
+        return value != null ? UriUtils.decode(value, StandardCharsets.UTF_8) : null;
+    }
 }
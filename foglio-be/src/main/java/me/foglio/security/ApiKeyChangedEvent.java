@@ -0,0 +1,9 @@
+package me.foglio.security;
+
+import java.util.UUID;
+
+/**
+ * Published whenever an api key is issued, rotated or revoked, so cached lookups for it are dropped.
+ */
+public record ApiKeyChangedEvent(UUID apiKey) {
+}
@@ -3,6 +3,7 @@ package me.foglio.security;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
@@ -28,7 +29,13 @@ public class SecurityConfig {
                         .requestMatchers("/api/files/*/preview").permitAll()
                         .requestMatchers("/api/files/*/download").permitAll()
                         .requestMatchers("/api/files/*/metadata").permitAll()
+                        // each id is checked like a download: public files need no key
+                        .requestMatchers(HttpMethod.POST, "/api/files/archive").permitAll()
                         .requestMatchers("/h2-console/**").permitAll()
+                        // container healthchecks; details only for authenticated callers
+                        .requestMatchers("/actuator/health", "/actuator/health/**").permitAll()
+                        // anyone can register for a key, so the rest (metrics, storage migration...) takes an admin key
+                        .requestMatchers("/actuator/**").hasRole(ApiKeyAuthFilter.ADMIN)
                         .requestMatchers("/", "/ui/**", "/css/**", "/js/**", "/images/**").permitAll()
                         .anyRequest().authenticated()
                 )
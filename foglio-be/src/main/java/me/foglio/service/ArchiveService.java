@@ -0,0 +1,153 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.foglio.model.File;
+import me.foglio.storage.StoredObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * Packs several files into one ZIP download, generated while it is sent.
+ * <p>
+ * Entries whose content type matches {@code stored-types} (images, video, archives: already compressed) go in as
+ * they are, the rest is deflated. When every entry is stored the archive length is known up front, so the response
+ * can carry a Content-Length and download progress; otherwise it is chunked.
+ */
+@Service
+public class ArchiveService {
+
+    /**
+     * An archive ready to be written; its entries' contents are opened one at a time by {@link #writeTo}.
+     */
+    public final class Archive {
+
+        private final List<ZipStreamWriter.Entry> entries;
+
+        private Archive(List<ZipStreamWriter.Entry> entries) {
+            this.entries = entries;
+        }
+
+        public OptionalLong contentLength() {
+            if (entries.stream().anyMatch(ZipStreamWriter.Entry::deflate)) return OptionalLong.empty();
+            return OptionalLong.of(ZipStreamWriter.length(entries));
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            ZipStreamWriter.write(entries, level, new CountingOutputStream(out, archiveBytes));
+        }
+    }
+
+    private final FileService fileService;
+    private final List<MimeType> storedTypes;
+    private final int maxEntries;
+    private final int level;
+    private final Counter archiveBytes;
+
+    public ArchiveService(FileService fileService,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.files.archive.stored-types:image/jpeg,image/png,image/gif,image/webp,video/*,audio/*,application/zip,application/gzip}") List<String> storedTypes,
+                          @Value("${app.files.archive.max-entries:1000}") int maxEntries,
+                          @Value("${app.files.archive.level:6}") int level) {
+        this.fileService = fileService;
+        this.storedTypes = storedTypes.stream().map(String::trim).filter(t -> !t.isEmpty()).map(MimeTypeUtils::parseMimeType).toList();
+        this.maxEntries = maxEntries;
+        this.level = level;
+        this.archiveBytes = TransferEngine.transferCounter(meterRegistry, "archive");
+    }
+
+    /**
+     * Looks up the contents of {@code files}, whose access the caller has checked; a missing body fails the whole
+     * archive with 404 before anything is sent.
+     */
+    public Archive prepare(List<File> files) throws IOException {
+        checkEntryCount(files.size());
+        List<ZipStreamWriter.Entry> entries = new ArrayList<>(files.size());
+        Set<String> names = new HashSet<>();
+        for (File f : files) {
+            StoredObject stored = fileService.findContent(f).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+            StoredObject content = CompressionPolicy.decoded(stored, f);
+            entries.add(new ZipStreamWriter.Entry(uniqueName(entryName(f), names), !isStored(f.getContentType()),
+                    content.size(), f.getCreatedAt(), content));
+        }
+        return new Archive(entries);
+    }
+
+    /**
+     * Rejects requests for more files than an archive may hold, before anything is looked up for them.
+     */
+    public void checkEntryCount(int count) {
+        if (count > maxEntries) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + maxEntries + " files per archive");
+        }
+    }
+
+    boolean isStored(String contentType) {
+        if (contentType == null) return false;
+        MimeType type;
+        try {
+            type = MimeTypeUtils.parseMimeType(contentType);
+        } catch (InvalidMimeTypeException e) {
+            return false;
+        }
+        return storedTypes.stream().anyMatch(candidate -> candidate.includes(type));
+    }
+
+    // uploaded names are client input: no directories, so nothing extracts outside the target folder
+    static String entryName(File f) {
+        String name = f.getOriginalName() == null ? "" : f.getOriginalName();
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1).strip();
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) name = f.getId().toString();
+        return name;
+    }
+
+    // a (2), (3)... before the extension for repeated names; compared ignoring case for Windows and macOS
+    static String uniqueName(String name, Set<String> taken) {
+        if (taken.add(name.toLowerCase(Locale.ROOT))) return name;
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = 2; ; i++) {
+            String candidate = base + " (" + i + ")" + extension;
+            if (taken.add(candidate.toLowerCase(Locale.ROOT))) return candidate;
+        }
+    }
+
+    // archives bypass TransferEngine, so their bytes are counted here as they go out
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private final Counter counter;
+
+        CountingOutputStream(OutputStream out, Counter counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counter.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.increment(len);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package me.foglio.service;
+
+import jakarta.annotation.PreDestroy;
+import me.foglio.model.File;
+import me.foglio.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads many files from one multipart request.
+ * <p>
+ * Parts are written to storage by a pool of {@code parallelism} writers shared by all batch requests, then the rows
+ * of every part that was stored are inserted in one JDBC batch. A part that fails doesn't fail the others.
+ */
+@Service
+public class BatchUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchUploadService.class);
+
+    /**
+     * Outcome of one part: {@code file} on success, otherwise the status and reason it would have got on its own.
+     */
+    public record Result(String originalName, File file, HttpStatusCode status, String error) {
+
+        public boolean isStored() {
+            return file != null;
+        }
+    }
+
+    private final FileService fileService;
+    private final int maxFiles;
+    private final ThreadPoolExecutor executor;
+
+    public BatchUploadService(FileService fileService,
+                              @Value("${app.files.batch.max-files:100}") int maxFiles,
+                              @Value("${app.files.batch.parallelism:4}") int parallelism) {
+        this.fileService = fileService;
+        this.maxFiles = maxFiles;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("batch-upload-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return one result per part, in request order
+     */
+    public List<Result> upload(List<MultipartFile> files, User owner, boolean isPublic) {
+        if (files == null || files.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "files part is required");
+        }
+        if (files.size() > maxFiles) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + maxFiles + " files per batch");
+        }
+
+        List<CompletableFuture<File>> writes = files.stream()
+                .map(part -> CompletableFuture.supplyAsync(() -> fileService.writeContent(part, owner, isPublic), executor))
+                .toList();
+
+        Result[] results = new Result[files.size()];
+        List<File> written = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            String name = files.get(i).getOriginalFilename();
+            try {
+                written.add(writes.get(i).join());
+            } catch (CompletionException e) {
+                results[i] = failure(name, e.getCause());
+            }
+        }
+
+        // rows come back in the order they were passed in, i.e. the order of the parts that were stored
+        List<File> saved = fileService.registerAll(written);
+        int next = 0;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) results[i] = new Result(files.get(i).getOriginalFilename(), saved.get(next++), HttpStatus.OK, null);
+        }
+        return Arrays.asList(results);
+    }
+
+    private static Result failure(String name, Throwable cause) {
+        if (cause instanceof ResponseStatusException e) {
+            return new Result(name, null, e.getStatusCode(), e.getReason());
+        }
+        log.warn("Could not store batch part {}", name, cause);
+        return new Result(name, null, HttpStatus.INTERNAL_SERVER_ERROR, "Could not store file");
+    }
+}
@@ -0,0 +1,158 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import me.foglio.model.File;
+import me.foglio.model.PendingDeletion;
+import me.foglio.repository.PendingDeletionRepository;
+import me.foglio.storage.StorageBackend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Removes the stored bytes of bulk-deleted files, working off the {@code pending_deletions} queue.
+ * <p>
+ * Queue entries are written in the transaction deleting the rows, so they survive restarts; a single background
+ * thread drains them when woken after a bulk delete and every {@code poll-interval}. An entry that fails is retried
+ * with a doubling delay, starting at {@code retry-delay} and capped at an hour.
+ */
+@Component
+public class BlobDeleter {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobDeleter.class);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofHours(1);
+
+    private final PendingDeletionRepository queue;
+    private final StorageBackend storage;
+    private final ContentAddressedStore contentStore;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int batchSize;
+    private final Duration retryDelay;
+    private final Counter removed;
+    private final Counter failed;
+    private final ThreadPoolExecutor executor;
+    // a drain is queued and hasn't started yet
+    private final AtomicBoolean wakeUpPending = new AtomicBoolean();
+
+    public BlobDeleter(PendingDeletionRepository queue,
+                       StorageBackend storage,
+                       ContentAddressedStore contentStore,
+                       ApplicationEventPublisher eventPublisher,
+                       MeterRegistry meterRegistry,
+                       @Value("${app.files.deletion.batch-size:500}") int batchSize,
+                       @Value("${app.files.deletion.retry-delay:1m}") Duration retryDelay) {
+        this.queue = queue;
+        this.storage = storage;
+        this.contentStore = contentStore;
+        this.eventPublisher = eventPublisher;
+        this.batchSize = batchSize;
+        this.retryDelay = retryDelay;
+        this.removed = Counter.builder("foglio.deletion.removed")
+                .description("Stored files removed by the background deleter")
+                .register(meterRegistry);
+        this.failed = Counter.builder("foglio.deletion.failed")
+                .description("Attempts of the background deleter that will be retried")
+                .register(meterRegistry);
+        Gauge.builder("foglio.deletion.pending", queue, PendingDeletionRepository::count)
+                .description("Stored files waiting for the background deleter")
+                .register(meterRegistry);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("blob-deleter-");
+        threadFactory.setDaemon(true);
+        // one thread, so drains never overlap
+        this.executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Schedules a drain of the queue, unless one is already waiting to start.
+     */
+    public void wakeUp() {
+        if (!wakeUpPending.compareAndSet(false, true)) return;
+        executor.execute(() -> {
+            wakeUpPending.set(false);
+            drain();
+        });
+    }
+
+    // picks up entries due for a retry and those left over by a restart
+    @Scheduled(fixedDelayString = "${app.files.deletion.poll-interval:30s}")
+    public void poll() {
+        wakeUp();
+    }
+
+    /**
+     * Processes every entry that is due; entries that fail are pushed back and not retried within this call.
+     *
+     * @return the number of stored files removed
+     */
+    int drain() {
+        int done = 0;
+        try {
+            List<PendingDeletion> due;
+            do {
+                due = queue.findDue(LocalDateTime.now(), Limit.of(batchSize));
+                for (PendingDeletion entry : due) {
+                    if (process(entry)) done++;
+                }
+            } while (due.size() == batchSize && !Thread.currentThread().isInterrupted());
+        } catch (RuntimeException e) {
+            log.error("Draining pending deletions failed", e);
+        }
+        return done;
+    }
+
+    private boolean process(PendingDeletion entry) {
+        String name = entry.getStoredFileName();
+        try {
+            if (ContentAddressedStore.isContentAddressed(name)) {
+                // a reference must not be released twice: take the entry first, a crash now leaks the blob instead
+                if (queue.claim(entry.getFileId()) == 0) return false;
+                contentStore.release(entry.getSha256());
+            } else {
+                storage.delete(name);
+                if (StorageLayout.isFlat(name)) {
+                    storage.delete(StorageLayout.sharded(name));
+                }
+                queue.claim(entry.getFileId());
+            }
+        } catch (IOException | RuntimeException e) {
+            int attempts = entry.getAttempts() + 1;
+            Duration delay = retryDelay.multipliedBy(1L << Math.min(attempts - 1, 16));
+            if (delay.compareTo(MAX_RETRY_DELAY) > 0) delay = MAX_RETRY_DELAY;
+            queue.retryLater(entry.getFileId(), LocalDateTime.now().plus(delay), String.valueOf(e.getMessage()));
+            failed.increment();
+            log.warn("Could not delete {} (attempt {}), retrying in {}", name, attempts, delay, e);
+            return false;
+        }
+        removed.increment();
+        eventPublisher.publishEvent(new FileDeletedEvent(File.builder()
+                .id(entry.getFileId())
+                .storedFileName(name)
+                .sha256(entry.getSha256())
+                .build()));
+        return true;
+    }
+}
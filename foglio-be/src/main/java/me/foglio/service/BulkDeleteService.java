@@ -0,0 +1,88 @@
+package me.foglio.service;
+
+import me.foglio.model.User;
+import me.foglio.repository.FileRepository;
+import me.foglio.repository.FileRepositoryCustom.FileFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Deletes many files of one owner at once.
+ * <p>
+ * Ownership is checked with one query, the rows go with set-based deletes and their stored bytes are handed to the
+ * {@link BlobDeleter}, so the request never waits on storage.
+ */
+@Service
+public class BulkDeleteService {
+
+    /**
+     * @param notFound requested ids that matched no file
+     */
+    public record Result(int deleted, List<UUID> notFound) {
+    }
+
+    private final FileRepository fileRepository;
+    private final FileMetadataCache metadataCache;
+    private final HotObjectCache hotObjects;
+    private final BlobDeleter blobDeleter;
+    private final int maxIds;
+
+    public BulkDeleteService(FileRepository fileRepository, FileMetadataCache metadataCache, HotObjectCache hotObjects,
+                             BlobDeleter blobDeleter,
+                             @Value("${app.files.deletion.max-ids:10000}") int maxIds) {
+        this.fileRepository = fileRepository;
+        this.metadataCache = metadataCache;
+        this.hotObjects = hotObjects;
+        this.blobDeleter = blobDeleter;
+        this.maxIds = maxIds;
+    }
+
+    /**
+     * Deletes the listed files; nothing is deleted if any of them belongs to someone else.
+     */
+    public Result deleteByIds(Collection<UUID> ids, User owner) {
+        if (ids == null || ids.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "ids must not be empty");
+        }
+        Set<UUID> requested = new LinkedHashSet<>(ids);
+        if (requested.size() > maxIds) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + maxIds + " ids per request");
+        }
+
+        List<FileRepository.OwnedId> found = fileRepository.findOwners(requested);
+        if (found.stream().anyMatch(f -> !owner.getId().equals(f.getOwnerId()))) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You can only delete your own files");
+        }
+        List<UUID> existing = found.stream().map(FileRepository.OwnedId::getId).toList();
+        existing.forEach(requested::remove);
+        return new Result(delete(existing), List.copyOf(requested));
+    }
+
+    /**
+     * Deletes every file of {@code owner} matching the filter.
+     */
+    public Result deleteMatching(String contentType, Boolean isPublic, LocalDateTime createdBefore, User owner) {
+        List<UUID> ids = fileRepository.findIds(new FileFilter(owner.getId(), contentType, isPublic, createdBefore));
+        return new Result(delete(ids), List.of());
+    }
+
+    private int delete(List<UUID> ids) {
+        if (ids.isEmpty()) return 0;
+        int deleted = fileRepository.deleteAndQueue(ids);
+        ids.forEach(id -> {
+            metadataCache.invalidate(id);
+            hotObjects.invalidate(id);
+        });
+        blobDeleter.wakeUp();
+        return deleted;
+    }
+}
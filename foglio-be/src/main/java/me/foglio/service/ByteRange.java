@@ -0,0 +1,102 @@
+package me.foglio.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An inclusive byte range of a stored file, as requested through the HTTP {@code Range} header.
+ */
+public record ByteRange(long start, long end) {
+
+    // same cap Spring applies to HttpRange, guards against range-flooding requests
+    static final int MAX_RANGES = 100;
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    public String contentRange(long total) {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+
+    /**
+     * Parses a {@code bytes=} range header against a representation of {@code length} bytes.
+     * Overlapping and adjacent ranges are coalesced.
+     *
+     * @return the satisfiable ranges, empty if none of them is satisfiable
+     * @throws IllegalArgumentException if the header is malformed and should be ignored
+     */
+    public static List<ByteRange> parse(String header, long length) {
+        if (header == null || !header.startsWith("bytes=")) {
+            throw new IllegalArgumentException("Unsupported range unit: " + header);
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            throw new IllegalArgumentException("Too many ranges: " + specs.length);
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        int parsed = 0;
+        for (String raw : specs) {
+            String spec = raw.trim();
+            if (spec.isEmpty()) continue;
+            parsed++;
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                throw new IllegalArgumentException("Invalid range: " + spec);
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            if (first.isEmpty()) {
+                // suffix range: the last N bytes
+                long suffix = parseNumber(last);
+                if (suffix == 0 || length == 0) continue;
+                ranges.add(new ByteRange(Math.max(0, length - suffix), length - 1));
+            } else {
+                long start = parseNumber(first);
+                long end = last.isEmpty() ? length - 1 : parseNumber(last);
+                if (end < start) {
+                    throw new IllegalArgumentException("Invalid range: " + spec);
+                }
+                if (start >= length) continue;
+                ranges.add(new ByteRange(start, Math.min(end, length - 1)));
+            }
+        }
+        if (parsed == 0) {
+            throw new IllegalArgumentException("Empty range header");
+        }
+        return coalesce(ranges);
+    }
+
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) return ranges;
+        ranges.sort(Comparator.comparingLong(ByteRange::start));
+        List<ByteRange> merged = new ArrayList<>();
+        ByteRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            ByteRange next = ranges.get(i);
+            if (next.start <= current.end + 1) {
+                current = new ByteRange(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    private static long parseNumber(String value) {
+        if (value.isEmpty() || value.length() > 18) {
+            throw new IllegalArgumentException("Invalid range position: " + value);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                throw new IllegalArgumentException("Invalid range position: " + value);
+            }
+        }
+        return Long.parseLong(value);
+    }
+}
@@ -0,0 +1,216 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.foglio.model.File;
+import me.foglio.storage.StoredObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Which uploads are compressed at rest, and the codec doing it.
+ * <p>
+ * Uploads whose content type matches one of {@code content-types} are gzip-compressed while they stream to storage.
+ * Files keep their logical size and digest; the row records the encoding and the compressed size, and downloads
+ * either pass the stored bytes through with {@code Content-Encoding: gzip} or decode them on the fly.
+ * Uploads shorter than {@code min-size} are stored as-is, the gzip framing would eat most of the savings.
+ */
+@Component
+public class CompressionPolicy {
+
+    public static final String GZIP = "gzip";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final boolean enabled;
+    private final List<MimeType> contentTypes;
+    private final int minSize;
+    private final int level;
+    private final Counter logicalBytes;
+    private final Counter storedBytes;
+    private final DistributionSummary ratio;
+
+    public CompressionPolicy(MeterRegistry meterRegistry,
+                             @Value("${app.files.compression.enabled:false}") boolean enabled,
+                             @Value("${app.files.compression.content-types:text/*,application/json}") List<String> contentTypes,
+                             @Value("${app.files.compression.min-size:1KB}") DataSize minSize,
+                             @Value("${app.files.compression.level:6}") int level) {
+        this.enabled = enabled;
+        this.contentTypes = contentTypes.stream().map(String::trim).filter(t -> !t.isEmpty()).map(MimeTypeUtils::parseMimeType).toList();
+        this.minSize = (int) Math.min(minSize.toBytes(), Integer.MAX_VALUE - 8);
+        this.level = level;
+        this.logicalBytes = Counter.builder("foglio.storage.compression.logical")
+                .description("Bytes uploaded in files compressed at rest")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.storedBytes = Counter.builder("foglio.storage.compression.stored")
+                .description("Bytes written to storage for files compressed at rest")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.ratio = DistributionSummary.builder("foglio.storage.compression.ratio")
+                .description("Logical size per stored byte of each compressed upload")
+                .register(meterRegistry);
+    }
+
+    public record Encoded(InputStream stream, String encoding) {
+    }
+
+    public boolean appliesTo(String contentType) {
+        if (!enabled || contentType == null) return false;
+        MimeType type;
+        try {
+            type = MimeTypeUtils.parseMimeType(contentType);
+        } catch (InvalidMimeTypeException e) {
+            return false;
+        }
+        return contentTypes.stream().anyMatch(candidate -> candidate.includes(type));
+    }
+
+    public int minSize() {
+        return minSize;
+    }
+
+    /**
+     * Wraps an upload in the encoding the policy picks for it; {@link Encoded#encoding()} is {@code null} when the
+     * bytes are stored as they come. Up to {@code min-size} bytes are read ahead to tell short uploads apart.
+     */
+    public Encoded encode(String contentType, InputStream content) throws IOException {
+        if (!appliesTo(contentType)) return new Encoded(content, null);
+        byte[] head = content.readNBytes(minSize);
+        InputStream whole = new SequenceInputStream(new ByteArrayInputStream(head), content);
+        if (head.length < minSize) return new Encoded(whole, null);
+        return new Encoded(compress(whole), GZIP);
+    }
+
+    public InputStream compress(InputStream content) {
+        return new GzipCompressingInputStream(content, level);
+    }
+
+    public void record(long logical, long stored) {
+        logicalBytes.increment(logical);
+        storedBytes.increment(stored);
+        if (stored > 0) ratio.record((double) logical / stored);
+    }
+
+    public static InputStream decode(InputStream stored, String encoding) throws IOException {
+        if (encoding == null) return stored;
+        if (!GZIP.equals(encoding)) throw new IOException("Unsupported content encoding " + encoding);
+        try {
+            return new GZIPInputStream(stored, BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            stored.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The uploaded bytes of {@code file}, given its stored bytes. Reading a range decodes everything before it, so
+     * ranged reads cost as much as reading up to their end.
+     */
+    public static StoredObject decoded(StoredObject stored, File file) {
+        String encoding = file.getContentEncoding();
+        if (encoding == null) return stored;
+        return StoredObject.ofRemote(file.getSize(), stored.lastModified(), (offset, length) -> {
+            InputStream in = decode(stored.open(), encoding);
+            try {
+                in.skipNBytes(offset);
+                return in;
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        });
+    }
+
+    // gzip (RFC 1952) member produced on read, so compressed bytes can be handed to StorageBackend#put as a stream
+    private static final class GzipCompressingInputStream extends InputStream {
+
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+        private final InputStream in;
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] input = new byte[BUFFER_SIZE];
+        // header or trailer still being copied out
+        private byte[] framing = HEADER;
+        private int framingPos;
+        private boolean eof;
+        private boolean trailerSent;
+
+        GzipCompressingInputStream(InputStream in, int level) {
+            this.in = in;
+            this.deflater = new Deflater(level, true);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (true) {
+                if (framing != null) {
+                    if (framingPos < framing.length) {
+                        int n = Math.min(len, framing.length - framingPos);
+                        System.arraycopy(framing, framingPos, b, off, n);
+                        framingPos += n;
+                        return n;
+                    }
+                    framing = null;
+                }
+                if (deflater.finished()) {
+                    if (trailerSent) return -1;
+                    trailerSent = true;
+                    framing = trailer();
+                    framingPos = 0;
+                    continue;
+                }
+                int n = deflater.deflate(b, off, len);
+                if (n > 0) return n;
+                if (deflater.needsInput() && !eof) {
+                    int read = in.read(input);
+                    if (read < 0) {
+                        eof = true;
+                        deflater.finish();
+                    } else {
+                        crc.update(input, 0, read);
+                        deflater.setInput(input, 0, read);
+                    }
+                }
+            }
+        }
+
+        private byte[] trailer() {
+            long crcValue = crc.getValue();
+            long size = deflater.getBytesRead();
+            byte[] trailer = new byte[8];
+            for (int i = 0; i < 4; i++) {
+                trailer[i] = (byte) (crcValue >>> (8 * i));
+                trailer[4 + i] = (byte) (size >>> (8 * i));
+            }
+            return trailer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            in.close();
+        }
+    }
+}
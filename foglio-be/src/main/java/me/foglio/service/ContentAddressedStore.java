@@ -0,0 +1,145 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.foglio.model.Blob;
+import me.foglio.repository.BlobRepository;
+import me.foglio.storage.StorageBackend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Optional deduplicating layout: blobs live under {@code cas/xx/yy/<sha256>} and are shared by every
+ * {@link me.foglio.model.File} with the same content, with a reference count in the {@code blobs} table.
+ * <p>
+ * Reference count changes and the matching file moves/deletes for one digest are serialized in-process,
+ * so a blob can't be removed while an upload of the same bytes is adopting it.
+ */
+@Service
+public class ContentAddressedStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentAddressedStore.class);
+
+    static final String PREFIX = "cas/";
+    private static final int LOCK_STRIPES = 64;
+
+    private final BlobRepository blobRepository;
+    private final StorageBackend storage;
+    private final Path root;
+    private final boolean enabled;
+    // ReentrantLock rather than monitors: commits do file and JDBC I/O while holding them
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    public ContentAddressedStore(BlobRepository blobRepository, StorageBackend storage, MeterRegistry meterRegistry,
+                                 @Value("${app.files.storage:./files}") String uploadDir,
+                                 @Value("${app.files.dedup.enabled:false}") boolean enabled) {
+        this.blobRepository = blobRepository;
+        this.storage = storage;
+        this.root = Paths.get(uploadDir);
+        this.enabled = enabled;
+        for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantLock();
+
+        if (enabled) {
+            Gauge.builder("foglio.storage.dedup.ratio", blobRepository, ContentAddressedStore::dedupRatio)
+                    .description("Logical bytes referenced by files per physical byte stored")
+                    .register(meterRegistry);
+            Gauge.builder("foglio.storage.dedup.physical", blobRepository, BlobRepository::physicalBytes)
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+    }
+
+    private static double dedupRatio(BlobRepository repository) {
+        long physical = repository.physicalBytes();
+        return physical == 0 ? 1.0 : (double) repository.logicalBytes() / physical;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static boolean isContentAddressed(String storedFileName) {
+        return storedFileName != null && storedFileName.startsWith(PREFIX);
+    }
+
+    static String storedName(String sha256) {
+        return PREFIX + sha256.substring(0, 2) + "/" + sha256.substring(2, 4) + "/" + sha256;
+    }
+
+    // Uploads land here first, on the same file system, so commit() is a rename with the local backends
+    public Path tempFile() throws IOException {
+        Path dir = root.resolve(".tmp");
+        Files.createDirectories(dir);
+        return dir.resolve(UUID.randomUUID().toString());
+    }
+
+    /**
+     * Adopts a freshly written upload: takes a reference on the existing blob with the same digest
+     * (dropping the upload) or moves the upload into storage as a new blob.
+     *
+     * @param size            logical size of the content
+     * @param contentEncoding encoding of the bytes in {@code upload}, {@code null} if stored as uploaded
+     * @return the shared blob; an existing one keeps the encoding it was stored with
+     */
+    public Blob commit(Path upload, String sha256, long size, String contentEncoding) throws IOException {
+        String name = storedName(sha256);
+        ReentrantLock lock = lockFor(sha256);
+        lock.lock();
+        try {
+            if (blobRepository.incrementRefCount(sha256) > 0) {
+                Files.deleteIfExists(upload);
+                return blobRepository.findById(sha256).orElseThrow();
+            }
+            Long compressedSize = contentEncoding != null ? Files.size(upload) : null;
+            // a blob left behind by a crash between its delete and its row's removal is replaced
+            storage.delete(name);
+            storage.putFile(name, upload);
+            return blobRepository.save(Blob.builder()
+                    .sha256(sha256)
+                    .size(size)
+                    .refCount(1L)
+                    .storedFileName(name)
+                    .contentEncoding(contentEncoding)
+                    .compressedSize(compressedSize)
+                    .createdAt(LocalDateTime.now())
+                    .build());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops one reference, removing the physical blob once nothing points at it.
+     */
+    public void release(String sha256) {
+        ReentrantLock lock = lockFor(sha256);
+        lock.lock();
+        try {
+            blobRepository.decrementRefCount(sha256);
+            if (blobRepository.deleteUnreferenced(sha256) > 0) {
+                String name = storedName(sha256);
+                try {
+                    storage.delete(name);
+                } catch (IOException e) {
+                    log.warn("Could not delete unreferenced blob {}", name, e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock lockFor(String sha256) {
+        return locks[Math.floorMod(sha256.hashCode(), LOCK_STRIPES)];
+    }
+}
@@ -0,0 +1,239 @@
+package me.foglio.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import me.foglio.model.File;
+import me.foglio.storage.StoredObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Writes stored file bodies to the servlet response, honouring conditional requests, {@code Range} and {@code If-Range}.
+ * <p>
+ * A file's bytes never change for a given id, so the validators come from the row alone: the ETag is the content
+ * digest (or the id for files stored before digests were recorded) and Last-Modified is the upload time.
+ * Files compressed at rest are sent as stored, with {@code Content-Encoding}, to clients accepting their encoding and
+ * decoded on the fly for everyone else; the encoded representation gets its own ETag.
+ */
+@Service
+public class DownloadService {
+
+    private final TransferEngine transferEngine;
+    private final String publicCacheControl;
+
+    public DownloadService(TransferEngine transferEngine,
+                           @Value("${app.files.cache.public-max-age:365d}") Duration publicMaxAge) {
+        this.transferEngine = transferEngine;
+        this.publicCacheControl = CacheControl.maxAge(publicMaxAge).cachePublic().immutable().getHeaderValue();
+    }
+
+    /**
+     * Answers {@code If-None-Match}/{@code If-Modified-Since} from the file row, without touching storage.
+     *
+     * @return true if a 304 (or 412) has been written and nothing else should be sent
+     */
+    public boolean checkNotModified(File file, HttpServletRequest request, HttpServletResponse response) {
+        return checkNotModified(file, null, request, response);
+    }
+
+    /**
+     * @param variant derived representation (e.g. a thumbnail size), {@code null} for the original bytes
+     */
+    public boolean checkNotModified(File file, String variant, HttpServletRequest request, HttpServletResponse response) {
+        // the original is validated against the representation send() will pick
+        if (variant == null) variant = negotiateEncoding(file, request, response);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl(file));
+        return new ServletWebRequest(request, response).checkNotModified(etag(file, variant), lastModified(file));
+    }
+
+    /**
+     * Sends the original bytes of {@code file}, as returned by {@link me.foglio.service.FileService#findContent}.
+     */
+    public void send(File file, StoredObject content, String dispositionType,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String encoding = negotiateEncoding(file, request, response);
+        if (encoding != null) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+            send(file, encoding, file.getContentType(), content, dispositionType, request, response);
+            return;
+        }
+        StoredObject decoded = CompressionPolicy.decoded(content, file);
+        send(file, null, file.getContentType(), decoded, dispositionType, request, response);
+    }
+
+    public void send(File file, Path path, String dispositionType,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        send(file, StoredObject.ofFile(path), dispositionType, request, response);
+    }
+
+    public void send(File file, String variant, String contentType, Path path, String dispositionType,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        send(file, variant, contentType, StoredObject.ofFile(path), dispositionType, request, response);
+    }
+
+    /**
+     * Sends {@code content} as a representation of {@code file}; derived variants get their own ETag and content type.
+     */
+    public void send(File file, String variant, String contentType, StoredObject content, String dispositionType,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = content.size();
+        long lastModified = lastModified(file);
+        if (lastModified < 0 && content.lastModified() != null) lastModified = content.lastModified().getEpochSecond() * 1000;
+        String etag = etag(file, variant);
+        if (contentType == null) contentType = "application/octet-stream";
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl(file));
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, dispositionType + "; filename=\"" + file.getOriginalName() + "\"");
+
+        List<ByteRange> ranges = requestedRanges(request, length, etag, lastModified);
+        boolean head = "HEAD".equals(request.getMethod());
+
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            if (!head) transferEngine.transfer(content, 0, length, request, response);
+            return;
+        }
+
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setContentLengthLong(0);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, range.contentRange(length));
+            response.setContentLengthLong(range.length());
+            if (!head) transferEngine.transfer(content, range.start(), range.length(), request, response);
+            return;
+        }
+
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        byte[][] partHeaders = new byte[ranges.size()][];
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        long contentLength = closing.length;
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRange range = ranges.get(i);
+            partHeaders[i] = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + range.contentRange(length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            contentLength += partHeaders[i].length + range.length();
+        }
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (head) return;
+
+        OutputStream out = response.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+            out.write(partHeaders[i]);
+            transferEngine.copy(content, ranges.get(i).start(), ranges.get(i).length(), out);
+        }
+        out.write(closing);
+    }
+
+    // the encoding to send a compressed file with, null to decode it (or if it isn't compressed)
+    private static String negotiateEncoding(File file, HttpServletRequest request, HttpServletResponse response) {
+        String encoding = file.getContentEncoding();
+        if (encoding == null) return null;
+        if (response.getHeaders(HttpHeaders.VARY).stream().noneMatch(v -> v.contains(HttpHeaders.ACCEPT_ENCODING))) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return acceptsEncoding(request.getHeader(HttpHeaders.ACCEPT_ENCODING), encoding) ? encoding : null;
+    }
+
+    static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) return false;
+        double wildcard = 0;
+        for (String element : acceptEncoding.split(",")) {
+            String[] params = element.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            // x-gzip is an alias of gzip (RFC 9110, section 8.4.1.3)
+            if (coding.equals(encoding) || (coding.equals("x-gzip") && encoding.equals(CompressionPolicy.GZIP))) {
+                return q > 0;
+            }
+            if (coding.equals("*")) wildcard = q;
+        }
+        return wildcard > 0;
+    }
+
+    static String etag(File file, String variant) {
+        String validator = file.getSha256() != null ? file.getSha256() : String.valueOf(file.getId());
+        return "\"" + validator + (variant != null ? "-" + variant : "") + "\"";
+    }
+
+    // upload time, truncated to HTTP-date precision; -1 if unknown
+    static long lastModified(File file) {
+        if (file.getCreatedAt() == null) return -1;
+        return file.getCreatedAt().atZone(ZoneId.systemDefault()).toEpochSecond() * 1000;
+    }
+
+    private String cacheControl(File file) {
+        // private files must never be stored by shared caches and are revalidated with the ETag on every use
+        return Boolean.TRUE.equals(file.getIsPublic()) ? publicCacheControl : "private, no-cache";
+    }
+
+    // null means "serve the whole representation", an empty list means "not satisfiable"
+    private static List<ByteRange> requestedRanges(HttpServletRequest request, long length, String etag, long lastModified) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null || !("GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod()))) {
+            return null;
+        }
+        if (!ifRangeMatches(request, etag, lastModified)) {
+            return null;
+        }
+        try {
+            return ByteRange.parse(header, length);
+        } catch (IllegalArgumentException e) {
+            // malformed Range headers are ignored, as allowed by RFC 9110
+            return null;
+        }
+    }
+
+    private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) return true;
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range needs a strong comparison, weak tags never match
+            return ifRange.trim().equals(etag);
+        }
+        try {
+            long date = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return date / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package me.foglio.service;
+
+import me.foglio.model.File;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Opaque keyset cursor for file listings: the {@code (createdAt, id)} of the last file of a page plus the sort
+ * direction it was issued for. Rows are only ever inserted or deleted, so a cursor keeps pointing at the same
+ * place in the listing for as long as the client holds it.
+ */
+public record FileCursor(LocalDateTime createdAt, UUID id, boolean ascending) {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    public static FileCursor after(File last, boolean ascending) {
+        return new FileCursor(last.getCreatedAt(), last.getId(), ascending);
+    }
+
+    public String encode() {
+        String raw = (ascending ? "a" : "d") + "|" + createdAt + "|" + id;
+        return ENCODER.encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token wasn't produced by {@link #encode()}
+     */
+    public static FileCursor decode(String token) {
+        try {
+            String[] parts = new String(DECODER.decode(token), StandardCharsets.UTF_8).split("\\|");
+            if (parts.length != 3 || !(parts[0].equals("a") || parts[0].equals("d"))) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new FileCursor(LocalDateTime.parse(parts[1]), UUID.fromString(parts[2]), parts[0].equals("a"));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package me.foglio.service;
+
+import me.foglio.model.File;
+
+/**
+ * Published after a file's row has been deleted, so derived data kept elsewhere can be dropped.
+ */
+public record FileDeletedEvent(File file) {
+}
@@ -0,0 +1,82 @@
+package me.foglio.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import me.foglio.model.File;
+import me.foglio.repository.FileRepositoryCustom.RequestCountDelta;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of file rows (with their owner) for the metadata, preview and download lookups.
+ * <p>
+ * Entries are never mutated in place: when {@link RequestCounter} flushes, cached rows are replaced by copies
+ * carrying the same counter deltas that were written to the database, so cached counters don't fall behind.
+ * A row loaded while an invalidation ran is not kept, so a load racing a delete can't bring the row back.
+ */
+@Component
+public class FileMetadataCache {
+
+    private final Cache<UUID, File> cache;
+    // bumped by every invalidation; a load that saw it change may have read a row that is gone
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public FileMetadataCache(MeterRegistry meterRegistry,
+                             @Value("${app.files.metadata-cache.max-size:10000}") long maxSize,
+                             @Value("${app.files.metadata-cache.ttl:10m}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "fileMetadata");
+    }
+
+    public Optional<File> get(UUID id, Function<UUID, Optional<File>> loader) {
+        File cached = cache.getIfPresent(id);
+        if (cached != null) return Optional.of(cached);
+        long before = invalidations.get();
+        Optional<File> loaded = loader.apply(id);
+        loaded.ifPresent(f -> {
+            cache.put(id, f);
+            // checked after the put: an invalidation either sees our entry or changed the count
+            if (invalidations.get() != before) cache.asMap().remove(id, f);
+        });
+        return loaded;
+    }
+
+    public void put(File file) {
+        cache.put(file.getId(), file);
+    }
+
+    public void invalidate(UUID id) {
+        invalidations.incrementAndGet();
+        cache.invalidate(id);
+    }
+
+    public void applyRequestCounts(Collection<RequestCountDelta> deltas) {
+        for (RequestCountDelta delta : deltas) {
+            cache.asMap().computeIfPresent(delta.fileId(), (id, f) -> {
+                long count = (f.getRequestCount() != null ? f.getRequestCount() : 0L) + delta.requests();
+                boolean newer = f.getLastRequestedAt() == null || f.getLastRequestedAt().isBefore(delta.lastRequestedAt());
+                return f.toBuilder()
+                        .requestCount(count)
+                        .lastRequestedAt(newer ? delta.lastRequestedAt() : f.getLastRequestedAt())
+                        .build();
+            });
+        }
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+}
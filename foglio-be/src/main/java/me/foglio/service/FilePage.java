@@ -0,0 +1,11 @@
+package me.foglio.service;
+
+import me.foglio.model.File;
+
+import java.util.List;
+
+/**
+ * A page of files and the cursor of the next one, {@code null} on the last page.
+ */
+public record FilePage(List<File> files, String nextCursor) {
+}
@@ -1,22 +1,36 @@
 package me.foglio.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import me.foglio.model.Blob;
 import me.foglio.model.File;
 import me.foglio.model.User;
 import me.foglio.repository.FileRepository;
+import me.foglio.repository.FileRepositoryCustom.FilePageQuery;
+import me.foglio.storage.StorageBackend;
+import me.foglio.storage.StoredObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
-import org.springframework.context.event.EventListener;
-import org.springframework.boot.context.event.ApplicationReadyEvent;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.Optional;
 import java.util.List;
 import java.util.UUID;
@@ -24,92 +38,403 @@ import java.util.UUID;
 @Service
 public class FileService {
 
+    private static final Logger log = LoggerFactory.getLogger(FileService.class);
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    public static final int MAX_PAGE_SIZE = 200;
+
     private final FileRepository fileRepository;
-    private final Path uploadDir;
+    private final StorageBackend storage;
+    private final ContentAddressedStore contentStore;
+    private final CompressionPolicy compression;
+    private final RequestCounter requestCounter;
+    private final FileMetadataCache metadataCache;
+    private final HotObjectCache hotObjects;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Counter uploadBytes;
+    private final Timer storageWrite;
+    private final Timer storageDelete;
+    private final long maxFileSize;
+    private final long maxRequestSize;
 
-    public FileService(FileRepository repository, @Value("${app.files.storage:./files}") String uploadDir) {
+    public FileService(FileRepository repository,
+                       StorageBackend storage,
+                       ContentAddressedStore contentStore,
+                       CompressionPolicy compression,
+                       RequestCounter requestCounter,
+                       FileMetadataCache metadataCache,
+                       HotObjectCache hotObjects,
+                       ApplicationEventPublisher eventPublisher,
+                       MeterRegistry meterRegistry,
+                       @Value("${spring.servlet.multipart.max-file-size:200MB}") DataSize maxFileSize,
+                       @Value("${spring.servlet.multipart.max-request-size:500MB}") DataSize maxRequestSize) {
         this.fileRepository = repository;
-        this.uploadDir = Paths.get(uploadDir);
+        this.storage = storage;
+        this.contentStore = contentStore;
+        this.compression = compression;
+        this.requestCounter = requestCounter;
+        this.metadataCache = metadataCache;
+        this.hotObjects = hotObjects;
+        this.eventPublisher = eventPublisher;
+        this.uploadBytes = Counter.builder("foglio.upload.bytes")
+                .description("File body bytes received from clients")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.storageWrite = Timer.builder("foglio.storage.write")
+                .description("Time to copy an upload into storage; streamed uploads include reading the request")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.storageDelete = Timer.builder("foglio.storage.delete")
+                .description("Time to delete a file's bytes from storage")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.maxFileSize = maxFileSize.toBytes();
+        this.maxRequestSize = maxRequestSize.toBytes();
     }
 
-    @EventListener(ApplicationReadyEvent.class)
-    public void init() {
-        try {
-            Files.createDirectories(uploadDir);
+    public File uploadFile(MultipartFile file, User owner, boolean isPublic) {
+        return register(writeContent(file, owner, isPublic));
+    }
+
+    /**
+     * Writes an upload's bytes to storage and returns its row, not saved yet: see {@link #registerAll}.
+     */
+    public File writeContent(MultipartFile file, User owner, boolean isPublic) {
+        try (InputStream in = file.getInputStream()) {
+            return write(in, file.getOriginalFilename(), file.getContentType(), owner, isPublic);
         } catch (IOException e) {
-            throw new RuntimeException("Unable to create upload dir", e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
-    public File uploadFile(MultipartFile file, User owner, boolean isPublic) {
+    // Streams an upload straight to its final location, without the multipart temp file
+    public File uploadStream(InputStream content, String originalName, String contentType, User owner, boolean isPublic) {
         try {
-            // Get file extension
-            String originalName = file.getOriginalFilename();
-            String extension = "";
-            if (originalName != null && originalName.contains(".")) {
-                extension = originalName.substring(originalName.lastIndexOf("."));
+            return register(write(content, originalName, contentType, owner, isPublic));
+        } catch (MultipartStreamReader.MalformedMultipartException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public void checkRequestLength(long contentLength) {
+        if (contentLength > maxRequestSize) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Upload exceeds " + maxRequestSize + " bytes");
+        }
+    }
+
+    private File write(InputStream in, String originalName, String contentType, User owner, boolean isPublic) throws IOException {
+        String extension = extensionOf(originalName);
+
+        // Generate new file id and filename
+        UUID fileId = UUID.randomUUID();
+        String newFileName = StorageLayout.sharded(fileId, extension);
+        DigestingInputStream content = new DigestingInputStream(in, maxFileSize);
+        CompressionPolicy.Encoded encoded = compression.encode(contentType, content);
+        String encoding = encoded.encoding();
+        long storedSize;
+        Blob blob = null;
+        Timer.Sample copy = Timer.start();
+        try (InputStream body = encoded.stream()) {
+            if (contentStore.isEnabled()) {
+                // the blob's name depends on the digest, so the bytes are staged locally first
+                Path upload = stage(body);
+                storedSize = Files.size(upload);
+                blob = contentStore.commit(upload, content.digest(), content.size(), encoding);
+            } else {
+                storedSize = storage.put(newFileName, body);
             }
+        }
+        copy.stop(storageWrite);
+        uploadBytes.increment(content.size());
+        if (encoding != null) compression.record(content.size(), storedSize);
+        if (blob != null) {
+            return newFile(fileId, blob.getStoredFileName(), originalName, extension, contentType, content.size(),
+                    content.digest(), blob.getContentEncoding(), blob.getCompressedSize(), owner, isPublic);
+        }
+        return newFile(fileId, newFileName, originalName, extension, contentType, content.size(), content.digest(),
+                encoding, encoding != null ? storedSize : null, owner, isPublic);
+    }
+
+    private Path stage(InputStream content) throws IOException {
+        Path upload = contentStore.tempFile();
+        boolean complete = false;
+        try (OutputStream out = Files.newOutputStream(upload)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            complete = true;
+        } finally {
+            if (!complete) Files.deleteIfExists(upload);
+        }
+        return upload;
+    }
+
+    /**
+     * Takes over a fully written local file (e.g. a completed upload session). With the local backends this is a
+     * rename, so {@code upload} must live on the same file system as the storage root; uploads the compression
+     * policy applies to are rewritten compressed instead.
+     */
+    public File adopt(Path upload, String originalName, String contentType, User owner, boolean isPublic,
+                      long size, String sha256) throws IOException {
+        String extension = extensionOf(originalName);
+        UUID fileId = UUID.randomUUID();
+        String newFileName = StorageLayout.sharded(fileId, extension);
+        String encoding = null;
+        Long compressedSize = null;
+        uploadBytes.increment(size);
+        Timer.Sample copy = Timer.start();
+        if (compression.appliesTo(contentType) && size >= compression.minSize()) {
+            encoding = CompressionPolicy.GZIP;
+            Path uncompressed = upload;
+            try (InputStream body = compression.compress(Files.newInputStream(uncompressed))) {
+                if (contentStore.isEnabled()) {
+                    upload = stage(body);
+                    compressedSize = Files.size(upload);
+                } else {
+                    compressedSize = storage.put(newFileName, body);
+                }
+            }
+            Files.delete(uncompressed);
+            compression.record(size, compressedSize);
+        }
+        if (contentStore.isEnabled()) {
+            Blob blob = contentStore.commit(upload, sha256, size, encoding);
+            copy.stop(storageWrite);
+            return register(newFile(fileId, blob.getStoredFileName(), originalName, extension, contentType, size, sha256,
+                    blob.getContentEncoding(), blob.getCompressedSize(), owner, isPublic));
+        }
+        if (encoding == null) storage.putFile(newFileName, upload);
+        copy.stop(storageWrite);
+        return register(newFile(fileId, newFileName, originalName, extension, contentType, size, sha256,
+                encoding, compressedSize, owner, isPublic));
+    }
+
+    private static String extensionOf(String originalName) {
+        if (originalName != null && originalName.contains(".")) {
+            return originalName.substring(originalName.lastIndexOf("."));
+        }
+        return "";
+    }
+
+    private static File newFile(UUID fileId, String newFileName, String originalName, String extension, String contentType,
+                                long size, String sha256, String contentEncoding, Long compressedSize,
+                                User owner, boolean isPublic) {
+        return File.builder()
+                .id(fileId)
+                .originalName(originalName)
+                .extension(extension)
+                .contentType(contentType)
+                .size(size)
+                .sha256(sha256)
+                .owner(owner)
+                .isPublic(isPublic)
+                .storedFileName(newFileName)
+                .contentEncoding(contentEncoding)
+                .compressedSize(compressedSize)
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+
+    private File register(File fileEntity) {
+        File saved;
+        try {
+            saved = fileRepository.save(fileEntity);
+        } catch (RuntimeException e) {
+            discard(fileEntity);
+            throw e;
+        }
+        eventPublisher.publishEvent(new FileStoredEvent(saved));
+        return saved;
+    }
+
+    /**
+     * Saves the rows of files written with {@link #writeContent} in one insert batch. If that fails, the bytes of
+     * every file are dropped again.
+     */
+    public List<File> registerAll(List<File> files) {
+        if (files.isEmpty()) return List.of();
+        List<File> saved = new ArrayList<>(files.size());
+        try {
+            fileRepository.saveAll(files).forEach(saved::add);
+        } catch (RuntimeException e) {
+            files.forEach(this::discard);
+            throw e;
+        }
+        saved.forEach(f -> eventPublisher.publishEvent(new FileStoredEvent(f)));
+        return saved;
+    }
 
-            // Generate new file id and filename
-            UUID fileId = UUID.randomUUID();
-            String newFileName = fileId + extension;
-            Path path = uploadDir.resolve(newFileName);
-
-            Files.copy(file.getInputStream(), path, StandardCopyOption.REPLACE_EXISTING);
-
-            File fileEntity = File.builder()
-                    .id(fileId)
-                    .originalName(file.getOriginalFilename())
-                    .extension(extension)
-                    .contentType(file.getContentType())
-                    .size(file.getSize())
-                    .owner(owner)
-                    .isPublic(isPublic)
-                    .storedFileName(newFileName)
-                    .createdAt(LocalDateTime.now())
-                    .build();
-
-            return fileRepository.save(fileEntity);
+    // drops the bytes of a file whose row couldn't be saved
+    private void discard(File fileEntity) {
+        if (ContentAddressedStore.isContentAddressed(fileEntity.getStoredFileName())) {
+            contentStore.release(fileEntity.getSha256());
+            return;
+        }
+        Timer.Sample delete = Timer.start();
+        try {
+            storage.delete(fileEntity.getStoredFileName());
+            delete.stop(storageDelete);
         } catch (IOException e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+            log.warn("Could not delete {} after its row failed to save", fileEntity.getStoredFileName(), e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 
     public Optional<File> getFileMetadata(UUID id) {
-        return fileRepository.findById(id);
+        return metadataCache.get(id, fileRepository::findMetadata);
     }
 
-    public List<File> listFilesByOwner(User owner) {
+    /**
+     * Lists one page of the owner's files, newest first unless {@code ascending}.
+     *
+     * @param cursor {@code nextCursor} of the previous page, or {@code null} for the first one
+     */
+    public FilePage listFilesByOwner(User owner, String contentType, Boolean isPublic,
+                                     boolean ascending, String cursor, int limit) {
         if (owner == null || owner.getId() == null) {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
         }
-        return fileRepository.findByOwner_Id(owner.getId());
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        FileCursor after = null;
+        if (cursor != null && !cursor.isBlank()) {
+            try {
+                after = FileCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+            }
+            if (after.ascending() != ascending) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor was issued for a different sort order");
+            }
+        }
+
+        // one extra row tells whether another page follows
+        List<File> rows = fileRepository.findPage(new FilePageQuery(owner.getId(),
+                contentType == null || contentType.isBlank() ? null : contentType, isPublic, ascending,
+                after != null ? after.createdAt() : null, after != null ? after.id() : null, limit + 1));
+        if (rows.size() <= limit) {
+            return new FilePage(rows, null);
+        }
+        List<File> page = rows.subList(0, limit);
+        return new FilePage(page, FileCursor.after(page.get(limit - 1), ascending).encode());
     }
 
-    public Path getFilePath(File fileEntity) {
-        return uploadDir.resolve(fileEntity.getStoredFileName());
+    /**
+     * Finds the stored bytes of a file, or nothing if they are missing from storage. These are encoded with
+     * {@link File#getContentEncoding()}, see {@link CompressionPolicy#decoded}. Hot public files come from memory.
+     */
+    public Optional<StoredObject> findContent(File fileEntity) throws IOException {
+        Optional<StoredObject> cached = hotObjects.get(fileEntity);
+        if (cached.isPresent()) return cached;
+        String name = fileEntity.getStoredFileName();
+        Optional<StoredObject> content = storage.find(name);
+        // a row read before the layout migration moved its file still names the flat path
+        if (content.isEmpty() && StorageLayout.isFlat(name)) {
+            content = storage.find(StorageLayout.sharded(name));
+        }
+        return content.map(found -> hotObjects.admit(fileEntity, found));
     }
 
     public void touch(File fileEntity) {
-        if (fileEntity.getRequestCount() == null) {
-            fileEntity.setRequestCount(0L);
-        }
-        fileEntity.setRequestCount(fileEntity.getRequestCount() + 1);
-        fileEntity.setLastRequestedAt(LocalDateTime.now());
-        fileRepository.save(fileEntity);
+        requestCounter.record(fileEntity.getId());
     }
 
     public void deleteFile(File fileEntity) {
+        if (ContentAddressedStore.isContentAddressed(fileEntity.getStoredFileName())) {
+            // Shared blob: the physical file goes away with its last reference
+            fileRepository.delete(fileEntity);
+            metadataCache.invalidate(fileEntity.getId());
+            hotObjects.invalidate(fileEntity.getId());
+            contentStore.release(fileEntity.getSha256());
+            eventPublisher.publishEvent(new FileDeletedEvent(fileEntity));
+            return;
+        }
+
         // Delete physical file from storage
-        Path filePath = getFilePath(fileEntity);
+        String name = fileEntity.getStoredFileName();
+        Timer.Sample delete = Timer.start();
         try {
-            Files.deleteIfExists(filePath);
+            storage.delete(name);
+            if (StorageLayout.isFlat(name)) {
+                // the layout migration may have linked it into its shard meanwhile
+                storage.delete(StorageLayout.sharded(name));
+            }
+            delete.stop(storageDelete);
         } catch (IOException e) {
             // Log error but continue to delete DB entry
-            System.err.println("Warning: Could not delete physical file: " + filePath);
+            log.warn("Could not delete {}; removing the row anyway", name, e);
         }
         
         // Delete from database
         fileRepository.delete(fileEntity);
+        // only once the row is gone, or a lookup in between would cache it again
+        metadataCache.invalidate(fileEntity.getId());
+        hotObjects.invalidate(fileEntity.getId());
+        eventPublisher.publishEvent(new FileDeletedEvent(fileEntity));
+    }
+
+    // computes size and SHA-256 of everything read, failing once more than maxSize bytes come through
+    private static final class DigestingInputStream extends FilterInputStream {
+
+        private final MessageDigest digest = FileService.sha256();
+        private final long maxSize;
+        private long size;
+        private String hex;
+
+        DigestingInputStream(InputStream in, long maxSize) {
+            super(in);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                size += read;
+                if (size > maxSize) {
+                    throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "File exceeds " + maxSize + " bytes");
+                }
+                digest.update(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            // every byte must be digested
+            return 0;
+        }
+
+        long size() {
+            return size;
+        }
+
+        // hex digest of the whole stream, once it has been read to the end
+        String digest() {
+            if (hex == null) hex = HexFormat.of().formatHex(digest.digest());
+            return hex;
+        }
     }
 }
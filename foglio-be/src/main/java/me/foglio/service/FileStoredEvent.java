@@ -0,0 +1,9 @@
+package me.foglio.service;
+
+import me.foglio.model.File;
+
+/**
+ * Published once an upload has been written to storage and its row saved.
+ */
+public record FileStoredEvent(File file) {
+}
@@ -0,0 +1,153 @@
+package me.foglio.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import me.foglio.model.File;
+import me.foglio.storage.StoredObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bodies of small, frequently requested public files, kept in direct buffers outside the heap.
+ * <p>
+ * A file is a candidate once its row shows at least {@code min-requests} requests, the last one within
+ * {@code recent}; among candidates the cache's frequency sketch (W-TinyLFU) decides which bodies are worth the
+ * {@code max-size} bytes. File bodies never change for an id, so entries only go away on eviction or delete.
+ * <p>
+ * Bodies are read from storage by the request that missed, outside any cache lock (with S3 that read is an HTTP
+ * GET); concurrent misses on the same file wait for that read instead of starting their own.
+ */
+@Component
+public class HotObjectCache {
+
+    private static final Logger log = LoggerFactory.getLogger(HotObjectCache.class);
+
+    private record Entry(ByteBuffer buffer, Instant lastModified) {
+    }
+
+    private final boolean enabled;
+    private final long maxObjectSize;
+    private final long minRequests;
+    private final Duration recent;
+    private final AsyncCache<UUID, Entry> cache;
+    // bumped by every invalidation; a body read while it changed may belong to a deleted file
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public HotObjectCache(MeterRegistry meterRegistry,
+                          @Value("${app.files.hot-cache.enabled:false}") boolean enabled,
+                          @Value("${app.files.hot-cache.max-size:64MB}") DataSize maxSize,
+                          @Value("${app.files.hot-cache.max-object-size:256KB}") DataSize maxObjectSize,
+                          @Value("${app.files.hot-cache.min-requests:10}") long minRequests,
+                          @Value("${app.files.hot-cache.recent:1h}") Duration recent) {
+        this.enabled = enabled;
+        this.maxObjectSize = Math.min(maxObjectSize.toBytes(), Integer.MAX_VALUE - 8);
+        this.minRequests = minRequests;
+        this.recent = recent;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .<UUID, Entry>weigher((id, entry) -> entry.buffer().capacity())
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "hotObjects");
+        Gauge.builder("foglio.hotcache.bytes", cache, c -> c.synchronous().policy().eviction().orElseThrow().weightedSize().orElse(0))
+                .description("File body bytes held off-heap by the hot-object cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("foglio.hotcache.hit.ratio", cache, c -> c.synchronous().stats().hitRate())
+                .description("Share of hot-object cache lookups served from memory")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The cached body of {@code file}, if it is a candidate and has been admitted.
+     */
+    public Optional<StoredObject> get(File file) {
+        if (!isCandidate(file)) return Optional.empty();
+        CompletableFuture<Entry> cached = cache.getIfPresent(file.getId());
+        // a body still being read counts as a miss; the caller's admit waits for it
+        if (cached == null || !cached.isDone() || cached.isCompletedExceptionally()) return Optional.empty();
+        Entry entry = cached.join();
+        return Optional.of(StoredObject.ofBuffer(entry.buffer(), entry.lastModified()));
+    }
+
+    /**
+     * Offers the body just found in storage; returns the cached copy if it was admitted, {@code content} otherwise.
+     * Concurrent misses on the same file read it from storage once.
+     */
+    public StoredObject admit(File file, StoredObject content) {
+        if (!isCandidate(file) || content.size() > maxObjectSize) return content;
+        long before = invalidations.get();
+        CompletableFuture<Entry> loading = new CompletableFuture<>();
+        // through the map view, so the lookup get() already counted as a miss isn't counted again
+        CompletableFuture<Entry> cached = cache.asMap().putIfAbsent(file.getId(), loading);
+        if (cached == null) {
+            cached = loading;
+            try {
+                loading.complete(load(content));
+            } catch (RuntimeException e) {
+                // failed futures leave the cache by themselves
+                loading.completeExceptionally(e);
+            }
+            if (invalidations.get() != before) cache.asMap().remove(file.getId(), loading);
+        }
+        try {
+            Entry entry = cached.join();
+            return StoredObject.ofBuffer(entry.buffer(), entry.lastModified());
+        } catch (CompletionException e) {
+            log.warn("Could not cache the body of {}", file.getId(), e.getCause());
+            return content;
+        }
+    }
+
+    public void invalidate(UUID id) {
+        invalidations.incrementAndGet();
+        cache.synchronous().invalidate(id);
+    }
+
+    private boolean isCandidate(File file) {
+        if (!enabled || !Boolean.TRUE.equals(file.getIsPublic())) return false;
+        Long stored = file.getContentEncoding() != null ? file.getCompressedSize() : file.getSize();
+        if (stored == null || stored > maxObjectSize) return false;
+        long requests = file.getRequestCount() != null ? file.getRequestCount() : 0;
+        LocalDateTime last = file.getLastRequestedAt();
+        return requests >= minRequests && last != null && last.isAfter(LocalDateTime.now().minus(recent));
+    }
+
+    private static Entry load(StoredObject content) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) content.size());
+        try (InputStream in = content.open(); ReadableByteChannel channel = Channels.newChannel(in)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new EOFException("Object truncated at " + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Entry(buffer.flip(), content.lastModified());
+    }
+
+    public long size() {
+        return cache.synchronous().estimatedSize();
+    }
+}
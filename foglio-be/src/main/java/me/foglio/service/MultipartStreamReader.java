@@ -0,0 +1,246 @@
+package me.foglio.service;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Pull parser for {@code multipart/form-data} bodies that hands out each part as a stream while
+ * the request is still arriving, so nothing is spooled to memory or temp files.
+ */
+public class MultipartStreamReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    /**
+     * The body is not valid multipart, as opposed to an I/O failure of the stream underneath.
+     */
+    public static class MalformedMultipartException extends IOException {
+
+        public MalformedMultipartException(String message) {
+            super(message);
+        }
+    }
+
+    public record Part(Map<String, String> headers, String name, String filename, String contentType, InputStream body) {
+
+        public boolean isFile() {
+            return filename != null;
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int head;
+    private int tail;
+    private boolean eof;
+    private boolean finished;
+
+    // bytes at head known to belong to the current part, and whether the delimiter follows them
+    private int safe;
+    private boolean delimiterNext;
+    private PartInputStream current;
+
+    public MultipartStreamReader(InputStream in, String boundary) {
+        if (boundary == null || boundary.isEmpty() || boundary.length() > 70) {
+            throw new IllegalArgumentException("Invalid multipart boundary");
+        }
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        // the first delimiter has no leading CRLF, pretend it does and treat the preamble as a part
+        buffer[tail++] = '\r';
+        buffer[tail++] = '\n';
+        this.current = new PartInputStream();
+    }
+
+    /**
+     * Extracts the boundary of a {@code multipart/form-data} content type, or {@code null} if it isn't one.
+     */
+    public static String boundaryOf(String contentType) {
+        if (contentType == null) return null;
+        try {
+            MediaType mediaType = MediaType.parseMediaType(contentType);
+            if (!MediaType.MULTIPART_FORM_DATA.includes(mediaType)) return null;
+            String boundary = mediaType.getParameter("boundary");
+            if (boundary != null && boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+                boundary = boundary.substring(1, boundary.length() - 1);
+            }
+            return boundary == null || boundary.isEmpty() ? null : boundary;
+        } catch (InvalidMediaTypeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Advances to the next part, skipping whatever is left of the current one.
+     *
+     * @return the next part, or {@code null} after the closing delimiter
+     */
+    public Part next() throws IOException {
+        if (finished) return null;
+        current.skipRemaining();
+
+        if (!ensure(2)) throw new MalformedMultipartException("Unexpected end of multipart stream");
+        if (buffer[head] == '-' && buffer[head + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        // transport padding is allowed between the boundary and its CRLF
+        while (ensure(1) && (buffer[head] == ' ' || buffer[head] == '\t')) head++;
+        if (!ensure(2) || buffer[head] != '\r' || buffer[head + 1] != '\n') {
+            throw new MalformedMultipartException("Malformed multipart boundary line");
+        }
+        head += 2;
+
+        Map<String, String> headers = readHeaders();
+        String name = null;
+        String filename = null;
+        String disposition = headers.get("content-disposition");
+        if (disposition != null) {
+            ContentDisposition cd = ContentDisposition.parse(disposition);
+            name = cd.getName();
+            filename = cd.getFilename();
+        }
+        current = new PartInputStream();
+        return new Part(headers, name, filename, headers.get("content-type"), current);
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        int consumed = 0;
+        while (true) {
+            int lineEnd = indexOfCrlf();
+            if (lineEnd < 0) {
+                if (eof || tail - head >= MAX_HEADER_SIZE) throw new MalformedMultipartException("Malformed multipart part headers");
+                fill();
+                continue;
+            }
+            consumed += lineEnd - head + 2;
+            if (consumed > MAX_HEADER_SIZE) throw new MalformedMultipartException("Multipart part headers too large");
+            String line = new String(buffer, head, lineEnd - head, StandardCharsets.UTF_8);
+            head = lineEnd + 2;
+            if (line.isEmpty()) return headers;
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+    }
+
+    // bytes available for the current part at head, or -1 when the delimiter starts at head
+    private int partAvailable() throws IOException {
+        while (true) {
+            if (safe > 0) return safe;
+            if (delimiterNext) return -1;
+            int idx = indexOf(delimiter);
+            if (idx >= 0) {
+                safe = idx - head;
+                delimiterNext = true;
+                continue;
+            }
+            int candidate = tail - head - (delimiter.length - 1);
+            if (candidate > 0) {
+                safe = candidate;
+                continue;
+            }
+            if (eof) throw new MalformedMultipartException("Unexpected end of multipart stream");
+            fill();
+        }
+    }
+
+    private boolean ensure(int n) throws IOException {
+        while (tail - head < n) {
+            if (eof) return false;
+            fill();
+        }
+        return true;
+    }
+
+    private void fill() throws IOException {
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+            tail -= head;
+            head = 0;
+        }
+        if (tail == buffer.length) throw new MalformedMultipartException("Multipart buffer overflow");
+        int read = in.read(buffer, tail, buffer.length - tail);
+        if (read < 0) {
+            eof = true;
+        } else {
+            tail += read;
+        }
+    }
+
+    private int indexOf(byte[] pattern) {
+        byte first = pattern[0];
+        int last = tail - pattern.length;
+        outer:
+        for (int i = head; i <= last; i++) {
+            if (buffer[i] != first) continue;
+            for (int j = 1; j < pattern.length; j++) {
+                if (buffer[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private int indexOfCrlf() {
+        for (int i = head; i < tail - 1; i++) {
+            if (buffer[i] == '\r' && buffer[i + 1] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private final class PartInputStream extends InputStream {
+
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) return -1;
+            if (len == 0) return 0;
+            int available = partAvailable();
+            if (available < 0) {
+                head += delimiter.length;
+                delimiterNext = false;
+                done = true;
+                return -1;
+            }
+            int n = Math.min(len, available);
+            System.arraycopy(buffer, head, b, off, n);
+            head += n;
+            safe -= n;
+            return n;
+        }
+
+        void skipRemaining() throws IOException {
+            while (!done) {
+                int available = partAvailable();
+                if (available < 0) {
+                    head += delimiter.length;
+                    delimiterNext = false;
+                    done = true;
+                } else {
+                    head += available;
+                    safe = 0;
+                }
+            }
+        }
+    }
+}
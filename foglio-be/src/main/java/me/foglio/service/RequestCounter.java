@@ -0,0 +1,140 @@
+package me.foglio.service;
+
+import jakarta.annotation.PreDestroy;
+import me.foglio.repository.FileRepository;
+import me.foglio.repository.FileRepositoryCustom.RequestCountDelta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind preview/download counters.
+ * <p>
+ * Requests only bump striped in-memory accumulators; {@link #flush()} periodically swaps in a fresh generation and
+ * turns the old one into a single batch of atomic {@code requestCount = requestCount + ?} updates. Before draining,
+ * the flush waits for recorders that were already inside the old generation, so no increment is lost.
+ */
+@Component
+public class RequestCounter {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestCounter.class);
+
+    private static final class Accumulator {
+        final LongAdder requests = new LongAdder();
+        final LongAccumulator lastRequestedAt = new LongAccumulator(Math::max, 0L);
+    }
+
+    private static final class Generation {
+        final ConcurrentHashMap<UUID, Accumulator> counts = new ConcurrentHashMap<>();
+        final LongAdder entered = new LongAdder();
+        final LongAdder exited = new LongAdder();
+
+        // every recorder counted in entered has also been counted in exited
+        boolean quiescent() {
+            long out = exited.sum();
+            return out == entered.sum();
+        }
+    }
+
+    private final FileRepository fileRepository;
+    private final FileMetadataCache metadataCache;
+
+    // serialises flushes; not a monitor, the flush holds it across a JDBC batch
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private volatile Generation active = new Generation();
+    private volatile Generation flushing;
+
+    public RequestCounter(FileRepository fileRepository, FileMetadataCache metadataCache) {
+        this.fileRepository = fileRepository;
+        this.metadataCache = metadataCache;
+    }
+
+    public void record(UUID fileId) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Generation generation = active;
+            generation.entered.increment();
+            try {
+                if (generation != active) continue; // swapped by a flush, count into the new one
+                Accumulator acc = generation.counts.computeIfAbsent(fileId, id -> new Accumulator());
+                acc.lastRequestedAt.accumulate(now);
+                acc.requests.increment();
+                return;
+            } finally {
+                generation.exited.increment();
+            }
+        }
+    }
+
+    /**
+     * Requests recorded for a file that haven't been written to the database yet.
+     */
+    public long pending(UUID fileId) {
+        long pending = 0;
+        Accumulator acc = active.counts.get(fileId);
+        if (acc != null) pending += acc.requests.sum();
+        Generation inFlight = flushing;
+        if (inFlight != null && (acc = inFlight.counts.get(fileId)) != null) pending += acc.requests.sum();
+        return pending;
+    }
+
+    @Scheduled(fixedDelayString = "${app.files.counters.flush-interval:5s}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            doFlush();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void doFlush() {
+        Generation old = active;
+        flushing = old;
+        active = new Generation();
+        while (!old.quiescent()) {
+            Thread.onSpinWait();
+        }
+
+        List<RequestCountDelta> deltas = new ArrayList<>(old.counts.size());
+        old.counts.forEach((id, acc) -> {
+            long requests = acc.requests.sum();
+            if (requests == 0) return;
+            long last = acc.lastRequestedAt.get();
+            deltas.add(new RequestCountDelta(id, requests, LocalDateTime.ofInstant(Instant.ofEpochMilli(last), ZoneId.systemDefault())));
+        });
+        try {
+            if (!deltas.isEmpty()) {
+                fileRepository.addRequestCounts(deltas);
+                metadataCache.applyRequestCounts(deltas);
+            }
+        } catch (RuntimeException e) {
+            // put the counts back so the next flush retries them
+            log.warn("Could not flush {} request counters, retrying next round", deltas.size(), e);
+            for (RequestCountDelta delta : deltas) {
+                Accumulator acc = active.counts.computeIfAbsent(delta.fileId(), id -> new Accumulator());
+                acc.lastRequestedAt.accumulate(old.counts.get(delta.fileId()).lastRequestedAt.get());
+                acc.requests.add(delta.requests());
+            }
+        } finally {
+            flushing = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
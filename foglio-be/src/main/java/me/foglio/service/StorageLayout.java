@@ -0,0 +1,30 @@
+package me.foglio.service;
+
+import java.util.UUID;
+
+/**
+ * Names of stored files relative to the storage root.
+ * <p>
+ * Files are fanned out as {@code ab/cd/<uuid><ext>} from the first four hex digits of their id, so no directory
+ * grows past a few hundred entries even with millions of files. Files stored before sharding are still named
+ * {@code <uuid><ext>} at the root until {@link StorageLayoutMigration} moves them.
+ */
+public final class StorageLayout {
+
+    private StorageLayout() {
+    }
+
+    public static String sharded(UUID id, String extension) {
+        return sharded(id + extension);
+    }
+
+    // sharded location of a flat name
+    public static String sharded(String flatName) {
+        if (flatName.length() < 4) return flatName;
+        return flatName.substring(0, 2) + "/" + flatName.substring(2, 4) + "/" + flatName;
+    }
+
+    public static boolean isFlat(String storedFileName) {
+        return storedFileName.indexOf('/') < 0;
+    }
+}
@@ -0,0 +1,199 @@
+package me.foglio.service;
+
+import me.foglio.repository.FileRepository;
+import me.foglio.repository.FileRepository.StoredName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Online migration of flat {@code <uuid><ext>} files into the sharded {@link StorageLayout}, exposed as the
+ * {@code storagelayout} actuator endpoint (GET for progress, POST to start).
+ * <p>
+ * Each file is hard-linked into its shard, its row is switched with a compare-and-set update, and only then is the
+ * flat name unlinked, so the file is reachable under the name any reader holds at every step.
+ * {@link FileService#findContent} also falls back to the shard for rows read before the switch.
+ * <p>
+ * Only the local backends ever stored files flat, so the endpoint doesn't exist with {@code app.files.backend=s3}.
+ */
+@Component
+@ConditionalOnExpression("'${app.files.backend:local}' != 's3'")
+@Endpoint(id = "storagelayout")
+public class StorageLayoutMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageLayoutMigration.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private final FileRepository fileRepository;
+    private final FileMetadataCache metadataCache;
+    private final Path root;
+    private final int defaultParallelism;
+    private final boolean migrateOnStartup;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+
+    public StorageLayoutMigration(FileRepository fileRepository,
+                                  FileMetadataCache metadataCache,
+                                  @Value("${app.files.storage:./files}") String storage,
+                                  @Value("${app.files.layout.migration-parallelism:4}") int defaultParallelism,
+                                  @Value("${app.files.layout.migrate-on-startup:false}") boolean migrateOnStartup) {
+        this.fileRepository = fileRepository;
+        this.metadataCache = metadataCache;
+        this.root = Paths.get(storage);
+        this.defaultParallelism = defaultParallelism;
+        this.migrateOnStartup = migrateOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (migrateOnStartup && fileRepository.countFlat() > 0) start(null);
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return Map.of(
+                "running", running.get(),
+                "flatRemaining", fileRepository.countFlat(),
+                "moved", moved.get(),
+                "missing", missing.get(),
+                "failed", failed.get(),
+                "startedAt", String.valueOf(startedAt),
+                "finishedAt", String.valueOf(finishedAt));
+    }
+
+    /**
+     * Starts a migration in the background unless one is already running.
+     */
+    @WriteOperation
+    public Map<String, Object> start(@Nullable Integer parallelism) {
+        if (!running.compareAndSet(false, true)) {
+            return Map.of("started", false, "reason", "already running");
+        }
+        int threads = parallelism != null && parallelism > 0 ? parallelism : defaultParallelism;
+        moved.set(0);
+        missing.set(0);
+        failed.set(0);
+        startedAt = LocalDateTime.now();
+        finishedAt = null;
+        Thread runner = new Thread(() -> {
+            try {
+                migrate(threads);
+            } catch (RuntimeException e) {
+                log.error("Storage layout migration aborted", e);
+            } finally {
+                finishedAt = LocalDateTime.now();
+                running.set(false);
+            }
+        }, "storage-layout-migration");
+        runner.setDaemon(true);
+        runner.start();
+        return Map.of("started", true, "parallelism", threads);
+    }
+
+    /**
+     * Migrates every flat file, with at most {@code parallelism} moves in flight.
+     */
+    void migrate(int parallelism) {
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("storage-layout-"));
+        // bounds the queue as well: the reader never gets more than one batch ahead of the movers
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        try {
+            UUID after = new UUID(0, 0);
+            while (true) {
+                List<StoredName> batch = fileRepository.findFlatAfter(after, Limit.of(BATCH_SIZE));
+                if (batch.isEmpty()) break;
+                for (StoredName row : batch) {
+                    inFlight.acquireUninterruptibly();
+                    pool.execute(() -> {
+                        try {
+                            migrateOne(row.getId(), row.getStoredFileName());
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+                after = batch.get(batch.size() - 1).getId();
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(1, TimeUnit.HOURS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("Storage layout migration done: {} moved, {} missing, {} failed", moved.get(), missing.get(), failed.get());
+    }
+
+    void migrateOne(UUID id, String flatName) {
+        String shardedName = StorageLayout.sharded(flatName);
+        Path flat = root.resolve(flatName);
+        Path sharded = root.resolve(shardedName);
+        try {
+            if (!Files.exists(flat) && !Files.exists(sharded)) {
+                missing.incrementAndGet();
+                return;
+            }
+            if (Files.exists(flat)) {
+                Files.createDirectories(sharded.getParent());
+                link(flat, sharded);
+            }
+            if (fileRepository.renameStoredFile(id, flatName, shardedName) == 0) {
+                // deleted (or already moved) meanwhile: drop our link unless the row points at it
+                if (!Files.exists(flat)) return;
+                Files.deleteIfExists(sharded);
+                return;
+            }
+            metadataCache.invalidate(id);
+            Files.deleteIfExists(flat);
+            moved.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            log.warn("Could not move {} into its shard", flatName, e);
+        }
+    }
+
+    private static void link(Path flat, Path sharded) throws IOException {
+        try {
+            Files.createLink(sharded, flat);
+        } catch (FileAlreadyExistsException e) {
+            // linked by an earlier, interrupted run
+        } catch (UnsupportedOperationException | IOException e) {
+            // no hard links here: a rename leaves a short window that findContent's fallback covers
+            Files.move(flat, sharded, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
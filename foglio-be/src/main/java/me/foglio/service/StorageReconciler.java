@@ -0,0 +1,343 @@
+package me.foglio.service;
+
+import me.foglio.repository.BlobRepository;
+import me.foglio.repository.FileRepository;
+import me.foglio.repository.FileRepository.StoredName;
+import me.foglio.repository.PendingDeletionRepository;
+import me.foglio.storage.StorageBackend;
+import me.foglio.storage.StoredObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.data.domain.Limit;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Finds where storage and the database have drifted apart, exposed as the {@code reconciliation} actuator endpoint
+ * (GET for progress and findings, POST to start a run).
+ * <p>
+ * Two walks run side by side: one streams every stored key and looks its batch up in {@code files}, {@code blobs}
+ * and the {@code pending_deletions} queue, reporting objects nothing refers to (orphans); the other pages through
+ * {@code files} by id and reports rows whose stored object is gone (missing). Orphans younger than {@code grace}
+ * are left alone, their upload may not have saved its row yet. With {@code quarantine}, orphans are moved under
+ * {@code quarantine/} instead of only being reported; missing rows are always only reported.
+ * <p>
+ * Storage operations of both walks share a budget of {@code rate} per second, so a run can go on in production.
+ */
+@Component
+@Endpoint(id = "reconciliation")
+public class StorageReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageReconciler.class);
+
+    static final String QUARANTINE = "quarantine/";
+    private static final int BATCH_SIZE = 500;
+    // findings kept for the endpoint per kind; the counters keep counting past it
+    private static final int MAX_FINDINGS = 100;
+
+    private final StorageBackend storage;
+    private final FileRepository fileRepository;
+    private final BlobRepository blobRepository;
+    private final PendingDeletionRepository pendingDeletions;
+    private final int rate;
+    private final Duration grace;
+    private final boolean defaultQuarantine;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong objectsScanned = new AtomicLong();
+    private final AtomicLong rowsScanned = new AtomicLong();
+    private final AtomicLong orphans = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicLong quarantined = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final List<String> orphanKeys = new ArrayList<>();
+    private final List<String> missingFiles = new ArrayList<>();
+    private volatile Throttle throttle;
+    private volatile boolean quarantining;
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+
+    public StorageReconciler(StorageBackend storage,
+                             FileRepository fileRepository,
+                             BlobRepository blobRepository,
+                             PendingDeletionRepository pendingDeletions,
+                             @Value("${app.files.reconcile.rate:200}") int rate,
+                             @Value("${app.files.reconcile.grace:1h}") Duration grace,
+                             @Value("${app.files.reconcile.quarantine:false}") boolean defaultQuarantine) {
+        this.storage = storage;
+        this.fileRepository = fileRepository;
+        this.blobRepository = blobRepository;
+        this.pendingDeletions = pendingDeletions;
+        this.rate = rate;
+        this.grace = grace;
+        this.defaultQuarantine = defaultQuarantine;
+    }
+
+    // "-" (the default) disables scheduled runs
+    @Scheduled(cron = "${app.files.reconcile.cron:-}")
+    public void scheduled() {
+        start(null);
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("quarantine", quarantining);
+        status.put("objectsScanned", objectsScanned.get());
+        status.put("rowsScanned", rowsScanned.get());
+        status.put("orphans", orphans.get());
+        status.put("missing", missing.get());
+        status.put("quarantined", quarantined.get());
+        status.put("failed", failed.get());
+        status.put("startedAt", String.valueOf(startedAt));
+        status.put("finishedAt", String.valueOf(finishedAt));
+        synchronized (orphanKeys) {
+            status.put("orphanKeys", List.copyOf(orphanKeys));
+        }
+        synchronized (missingFiles) {
+            status.put("missingFiles", List.copyOf(missingFiles));
+        }
+        return status;
+    }
+
+    /**
+     * Starts a run in the background unless one is already running.
+     *
+     * @param quarantine move orphans aside rather than only reporting them; {@code app.files.reconcile.quarantine}
+     *                   if not given
+     */
+    @WriteOperation
+    public Map<String, Object> start(@Nullable Boolean quarantine) {
+        if (!running.compareAndSet(false, true)) {
+            return Map.of("started", false, "reason", "already running");
+        }
+        boolean moveOrphans = quarantine != null ? quarantine : defaultQuarantine;
+        Thread runner = new Thread(() -> {
+            try {
+                reconcile(moveOrphans);
+            } catch (RuntimeException e) {
+                log.error("Storage reconciliation aborted", e);
+            } finally {
+                running.set(false);
+            }
+        }, "storage-reconciliation");
+        runner.setDaemon(true);
+        runner.start();
+        return Map.of("started", true, "quarantine", moveOrphans);
+    }
+
+    /**
+     * Runs both walks to completion, each on its own thread.
+     */
+    void reconcile(boolean quarantine) {
+        reset(quarantine);
+        ExecutorService pool = Executors.newFixedThreadPool(2, new CustomizableThreadFactory("storage-reconciliation-"));
+        try {
+            List<Future<?>> walks = List.of(pool.submit(() -> scanObjects(quarantine)), pool.submit(this::scanRows));
+            for (Future<?> walk : walks) {
+                walk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Storage reconciliation aborted", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            finishedAt = LocalDateTime.now();
+        }
+        log.info("Storage reconciliation done: {} objects and {} rows scanned, {} orphans ({} quarantined), {} missing, {} failed",
+                objectsScanned.get(), rowsScanned.get(), orphans.get(), quarantined.get(), missing.get(), failed.get());
+    }
+
+    private void reset(boolean quarantine) {
+        objectsScanned.set(0);
+        rowsScanned.set(0);
+        orphans.set(0);
+        missing.set(0);
+        quarantined.set(0);
+        failed.set(0);
+        synchronized (orphanKeys) {
+            orphanKeys.clear();
+        }
+        synchronized (missingFiles) {
+            missingFiles.clear();
+        }
+        throttle = new Throttle(rate);
+        quarantining = quarantine;
+        startedAt = LocalDateTime.now();
+        finishedAt = null;
+    }
+
+    private void scanObjects(boolean quarantine) {
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        try (Stream<String> keys = storage.list()) {
+            Iterator<String> it = keys.iterator();
+            while (it.hasNext() && !Thread.currentThread().isInterrupted()) {
+                throttle.acquire();
+                String key = it.next();
+                if (key.startsWith(QUARANTINE)) continue;
+                objectsScanned.incrementAndGet();
+                batch.add(key);
+                if (batch.size() == BATCH_SIZE) {
+                    checkObjects(batch, quarantine);
+                    batch.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!batch.isEmpty()) checkObjects(batch, quarantine);
+    }
+
+    private void checkObjects(List<String> keys, boolean quarantine) {
+        Set<String> referenced = new HashSet<>();
+        List<String> names = new ArrayList<>();
+        List<String> sha256s = new ArrayList<>();
+        for (String key : keys) {
+            if (ContentAddressedStore.isContentAddressed(key)) {
+                sha256s.add(key.substring(key.lastIndexOf('/') + 1));
+            } else {
+                names.add(key);
+                String alias = layoutAlias(key);
+                if (alias != null) names.add(alias);
+            }
+        }
+        if (!names.isEmpty()) {
+            referenced.addAll(fileRepository.findStoredNamesIn(names));
+            referenced.addAll(pendingDeletions.findStoredNamesIn(names));
+        }
+        if (!sha256s.isEmpty()) {
+            blobRepository.findExisting(sha256s).forEach(sha256 -> referenced.add(ContentAddressedStore.storedName(sha256)));
+        }
+
+        for (String key : keys) {
+            String alias = layoutAlias(key);
+            if (referenced.contains(key) || (alias != null && referenced.contains(alias))) continue;
+            try {
+                throttle.acquire();
+                Optional<StoredObject> object = storage.find(key);
+                if (object.isEmpty()) continue;
+                Instant modified = object.get().lastModified();
+                // may be an upload whose row isn't saved yet
+                if (modified != null && modified.isAfter(Instant.now().minus(grace))) continue;
+                orphans.incrementAndGet();
+                record(orphanKeys, key);
+                log.warn("Orphan object {}: no file refers to it", key);
+                if (quarantine) quarantine(key, object.get());
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+                log.warn("Could not check object {}", key, e);
+            }
+        }
+    }
+
+    private void quarantine(String key, StoredObject object) throws IOException {
+        throttle.acquire();
+        try (InputStream in = object.open()) {
+            storage.put(QUARANTINE + key, in);
+        }
+        storage.delete(key);
+        quarantined.incrementAndGet();
+    }
+
+    private void scanRows() {
+        UUID after = new UUID(0, 0);
+        while (!Thread.currentThread().isInterrupted()) {
+            List<StoredName> batch = fileRepository.findStoredNamesAfter(after, Limit.of(BATCH_SIZE));
+            if (batch.isEmpty()) break;
+            for (StoredName row : batch) {
+                rowsScanned.incrementAndGet();
+                String name = row.getStoredFileName();
+                if (name == null) continue;
+                try {
+                    // a row deleted since the page was read isn't missing anything
+                    if (!exists(name) && fileRepository.existsById(row.getId())) {
+                        missing.incrementAndGet();
+                        record(missingFiles, row.getId().toString());
+                        log.warn("File {} has no stored object {}", row.getId(), name);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    log.warn("Could not check stored object {} of file {}", name, row.getId(), e);
+                }
+            }
+            after = batch.get(batch.size() - 1).getId();
+        }
+    }
+
+    private boolean exists(String name) throws IOException {
+        throttle.acquire();
+        if (storage.find(name).isPresent()) return true;
+        if (!StorageLayout.isFlat(name)) return false;
+        // moved into its shard, the row switches right after
+        throttle.acquire();
+        return storage.find(StorageLayout.sharded(name)).isPresent();
+    }
+
+    // the other name of a key during the layout migration: rows still flat refer to the sharded copy and vice versa
+    private static String layoutAlias(String key) {
+        if (StorageLayout.isFlat(key)) return StorageLayout.sharded(key);
+        String name = key.substring(key.lastIndexOf('/') + 1);
+        return StorageLayout.sharded(name).equals(key) ? name : null;
+    }
+
+    private static void record(List<String> findings, String finding) {
+        synchronized (findings) {
+            if (findings.size() < MAX_FINDINGS) findings.add(finding);
+        }
+    }
+
+    // spaces out operations so that at most `rate` start per second; 0 means unthrottled
+    private static final class Throttle {
+
+        private final long interval;
+        private long next = System.nanoTime();
+
+        Throttle(int rate) {
+            this.interval = rate > 0 ? 1_000_000_000L / rate : 0;
+        }
+
+        void acquire() {
+            if (interval == 0) return;
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (next - now < 0) next = now;
+                wait = next - now;
+                next += interval;
+            }
+            if (wait > 0) LockSupport.parkNanos(wait);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package me.foglio.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import me.foglio.model.File;
+import me.foglio.storage.StoredObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downscaled preview renditions of uploaded images, kept under {@code <storage>/thumbs/<fileId>-<size>.(jpg|png)}.
+ * <p>
+ * Renditions for every configured size are rendered by a bounded worker pool right after upload, and on demand
+ * when a preview asks for one that doesn't exist yet. Each file has at most one render in flight: concurrent
+ * requests for the same file wait for it instead of decoding the original again.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+
+    static final String DIR = "thumbs";
+
+    public record Rendition(Path path, String contentType) {
+    }
+
+    private final FileService fileService;
+    private final Path thumbDir;
+    private final int[] sizes;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<UUID, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    // originals that couldn't be decoded, so previews fall back to them without retrying every request
+    private final Cache<UUID, Boolean> failed = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    public ThumbnailService(FileService fileService,
+                            @Value("${app.files.storage:./files}") String storage,
+                            @Value("${app.files.thumbnails.sizes:256,1024}") int[] sizes,
+                            @Value("${app.files.thumbnails.workers:2}") int workers,
+                            @Value("${app.files.thumbnails.queue-capacity:1000}") int queueCapacity) {
+        this.fileService = fileService;
+        this.thumbDir = Paths.get(storage).resolve(DIR);
+        this.sizes = Arrays.stream(sizes).sorted().distinct().toArray();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("thumbnail-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public boolean isConfiguredSize(int size) {
+        return Arrays.binarySearch(sizes, size) >= 0;
+    }
+
+    public int[] getSizes() {
+        return sizes.clone();
+    }
+
+    /**
+     * Whether an image decoder is available for the file's content type.
+     */
+    public boolean canRender(File file) {
+        String ct = file.getContentType();
+        return ct != null && ct.startsWith("image/") && ImageIO.getImageReadersByMIMEType(ct).hasNext();
+    }
+
+    /**
+     * Returns the rendition of {@code file} for a configured {@code size}, rendering it if needed.
+     *
+     * @return empty if the original can't be decoded
+     */
+    public Optional<Rendition> rendition(File file, int size) {
+        Optional<Rendition> existing = find(file.getId(), size);
+        if (existing.isPresent() || failed.getIfPresent(file.getId()) != null) return existing;
+        renderAll(file);
+        return find(file.getId(), size);
+    }
+
+    @EventListener
+    public void onFileStored(FileStoredEvent event) {
+        File file = event.file();
+        if (!canRender(file)) return;
+        try {
+            executor.execute(() -> renderAll(file));
+        } catch (RejectedExecutionException e) {
+            // the first preview will render it
+            log.debug("Thumbnail queue full, leaving {} to on-demand rendering", file.getId());
+        }
+    }
+
+    @EventListener
+    public void onFileDeleted(FileDeletedEvent event) {
+        UUID id = event.file().getId();
+        failed.invalidate(id);
+        for (int size : sizes) {
+            for (String ext : new String[]{"jpg", "png"}) {
+                try {
+                    Files.deleteIfExists(thumbDir.resolve(id + "-" + size + "." + ext));
+                } catch (IOException e) {
+                    log.warn("Could not delete thumbnail {}-{}.{}", id, size, ext, e);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Optional<Rendition> find(UUID id, int size) {
+        Path jpg = thumbDir.resolve(id + "-" + size + ".jpg");
+        if (Files.exists(jpg)) return Optional.of(new Rendition(jpg, "image/jpeg"));
+        Path png = thumbDir.resolve(id + "-" + size + ".png");
+        if (Files.exists(png)) return Optional.of(new Rendition(png, "image/png"));
+        return Optional.empty();
+    }
+
+    // single flight per file: renders every missing size from one decode of the original
+    void renderAll(File file) {
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> running = inFlight.putIfAbsent(file.getId(), mine);
+        if (running != null) {
+            running.join();
+            return;
+        }
+        try {
+            int[] missing = Arrays.stream(sizes).filter(size -> find(file.getId(), size).isEmpty()).toArray();
+            if (missing.length > 0) render(file, missing);
+        } catch (IOException | RuntimeException e) {
+            failed.put(file.getId(), Boolean.TRUE);
+            log.warn("Could not render thumbnails for {}", file.getId(), e);
+        } finally {
+            inFlight.remove(file.getId(), mine);
+            mine.complete(null);
+        }
+    }
+
+    private void render(File file, int[] missing) throws IOException {
+        StoredObject source = fileService.findContent(file)
+                .map(stored -> CompressionPolicy.decoded(stored, file))
+                .orElseThrow(() -> new IOException("Original of " + file.getId() + " is missing"));
+        BufferedImage image;
+        // local originals are decoded with random access, anything else is read through once
+        try (InputStream raw = source.isWholeFile() ? null : source.open();
+             ImageInputStream in = raw == null ? ImageIO.createImageInputStream(source.file().orElseThrow().toFile())
+                     : new MemoryCacheImageInputStream(raw)) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) throw new IOException("No image decoder for " + file.getId());
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                // decode at no less than twice the largest rendition, so a 24MP photo never lands on the heap
+                int step = Math.max(1, longest / (missing[missing.length - 1] * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        Files.createDirectories(thumbDir);
+        boolean alpha = image.getColorModel().hasAlpha();
+        String format = alpha ? "png" : "jpg";
+        for (int size : missing) {
+            Path target = thumbDir.resolve(file.getId() + "-" + size + "." + format);
+            Path tmp = thumbDir.resolve("." + UUID.randomUUID() + ".tmp");
+            try {
+                if (!ImageIO.write(scale(image, size, alpha), format, tmp.toFile())) {
+                    throw new IOException("No image encoder for " + format);
+                }
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    static BufferedImage scale(BufferedImage source, int maxEdge, boolean alpha) {
+        double factor = Math.min(1.0, (double) maxEdge / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+        BufferedImage scaled = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,181 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import me.foglio.storage.StoredObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Moves stored file bytes to the client.
+ * <p>
+ * In {@code sendfile} mode a single region is handed to the servlet container's native sendfile support
+ * (Tomcat performs {@code FileChannel.transferTo} straight into the socket once the handler returns).
+ * When the container can't do that, or the body is multipart, bytes go through {@code FileChannel.transferTo}
+ * into the response output channel in {@code chunk-size} steps; {@code heap} mode copies through a plain buffer.
+ * Objects held in memory (see {@link HotObjectCache}) are written straight from their buffer; objects that aren't
+ * in a local file (remote storage backends) are always copied through a buffer.
+ */
+@Component
+public class TransferEngine {
+
+    public enum Mode { SENDFILE, CHANNEL, HEAP }
+
+    // Tomcat request attributes, see org.apache.coyote.Constants
+    static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    private final Mode mode;
+    private final long chunkSize;
+    private final int bufferSize;
+    private final long sendfileThreshold;
+    private final Counter sendfileHandoffBytes;
+    private final Counter channelBytes;
+    private final Counter heapBytes;
+    private final Counter streamBytes;
+    private final Counter memoryBytes;
+
+    public TransferEngine(MeterRegistry meterRegistry,
+                          @Value("${app.files.transfer.mode:sendfile}") Mode mode,
+                          @Value("${app.files.transfer.chunk-size:8MB}") DataSize chunkSize,
+                          @Value("${app.files.transfer.buffer-size:64KB}") DataSize bufferSize,
+                          @Value("${app.files.transfer.sendfile-threshold:48KB}") DataSize sendfileThreshold) {
+        this.mode = mode;
+        this.chunkSize = Math.max(chunkSize.toBytes(), 1);
+        this.bufferSize = (int) Math.max(bufferSize.toBytes(), 1024);
+        this.sendfileThreshold = sendfileThreshold.toBytes();
+        // not a foglio.transfer.bytes engine: the container sends these after the handler returns, and may not finish
+        this.sendfileHandoffBytes = Counter.builder("foglio.transfer.sendfile.bytes")
+                .description("File body bytes handed to the container's sendfile, counted before it sends them")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.channelBytes = transferCounter(meterRegistry, "channel");
+        this.heapBytes = transferCounter(meterRegistry, "heap");
+        this.streamBytes = transferCounter(meterRegistry, "stream");
+        this.memoryBytes = transferCounter(meterRegistry, "memory");
+    }
+
+    static Counter transferCounter(MeterRegistry registry, String engine) {
+        return Counter.builder("foglio.transfer.bytes")
+                .description("File body bytes sent to clients")
+                .baseUnit("bytes")
+                .tag("engine", engine)
+                .register(registry);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sends one contiguous region of a stored object as the whole response body.
+     * Headers, status and content length must already be set.
+     */
+    public void transfer(StoredObject object, long position, long count,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (object.file().isPresent()) {
+            transfer(object.file().get(), object.fileOffset() + position, count, request, response);
+            return;
+        }
+        copy(object, position, count, response.getOutputStream());
+    }
+
+    /**
+     * Sends one contiguous region of {@code path} as the whole response body.
+     * Headers, status and content length must already be set.
+     */
+    public void transfer(Path path, long position, long count,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (mode == Mode.SENDFILE && count >= sendfileThreshold
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, position);
+            request.setAttribute(SENDFILE_END_ATTR, position + count);
+            sendfileHandoffBytes.increment(count);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            copy(channel, position, count, response.getOutputStream());
+        }
+    }
+
+    /**
+     * Copies a region of an open channel into {@code out}, used for multipart bodies and as the sendfile fallback.
+     */
+    public void copy(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+        if (mode == Mode.HEAP) {
+            copyThroughHeap(channel, position, count, out);
+            return;
+        }
+        WritableByteChannel target = Channels.newChannel(out);
+        long remaining = count;
+        while (remaining > 0) {
+            long sent = channel.transferTo(position, Math.min(chunkSize, remaining), target);
+            if (sent <= 0) throw new EOFException("File truncated at position " + position);
+            position += sent;
+            remaining -= sent;
+            channelBytes.increment(sent);
+        }
+    }
+
+    /**
+     * Copies a region of a stored object into {@code out}.
+     */
+    public void copy(StoredObject object, long position, long count, OutputStream out) throws IOException {
+        if (object.file().isPresent()) {
+            try (FileChannel channel = FileChannel.open(object.file().get(), StandardOpenOption.READ)) {
+                copy(channel, object.fileOffset() + position, count, out);
+            }
+            return;
+        }
+        if (object.buffer().isPresent()) {
+            ByteBuffer region = object.buffer().get().slice((int) position, (int) count);
+            WritableByteChannel target = Channels.newChannel(out);
+            while (region.hasRemaining()) target.write(region);
+            memoryBytes.increment(count);
+            return;
+        }
+        try (InputStream in = object.open(position, count)) {
+            byte[] buffer = new byte[(int) Math.min(bufferSize, Math.max(count, 1))];
+            long remaining = count;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) throw new EOFException("Object truncated at position " + (position + count - remaining));
+                out.write(buffer, 0, read);
+                remaining -= read;
+                streamBytes.increment(read);
+            }
+        }
+    }
+
+    private void copyThroughHeap(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(bufferSize, Math.max(count, 1))];
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        long remaining = count;
+        while (remaining > 0) {
+            bb.clear().limit((int) Math.min(buffer.length, remaining));
+            int read = channel.read(bb, position);
+            if (read < 0) throw new EOFException("File truncated at position " + position);
+            out.write(buffer, 0, read);
+            position += read;
+            remaining -= read;
+            heapBytes.increment(read);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package me.foglio.service;
+
+import me.foglio.model.File;
+import me.foglio.model.UploadChunk;
+import me.foglio.model.UploadSession;
+import me.foglio.model.User;
+import me.foglio.repository.UploadChunkRepository;
+import me.foglio.repository.UploadSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Resumable uploads: a session preallocates {@code <storage>/.uploads/<id>.part} to the declared size, numbered
+ * chunks are written in place at their offset (concurrently and in any order), and completing the session renames
+ * the part file into storage as a regular {@link File}.
+ * <p>
+ * Received chunks are rows of {@code upload_chunks}, inserted only after the chunk's bytes are on disk, so the set
+ * of received chunks survives restarts and concurrent writers never race on shared state.
+ */
+@Service
+public class UploadSessionService {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadSessionService.class);
+
+    static final String DIR = ".uploads";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_CHUNK_SIZE = 256 * 1024;
+    private static final long MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private final UploadSessionRepository sessionRepository;
+    private final UploadChunkRepository chunkRepository;
+    private final FileService fileService;
+    private final Path uploadsDir;
+    private final long defaultChunkSize;
+    private final Duration ttl;
+    private final Duration completeTimeout;
+
+    public UploadSessionService(UploadSessionRepository sessionRepository,
+                                UploadChunkRepository chunkRepository,
+                                FileService fileService,
+                                @Value("${app.files.storage:./files}") String storage,
+                                @Value("${app.files.uploads.chunk-size:8MB}") DataSize defaultChunkSize,
+                                @Value("${app.files.uploads.session-ttl:24h}") Duration ttl,
+                                @Value("${app.files.uploads.complete-timeout:1h}") Duration completeTimeout) {
+        this.sessionRepository = sessionRepository;
+        this.chunkRepository = chunkRepository;
+        this.fileService = fileService;
+        this.uploadsDir = Paths.get(storage).resolve(DIR);
+        this.defaultChunkSize = defaultChunkSize.toBytes();
+        this.ttl = ttl;
+        this.completeTimeout = completeTimeout;
+    }
+
+    public UploadSession create(User owner, String originalName, String contentType, boolean isPublic,
+                                long size, Long chunkSize) {
+        if (size < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must not be negative");
+        }
+        if (size > fileService.getMaxFileSize()) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "File exceeds " + fileService.getMaxFileSize() + " bytes");
+        }
+        long chunk = chunkSize != null ? chunkSize : defaultChunkSize;
+        if (chunk < MIN_CHUNK_SIZE || chunk > MAX_CHUNK_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "chunkSize must be between " + MIN_CHUNK_SIZE + " and " + MAX_CHUNK_SIZE + " bytes");
+        }
+
+        UploadSession session = UploadSession.builder()
+                .id(UUID.randomUUID())
+                .owner(owner)
+                .originalName(originalName)
+                .contentType(contentType)
+                .isPublic(isPublic)
+                .size(size)
+                .chunkSize(chunk)
+                .createdAt(LocalDateTime.now())
+                .expiresAt(LocalDateTime.now().plus(ttl))
+                .build();
+        try {
+            Files.createDirectories(uploadsDir);
+            // sparse where the file system allows it; chunks fill it in place
+            try (RandomAccessFile part = new RandomAccessFile(partFile(session.getId()).toFile(), "rw")) {
+                part.setLength(size);
+            }
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not allocate upload", e);
+        }
+        return sessionRepository.save(session);
+    }
+
+    public UploadSession get(UUID id, User owner) {
+        UploadSession session = sessionRepository.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        if (session.getOwner() == null || !session.getOwner().getId().equals(owner.getId())) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        return session;
+    }
+
+    public List<Integer> receivedChunks(UUID sessionId) {
+        return chunkRepository.findReceivedIndexes(sessionId);
+    }
+
+    /**
+     * Writes chunk {@code index} at its offset in the partial file. Chunks that were already received are
+     * acknowledged without rewriting them, so retries after a lost response are harmless.
+     */
+    public void writeChunk(UUID id, User owner, int index, InputStream body) {
+        UploadSession session = get(id, owner);
+        if (session.getState() != UploadSession.State.OPEN) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is being completed");
+        }
+        if (index < 0 || index >= session.chunkCount()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Chunk index out of range");
+        }
+        if (chunkRepository.existsById(new UploadChunk.Key(id, index))) return;
+
+        long offset = session.chunkOffset(index);
+        long expected = session.chunkLength(index);
+        try (FileChannel channel = FileChannel.open(partFile(id), StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            long written = 0;
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                if (written + read > expected) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Chunk " + index + " must be " + expected + " bytes");
+                }
+                bb.clear().limit(read);
+                while (bb.hasRemaining()) {
+                    written += channel.write(bb, offset + written);
+                }
+            }
+            if (written != expected) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Chunk " + index + " must be " + expected + " bytes");
+            }
+            // the chunk row is the durable "received" mark, so the bytes must be on disk first
+            channel.force(false);
+        } catch (NoSuchFileException e) {
+            // completed or aborted meanwhile
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not write chunk", e);
+        }
+
+        try {
+            chunkRepository.save(UploadChunk.builder().sessionId(id).chunkIndex(index).build());
+        } catch (DataIntegrityViolationException e) {
+            // a concurrent retry of the same chunk recorded it first
+        }
+    }
+
+    /**
+     * Completes the session: checks every chunk arrived, digests the part file and renames it into storage.
+     * <p>
+     * Until the part file is handed to {@link FileService#adopt} a failure reopens the session so it can be retried.
+     * Adopting moves or deletes the part file, so from then on the session is discarded whatever the outcome.
+     */
+    public File complete(UUID id, User owner) {
+        UploadSession session = get(id, owner);
+        if (!claim(session)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already being completed");
+        }
+        Path part = partFile(id);
+        String sha256;
+        try {
+            long received = chunkRepository.countBySessionId(id);
+            if (received != session.chunkCount()) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT,
+                        "Missing " + (session.chunkCount() - received) + " of " + session.chunkCount() + " chunks");
+            }
+            sha256 = digest(part);
+        } catch (IOException e) {
+            sessionRepository.transition(id, UploadSession.State.COMPLETING, UploadSession.State.OPEN);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not complete upload", e);
+        } catch (RuntimeException e) {
+            sessionRepository.transition(id, UploadSession.State.COMPLETING, UploadSession.State.OPEN);
+            throw e;
+        }
+        try {
+            return fileService.adopt(part, session.getOriginalName(), session.getContentType(), session.getOwner(),
+                    Boolean.TRUE.equals(session.getIsPublic()), session.getSize(), sha256);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not complete upload", e);
+        } finally {
+            discard(session);
+        }
+    }
+
+    public void abort(UUID id, User owner) {
+        UploadSession session = get(id, owner);
+        if (!claim(session)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is being completed");
+        }
+        discard(session);
+    }
+
+    /**
+     * Discards expired sessions, and sessions whose complete() claimed them longer than
+     * {@code app.files.uploads.complete-timeout} ago: that complete() died with its JVM, possibly after the part
+     * file was adopted, so the session cannot be reopened.
+     */
+    @Scheduled(fixedDelayString = "${app.files.uploads.cleanup-interval:1h}")
+    public void deleteExpired() {
+        LocalDateTime now = LocalDateTime.now();
+        for (UploadSession session : sessionRepository.findByExpiresAtBefore(now)) {
+            // one being completed is left to complete(), which discards it or reopens it
+            if (!claim(session)) continue;
+            log.info("Discarding expired upload session {}", session.getId());
+            discard(session);
+        }
+        LocalDateTime cutoff = now.minus(completeTimeout);
+        for (UploadSession session : sessionRepository.findClaimedBefore(cutoff)) {
+            if (sessionRepository.reclaim(session.getId(), cutoff, now) == 0) continue;
+            log.warn("Discarding upload session {} left completing since {}", session.getId(), session.getClaimedAt());
+            discard(session);
+        }
+    }
+
+    // takes an open session away from chunk writes and every other claimer
+    private boolean claim(UploadSession session) {
+        return sessionRepository.claim(session.getId(), LocalDateTime.now()) == 1;
+    }
+
+    private void discard(UploadSession session) {
+        try {
+            Files.deleteIfExists(partFile(session.getId()));
+        } catch (IOException e) {
+            log.warn("Could not delete partial upload {}", session.getId(), e);
+        }
+        chunkRepository.deleteBySessionId(session.getId());
+        sessionRepository.deleteById(session.getId());
+    }
+
+    Path partFile(UUID id) {
+        return uploadsDir.resolve(id + ".part");
+    }
+
+    private static String digest(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -2,6 +2,8 @@ package me.foglio.service;
 
 import me.foglio.model.User;
 import me.foglio.repository.UserRepository;
+import me.foglio.security.ApiKeyChangedEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
@@ -11,16 +13,21 @@ import java.util.UUID;
 public class UserService {
 
     private final UserRepository userRepository;
+    private final ApplicationEventPublisher eventPublisher;
 
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository, ApplicationEventPublisher eventPublisher) {
         this.userRepository = userRepository;
+        this.eventPublisher = eventPublisher;
     }
 
     public User registerUser(String name) {
         User u = new User();
         u.setName(name);
         u.setApiKey(UUID.randomUUID());
-        return userRepository.save(u);
+        User saved = userRepository.save(u);
+        // drop a cached "unknown key" answer for the new key
+        eventPublisher.publishEvent(new ApiKeyChangedEvent(saved.getApiKey()));
+        return saved;
     }
 
     public Optional<User> findByApiKey(UUID key) {
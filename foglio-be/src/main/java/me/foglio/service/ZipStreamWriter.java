@@ -0,0 +1,337 @@
+package me.foglio.service;
+
+import me.foglio.storage.StoredObject;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a ZIP archive front to back, without seeking: each entry's CRC and sizes follow its data in a data
+ * descriptor, and ZIP64 records are added only where sizes, offsets or the entry count outgrow the classic fields.
+ * Besides two 64KB buffers only the central directory, a few dozen bytes per entry, is held in memory.
+ * <p>
+ * The layout depends on names and sizes alone, so {@link #length} can tell the size of an archive of stored
+ * entries before it is written. Readers that go by the central directory (unzip, 7-Zip, {@code java.util.zip.ZipFile},
+ * the desktop file managers) accept stored entries with data descriptors; a few strictly streaming readers, such as
+ * {@code ZipInputStream}, refuse them.
+ */
+final class ZipStreamWriter {
+
+    /**
+     * One file of the archive; {@code size} is the number of bytes {@code content} yields.
+     */
+    record Entry(String name, boolean deflate, long size, LocalDateTime modified, StoredObject content) {
+    }
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    // data descriptor follows the data, names are UTF-8
+    private static final int FLAGS = 0x0808;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    // made by Unix, so the external attributes below are read as a mode
+    private static final int MADE_BY_UNIX = 3 << 8;
+    private static final int REGULAR_FILE_644 = 0100644 << 16;
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+    // deflate can slightly expand incompressible input, so ZIP64 is declared a little early for deflated entries
+    private static final long DEFLATE_ZIP64_SIZE = MAX_32 - (MAX_32 >>> 8);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private record Written(byte[] name, boolean deflate, boolean zip64, long crc, long compressedSize, long size,
+                           int dosTime, int dosDate, long offset) {
+    }
+
+    private ZipStreamWriter() {
+    }
+
+    /**
+     * Exact byte length of the archive {@link #write} produces for {@code entries}, all of which must be stored.
+     */
+    static long length(List<Entry> entries) {
+        long offset = 0;
+        long centralDirectory = 0;
+        for (Entry entry : entries) {
+            if (entry.deflate()) throw new IllegalArgumentException("Length of deflated entries is only known once written");
+            int name = nameBytes(entry).length;
+            boolean zip64 = isZip64(entry);
+            centralDirectory += centralHeaderLength(name, zip64, offset);
+            offset += localHeaderLength(name, zip64) + entry.size() + descriptorLength(zip64);
+        }
+        return offset + centralDirectory + endLength(entries.size(), offset, centralDirectory);
+    }
+
+    /**
+     * Writes the archive into {@code out}, reading each entry's content once. {@code out} is not closed.
+     *
+     * @param level deflate level of the deflated entries
+     */
+    static void write(List<Entry> entries, int level, OutputStream out) throws IOException {
+        // headers go out a field at a time; entry data is written in buffer-sized blocks and passes straight through
+        Counting counted = new Counting(new BufferedOutputStream(out, BUFFER_SIZE));
+        List<Written> written = new ArrayList<>(entries.size());
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Deflater deflater = new Deflater(level, true);
+        try {
+            for (Entry entry : entries) {
+                byte[] name = nameBytes(entry);
+                boolean zip64 = isZip64(entry);
+                long offset = counted.count;
+                int dosTime = dosTime(entry.modified());
+                int dosDate = dosDate(entry.modified());
+                writeLocalHeader(counted, name, entry.deflate(), zip64, dosTime, dosDate);
+
+                CRC32 crc = new CRC32();
+                long dataStart = counted.count;
+                try (InputStream in = entry.content().open()) {
+                    if (entry.deflate()) {
+                        deflater.reset();
+                        DeflaterOutputStream deflating = new DeflaterOutputStream(new NonClosing(counted), deflater, BUFFER_SIZE);
+                        copy(in, entry, crc, deflating, buffer);
+                        deflating.finish();
+                    } else {
+                        copy(in, entry, crc, counted, buffer);
+                    }
+                }
+                long compressedSize = counted.count - dataStart;
+                writeDescriptor(counted, zip64, crc.getValue(), compressedSize, entry.size());
+                written.add(new Written(name, entry.deflate(), zip64, crc.getValue(), compressedSize, entry.size(),
+                        dosTime, dosDate, offset));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        long centralDirectoryOffset = counted.count;
+        for (Written entry : written) writeCentralHeader(counted, entry);
+        writeEnd(counted, written.size(), centralDirectoryOffset, counted.count - centralDirectoryOffset);
+        counted.flush();
+    }
+
+    // exactly entry.size() bytes, so a precomputed length holds
+    private static void copy(InputStream in, Entry entry, CRC32 crc, OutputStream out, byte[] buffer) throws IOException {
+        long remaining = entry.size();
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) throw new EOFException(entry.name() + " ended " + remaining + " bytes early");
+            crc.update(buffer, 0, read);
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        if (in.read() >= 0) throw new IOException(entry.name() + " is longer than " + entry.size() + " bytes");
+    }
+
+    private static boolean isZip64(Entry entry) {
+        return entry.size() >= (entry.deflate() ? DEFLATE_ZIP64_SIZE : MAX_32);
+    }
+
+    private static byte[] nameBytes(Entry entry) {
+        return entry.name().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int localHeaderLength(int name, boolean zip64) {
+        return 30 + name + (zip64 ? 20 : 0);
+    }
+
+    private static int descriptorLength(boolean zip64) {
+        return zip64 ? 24 : 16;
+    }
+
+    private static int centralHeaderLength(int name, boolean zip64, long offset) {
+        return 46 + name + centralExtraLength(zip64, offset);
+    }
+
+    // ZIP64 extra field of a central header: the sizes if they overflowed, then the offset if it did
+    private static int centralExtraLength(boolean zip64, long offset) {
+        int fields = (zip64 ? 2 : 0) + (offset >= MAX_32 ? 1 : 0);
+        return fields == 0 ? 0 : 4 + 8 * fields;
+    }
+
+    private static boolean needsZip64End(int entries, long centralDirectoryOffset, long centralDirectorySize) {
+        return entries >= MAX_16 || centralDirectoryOffset >= MAX_32 || centralDirectorySize >= MAX_32;
+    }
+
+    private static int endLength(int entries, long centralDirectoryOffset, long centralDirectorySize) {
+        return (needsZip64End(entries, centralDirectoryOffset, centralDirectorySize) ? 56 + 20 : 0) + 22;
+    }
+
+    private static void writeLocalHeader(Counting out, byte[] name, boolean deflate, boolean zip64,
+                                         int dosTime, int dosDate) throws IOException {
+        writeInt(out, LOCAL_HEADER);
+        writeShort(out, zip64 ? VERSION_ZIP64 : VERSION);
+        writeShort(out, FLAGS);
+        writeShort(out, deflate ? DEFLATED : STORED);
+        writeShort(out, dosTime);
+        writeShort(out, dosDate);
+        // CRC and sizes come in the data descriptor
+        writeInt(out, 0);
+        writeInt(out, zip64 ? (int) MAX_32 : 0);
+        writeInt(out, zip64 ? (int) MAX_32 : 0);
+        writeShort(out, name.length);
+        writeShort(out, zip64 ? 20 : 0);
+        out.write(name);
+        if (zip64) {
+            writeShort(out, 0x0001);
+            writeShort(out, 16);
+            writeLong(out, 0);
+            writeLong(out, 0);
+        }
+    }
+
+    private static void writeDescriptor(Counting out, boolean zip64, long crc, long compressedSize, long size) throws IOException {
+        writeInt(out, DATA_DESCRIPTOR);
+        writeInt(out, (int) crc);
+        if (zip64) {
+            writeLong(out, compressedSize);
+            writeLong(out, size);
+        } else {
+            writeInt(out, (int) compressedSize);
+            writeInt(out, (int) size);
+        }
+    }
+
+    private static void writeCentralHeader(Counting out, Written entry) throws IOException {
+        boolean largeOffset = entry.offset() >= MAX_32;
+        writeInt(out, CENTRAL_HEADER);
+        writeShort(out, MADE_BY_UNIX | VERSION_ZIP64);
+        writeShort(out, entry.zip64() || largeOffset ? VERSION_ZIP64 : VERSION);
+        writeShort(out, FLAGS);
+        writeShort(out, entry.deflate() ? DEFLATED : STORED);
+        writeShort(out, entry.dosTime());
+        writeShort(out, entry.dosDate());
+        writeInt(out, (int) entry.crc());
+        writeInt(out, entry.zip64() ? (int) MAX_32 : (int) entry.compressedSize());
+        writeInt(out, entry.zip64() ? (int) MAX_32 : (int) entry.size());
+        writeShort(out, entry.name().length);
+        writeShort(out, centralExtraLength(entry.zip64(), entry.offset()));
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeInt(out, REGULAR_FILE_644);
+        writeInt(out, largeOffset ? (int) MAX_32 : (int) entry.offset());
+        out.write(entry.name());
+        if (entry.zip64() || largeOffset) {
+            writeShort(out, 0x0001);
+            writeShort(out, centralExtraLength(entry.zip64(), entry.offset()) - 4);
+            if (entry.zip64()) {
+                writeLong(out, entry.size());
+                writeLong(out, entry.compressedSize());
+            }
+            if (largeOffset) writeLong(out, entry.offset());
+        }
+    }
+
+    private static void writeEnd(Counting out, int entries, long centralDirectoryOffset, long centralDirectorySize) throws IOException {
+        boolean zip64 = needsZip64End(entries, centralDirectoryOffset, centralDirectorySize);
+        if (zip64) {
+            long zip64EndOffset = out.count;
+            writeInt(out, ZIP64_END);
+            writeLong(out, 44);
+            writeShort(out, MADE_BY_UNIX | VERSION_ZIP64);
+            writeShort(out, VERSION_ZIP64);
+            writeInt(out, 0);
+            writeInt(out, 0);
+            writeLong(out, entries);
+            writeLong(out, entries);
+            writeLong(out, centralDirectorySize);
+            writeLong(out, centralDirectoryOffset);
+
+            writeInt(out, ZIP64_LOCATOR);
+            writeInt(out, 0);
+            writeLong(out, zip64EndOffset);
+            writeInt(out, 1);
+        }
+        writeInt(out, END);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, Math.min(entries, MAX_16));
+        writeShort(out, Math.min(entries, MAX_16));
+        writeInt(out, (int) Math.min(centralDirectorySize, MAX_32));
+        writeInt(out, (int) Math.min(centralDirectoryOffset, MAX_32));
+        writeShort(out, 0);
+    }
+
+    // MS-DOS date and time as stored in ZIP headers, local time with two-second resolution
+    private static int dosTime(LocalDateTime t) {
+        if (t == null || t.getYear() < 1980) return 0;
+        return t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+
+    private static int dosDate(LocalDateTime t) {
+        if (t == null || t.getYear() < 1980) return 1 << 5 | 1;
+        return Math.min(t.getYear() - 1980, 127) << 9 | t.getMonthValue() << 5 | t.getDayOfMonth();
+    }
+
+    private static void writeShort(OutputStream out, int v) throws IOException {
+        out.write(v & 0xff);
+        out.write(v >>> 8 & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, int v) throws IOException {
+        writeShort(out, v & 0xffff);
+        writeShort(out, v >>> 16);
+    }
+
+    private static void writeLong(OutputStream out, long v) throws IOException {
+        writeInt(out, (int) v);
+        writeInt(out, (int) (v >>> 32));
+    }
+
+    private static final class Counting extends FilterOutputStream {
+
+        private long count;
+
+        Counting(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    // lets a DeflaterOutputStream be finished per entry without closing the archive underneath
+    private static final class NonClosing extends FilterOutputStream {
+
+        NonClosing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
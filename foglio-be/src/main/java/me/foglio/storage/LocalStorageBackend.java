@@ -0,0 +1,117 @@
+package me.foglio.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Objects as plain files under the storage root, one file per key.
+ */
+@Component
+@ConditionalOnProperty(name = "app.files.backend", havingValue = "local", matchIfMissing = true)
+public class LocalStorageBackend implements StorageBackend {
+
+    private static final Set<String> RESERVED = Set.of("thumbs", PackedStorageBackend.DIR);
+
+    private final Path root;
+    private final int bufferSize;
+
+    public LocalStorageBackend(@Value("${app.files.storage:./files}") String root,
+                               @Value("${app.files.backend.local.buffer-size:64KB}") DataSize bufferSize) {
+        this.root = Paths.get(root);
+        this.bufferSize = (int) Math.max(bufferSize.toBytes(), 1024);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create upload dir", e);
+        }
+    }
+
+    public Path resolve(String key) {
+        return root.resolve(key);
+    }
+
+    @Override
+    public long put(String key, InputStream content) throws IOException {
+        Path path = resolve(key);
+        Files.createDirectories(path.getParent());
+        long size = 0;
+        boolean complete = false;
+        try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[bufferSize];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                size += read;
+            }
+            complete = true;
+        } finally {
+            if (!complete) Files.deleteIfExists(path);
+        }
+        return size;
+    }
+
+    @Override
+    public void putFile(String key, Path source) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        // same file system as the staging areas, so this is a rename
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public Optional<StoredObject> find(String key) throws IOException {
+        Path path = resolve(key);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return Optional.of(StoredObject.ofFile(path, attributes));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public InputStream open(String key, long offset, long length) throws IOException {
+        return find(key).orElseThrow(() -> new NoSuchFileException(key)).open(offset, length);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public Stream<String> list() throws IOException {
+        if (!Files.isDirectory(root)) return Stream.empty();
+        return Files.walk(root)
+                .filter(path -> !path.equals(root) && !isReserved(root.relativize(path).getName(0).toString()))
+                .filter(Files::isRegularFile)
+                .map(path -> root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/"));
+    }
+
+    // top-level entries that aren't objects: staging areas (hidden), thumbnails and packs
+    private static boolean isReserved(String topLevel) {
+        return topLevel.startsWith(".") || RESERVED.contains(topLevel);
+    }
+}
@@ -0,0 +1,215 @@
+package me.foglio.storage;
+
+import jakarta.annotation.PreDestroy;
+import me.foglio.model.PackedObject;
+import me.foglio.repository.PackedObjectRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Packs small objects into large append-only files under {@code <storage>/packs}, so thumbnails-sized uploads
+ * don't cost an inode, a directory entry and a file open each; larger objects are stored as plain files by a
+ * {@link LocalStorageBackend} on the same root.
+ * <p>
+ * Where each packed object lives is a {@code packed_objects} row, written after its bytes are appended. Space isn't
+ * compacted: a pack file is removed once it is no longer being appended to and its last object has been deleted.
+ */
+@Component
+@ConditionalOnProperty(name = "app.files.backend", havingValue = "packed")
+public class PackedStorageBackend implements StorageBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(PackedStorageBackend.class);
+
+    static final String DIR = "packs";
+    private static final Pattern PACK_NAME = Pattern.compile("pack-(\\d+)\\.dat");
+    private static final int LIST_PAGE = 1000;
+
+    private final PackedObjectRepository index;
+    private final LocalStorageBackend files;
+    private final Path packDir;
+    private final int maxObjectSize;
+    private final long packSize;
+
+    // guards the active pack; held only for the append itself, never across JDBC calls
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // appends whose index row isn't committed yet, per pack: such packs must not be reclaimed
+    private final Map<Integer, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private FileChannel active;
+    private int activePack = -1;
+
+    public PackedStorageBackend(PackedObjectRepository index,
+                                @Value("${app.files.storage:./files}") String root,
+                                @Value("${app.files.backend.local.buffer-size:64KB}") DataSize bufferSize,
+                                @Value("${app.files.backend.packed.max-object-size:64KB}") DataSize maxObjectSize,
+                                @Value("${app.files.backend.packed.pack-size:256MB}") DataSize packSize) {
+        this.index = index;
+        this.files = new LocalStorageBackend(root, bufferSize);
+        this.packDir = Paths.get(root).resolve(DIR);
+        this.maxObjectSize = (int) Math.min(maxObjectSize.toBytes(), Integer.MAX_VALUE - 1);
+        this.packSize = packSize.toBytes();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            if (active != null) active.close();
+            active = null;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public long put(String key, InputStream content) throws IOException {
+        byte[] head = content.readNBytes(maxObjectSize + 1);
+        if (head.length > maxObjectSize) {
+            return files.put(key, new SequenceInputStream(new ByteArrayInputStream(head), content));
+        }
+        append(key, head);
+        return head.length;
+    }
+
+    @Override
+    public void putFile(String key, Path source) throws IOException {
+        if (Files.size(source) > maxObjectSize) {
+            files.putFile(key, source);
+            return;
+        }
+        append(key, Files.readAllBytes(source));
+        Files.delete(source);
+    }
+
+    @Override
+    public Optional<StoredObject> find(String key) throws IOException {
+        Optional<PackedObject> packed = index.findById(key);
+        if (packed.isEmpty()) return files.find(key);
+        PackedObject object = packed.get();
+        return Optional.of(StoredObject.ofRegion(packPath(object.getPack()), object.getOffset(), object.getSize(),
+                object.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant()));
+    }
+
+    @Override
+    public InputStream open(String key, long offset, long length) throws IOException {
+        return find(key).orElseThrow(() -> new NoSuchFileException(key)).open(offset, length);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Optional<PackedObject> packed = index.findById(key);
+        if (packed.isEmpty()) {
+            files.delete(key);
+            return;
+        }
+        index.deleteById(key);
+        reclaim(packed.get().getPack());
+    }
+
+    @Override
+    public Stream<String> list() throws IOException {
+        Stream<String> packed = Stream.iterate(index.findKeysAfter("", Limit.of(LIST_PAGE)),
+                        page -> !page.isEmpty(),
+                        page -> page.size() < LIST_PAGE ? List.of() : index.findKeysAfter(page.get(page.size() - 1), Limit.of(LIST_PAGE)))
+                .flatMap(List::stream);
+        return Stream.concat(packed, files.list());
+    }
+
+    private void append(String key, byte[] bytes) throws IOException {
+        int pack;
+        long offset;
+        appendLock.lock();
+        try {
+            FileChannel channel = activeFor(bytes.length);
+            pack = activePack;
+            offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            pending.computeIfAbsent(pack, p -> new AtomicInteger()).incrementAndGet();
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            // bytes appended before a failed save are dead space, reclaimed with the pack
+            index.save(PackedObject.builder().key(key).pack(pack).offset(offset).size((long) bytes.length).build());
+        } finally {
+            pending.get(pack).decrementAndGet();
+        }
+    }
+
+    // the pack to append `length` bytes to, rolling over to a new one when the current one is full
+    private FileChannel activeFor(int length) throws IOException {
+        if (active == null) {
+            Files.createDirectories(packDir);
+            activePack = lastPack();
+            if (activePack < 0) activePack = 0;
+            active = FileChannel.open(packPath(activePack), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        if (active.size() > 0 && active.size() + length > packSize) {
+            active.close();
+            activePack++;
+            active = FileChannel.open(packPath(activePack), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+        return active;
+    }
+
+    private int lastPack() throws IOException {
+        try (Stream<Path> packs = Files.list(packDir)) {
+            return packs.map(p -> PACK_NAME.matcher(p.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .mapToInt(m -> Integer.parseInt(m.group(1)))
+                    .max()
+                    .orElse(-1);
+        }
+    }
+
+    private void reclaim(int pack) {
+        appendLock.lock();
+        try {
+            AtomicInteger inFlight = pending.get(pack);
+            if (pack == activePack || (inFlight != null && inFlight.get() > 0)) return;
+        } finally {
+            appendLock.unlock();
+        }
+        // neither active nor awaiting an index row: nothing can be added to this pack any more
+        if (index.countByPack(pack) > 0) return;
+        try {
+            Files.deleteIfExists(packPath(pack));
+            pending.remove(pack);
+        } catch (IOException e) {
+            log.warn("Could not delete empty pack {}", pack, e);
+        }
+    }
+
+    Path packPath(int pack) {
+        return packDir.resolve(String.format("pack-%06d.dat", pack));
+    }
+}
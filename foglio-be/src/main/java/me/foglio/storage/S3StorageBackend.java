@@ -0,0 +1,355 @@
+package me.foglio.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Objects in an S3-compatible bucket (AWS S3, MinIO, Ceph RGW, ...), over the JDK HTTP client with SigV4 signing.
+ * <p>
+ * Uploads are read in {@code part-size} buffers: bodies that fit in one buffer are a single {@code PutObject},
+ * longer ones a multipart upload sending one part per buffer, aborted if anything fails. At most
+ * {@code max-connections} requests are in flight; a download holds its slot until its stream is closed.
+ */
+@Component
+@ConditionalOnProperty(name = "app.files.backend", havingValue = "s3")
+public class S3StorageBackend implements StorageBackend {
+
+    // S3 rejects smaller parts other than the last one
+    static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+    private static final Pattern LIST_KEY = Pattern.compile("<Key>([^<]*)</Key>");
+    private static final Pattern NEXT_TOKEN = Pattern.compile("<NextContinuationToken>([^<]+)</NextContinuationToken>");
+
+    private final HttpClient http;
+    private final S3RequestSigner signer;
+    private final URI endpoint;
+    private final String bucket;
+    private final String prefix;
+    private final boolean pathStyle;
+    private final int partSize;
+    private final Duration requestTimeout;
+    private final Semaphore connections;
+
+    public S3StorageBackend(@Value("${app.files.backend.s3.endpoint}") URI endpoint,
+                            @Value("${app.files.backend.s3.region:us-east-1}") String region,
+                            @Value("${app.files.backend.s3.bucket}") String bucket,
+                            @Value("${app.files.backend.s3.prefix:}") String prefix,
+                            @Value("${app.files.backend.s3.access-key}") String accessKey,
+                            @Value("${app.files.backend.s3.secret-key}") String secretKey,
+                            @Value("${app.files.backend.s3.path-style:true}") boolean pathStyle,
+                            @Value("${app.files.backend.s3.part-size:8MB}") DataSize partSize,
+                            @Value("${app.files.backend.s3.max-connections:32}") int maxConnections,
+                            @Value("${app.files.backend.s3.connect-timeout:5s}") Duration connectTimeout,
+                            @Value("${app.files.backend.s3.request-timeout:60s}") Duration requestTimeout) {
+        this.endpoint = endpoint;
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.pathStyle = pathStyle;
+        this.partSize = (int) Math.min(Math.max(partSize.toBytes(), MIN_PART_SIZE), Integer.MAX_VALUE - 8);
+        this.requestTimeout = requestTimeout;
+        this.signer = new S3RequestSigner(accessKey, secretKey, region);
+        this.connections = new Semaphore(Math.max(maxConnections, 1));
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    @Override
+    public long put(String key, InputStream content) throws IOException {
+        byte[] buffer = new byte[partSize];
+        int read = content.readNBytes(buffer, 0, partSize);
+        if (read < partSize) {
+            expect(send("PUT", key, Map.of(), Map.of(), buffer, read), 200);
+            return read;
+        }
+
+        String uploadId = createMultipartUpload(key);
+        try {
+            List<String> etags = new ArrayList<>();
+            long total = 0;
+            while (read > 0) {
+                Map<String, String> query = Map.of("partNumber", String.valueOf(etags.size() + 1), "uploadId", uploadId);
+                HttpResponse<String> part = expect(send("PUT", key, query, Map.of(), buffer, read), 200);
+                etags.add(part.headers().firstValue("ETag").orElseThrow(() -> new IOException("S3 part without ETag")));
+                total += read;
+                read = content.readNBytes(buffer, 0, partSize);
+            }
+            completeMultipartUpload(key, uploadId, etags);
+            return total;
+        } catch (IOException | RuntimeException e) {
+            try {
+                send("DELETE", key, Map.of("uploadId", uploadId), Map.of(), null, 0);
+            } catch (IOException abort) {
+                e.addSuppressed(abort);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void putFile(String key, Path source) throws IOException {
+        try (InputStream in = Files.newInputStream(source)) {
+            put(key, in);
+        }
+        Files.delete(source);
+    }
+
+    @Override
+    public Optional<StoredObject> find(String key) throws IOException {
+        HttpResponse<String> response = send("HEAD", key, Map.of(), Map.of(), null, 0);
+        if (response.statusCode() == 404) return Optional.empty();
+        expect(response, 200);
+        long size = response.headers().firstValueAsLong("Content-Length").orElseThrow(() -> new IOException("S3 HEAD without Content-Length"));
+        Instant lastModified = response.headers().firstValue("Last-Modified").map(S3StorageBackend::httpDate).orElse(null);
+        return Optional.of(StoredObject.ofRemote(size, lastModified, (offset, length) -> open(key, offset, length)));
+    }
+
+    @Override
+    public InputStream open(String key, long offset, long length) throws IOException {
+        if (length <= 0) return InputStream.nullInputStream();
+        Map<String, String> range = Map.of("range", "bytes=" + offset + "-" + (offset + length - 1));
+        HttpRequest request = request("GET", key, Map.of(), range, null, 0);
+        acquire();
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) connections.release();
+        };
+        HttpResponse<InputStream> response;
+        try {
+            response = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException | RuntimeException e) {
+            release.run();
+            throw e;
+        } catch (InterruptedException e) {
+            release.run();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading " + key);
+        }
+        if (response.statusCode() != 206 && response.statusCode() != 200) {
+            try (InputStream body = response.body()) {
+                String message = new String(body.readNBytes(1024), StandardCharsets.UTF_8);
+                if (response.statusCode() == 404) throw new NoSuchFileException(key);
+                throw new IOException("S3 GET " + key + " failed: " + response.statusCode() + " " + message);
+            } finally {
+                release.run();
+            }
+        }
+        InputStream body = response.body();
+        if (response.statusCode() == 200 && offset > 0) {
+            // a server ignoring Range sends the whole object: drop what comes before the range
+            try {
+                body.skipNBytes(offset);
+            } catch (IOException | RuntimeException e) {
+                release.run();
+                body.close();
+                throw e;
+            }
+        }
+        // ...and stop at its end
+        return new FilterInputStream(body) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) return -1;
+                int b = super.read();
+                if (b >= 0) remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) return -1;
+                int read = super.read(b, off, (int) Math.min(len, remaining));
+                if (read > 0) remaining -= read;
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(Math.min(n, remaining));
+                remaining -= skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(super.available(), remaining);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    release.run();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        HttpResponse<String> response = send("DELETE", key, Map.of(), Map.of(), null, 0);
+        if (response.statusCode() != 404) expect(response, 204);
+    }
+
+    @Override
+    public Stream<String> list() throws IOException {
+        return Stream.iterate(listPage(null), Objects::nonNull, page -> {
+                    if (page.nextToken() == null) return null;
+                    try {
+                        return listPage(page.nextToken());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .flatMap(page -> page.keys().stream());
+    }
+
+    private record ListPage(List<String> keys, String nextToken) {
+    }
+
+    // one ListObjectsV2 page of up to 1000 keys under the prefix
+    private ListPage listPage(String continuationToken) throws IOException {
+        Map<String, String> query = new TreeMap<>(Map.of("list-type", "2"));
+        if (!prefix.isEmpty()) query.put("prefix", prefix);
+        if (continuationToken != null) query.put("continuation-token", continuationToken);
+        String body = expect(send("GET", null, query, Map.of(), null, 0), 200).body();
+        List<String> keys = new ArrayList<>();
+        Matcher key = LIST_KEY.matcher(body);
+        while (key.find()) {
+            keys.add(unescapeXml(key.group(1)).substring(prefix.length()));
+        }
+        Matcher next = NEXT_TOKEN.matcher(body);
+        return new ListPage(keys, body.contains("<IsTruncated>true</IsTruncated>") && next.find() ? unescapeXml(next.group(1)) : null);
+    }
+
+    private static String unescapeXml(String text) {
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private String createMultipartUpload(String key) throws IOException {
+        HttpResponse<String> response = expect(send("POST", key, Map.of("uploads", ""), Map.of(), null, 0), 200);
+        Matcher m = UPLOAD_ID.matcher(response.body());
+        if (!m.find()) throw new IOException("S3 CreateMultipartUpload returned no UploadId");
+        return m.group(1);
+    }
+
+    private void completeMultipartUpload(String key, String uploadId, List<String> etags) throws IOException {
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                    .append(etags.get(i).replace("&", "&amp;").replace("\"", "&quot;"))
+                    .append("</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+        byte[] body = xml.toString().getBytes(StandardCharsets.UTF_8);
+        HttpResponse<String> response = expect(send("POST", key, Map.of("uploadId", uploadId),
+                Map.of("content-type", "application/xml"), body, body.length), 200);
+        // errors after the 200 status line are reported in the body
+        if (response.body().contains("<Error>")) {
+            throw new IOException("S3 CompleteMultipartUpload failed: " + response.body());
+        }
+    }
+
+    private HttpResponse<String> send(String method, String key, Map<String, String> query, Map<String, String> headers,
+                                      byte[] body, int length) throws IOException {
+        HttpRequest request = request(method, key, query, headers, body, length);
+        acquire();
+        try {
+            return http.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during S3 " + method + " " + key);
+        } finally {
+            connections.release();
+        }
+    }
+
+    private HttpRequest request(String method, String key, Map<String, String> query, Map<String, String> headers,
+                                byte[] body, int length) {
+        // a null key addresses the bucket itself
+        String path = (pathStyle ? "/" + bucket : "") + "/" + (key == null ? "" : S3RequestSigner.encode(prefix + key, false));
+        String canonicalQuery = S3RequestSigner.canonicalQuery(query);
+        String host = pathStyle ? endpoint.getHost() : bucket + "." + endpoint.getHost();
+        int port = endpoint.getPort();
+        String authority = port < 0 ? host : host + ":" + port;
+        URI uri = URI.create(endpoint.getScheme() + "://" + authority + path + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+
+        Instant now = Instant.now();
+        String payloadSha256 = body == null ? S3RequestSigner.EMPTY_SHA256 : S3RequestSigner.sha256Hex(body, 0, length);
+        TreeMap<String, String> signed = new TreeMap<>(headers);
+        signed.put("host", authority);
+        signed.put("x-amz-content-sha256", payloadSha256);
+        signed.put("x-amz-date", S3RequestSigner.AMZ_DATE.format(now));
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body, 0, length))
+                .header("Authorization", signer.authorization(method, path, canonicalQuery, signed, payloadSha256, now));
+        // the client sets Host itself, from the same authority
+        signed.forEach((name, value) -> {
+            if (!name.equals("host")) builder.header(name, value);
+        });
+        return builder.build();
+    }
+
+    private void acquire() throws InterruptedIOException {
+        try {
+            connections.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for an S3 connection");
+        }
+    }
+
+    private static HttpResponse<String> expect(HttpResponse<String> response, int status) throws IOException {
+        if (response.statusCode() != status) {
+            throw new IOException("S3 " + response.request().method() + " " + response.request().uri().getRawPath()
+                    + " failed: " + response.statusCode() + " " + response.body());
+        }
+        return response;
+    }
+
+    private static Instant httpDate(String value) {
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
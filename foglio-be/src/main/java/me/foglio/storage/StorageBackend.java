@@ -0,0 +1,53 @@
+package me.foglio.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Where stored file bodies live. Keys are relative names such as {@code ab/cd/<uuid>.png} or {@code cas/ab/cd/<sha256>};
+ * every key is written once and never overwritten.
+ * <p>
+ * The implementation is chosen with {@code app.files.backend} ({@code local}, {@code packed} or {@code s3}).
+ * Staging areas (upload sessions, dedup temp files) and thumbnails stay on the local {@code app.files.storage}
+ * directory whichever backend holds the originals.
+ */
+public interface StorageBackend {
+
+    /**
+     * Streams {@code content} into a new object. If reading or writing fails nothing is left under {@code key}.
+     *
+     * @return the number of bytes stored
+     */
+    long put(String key, InputStream content) throws IOException;
+
+    /**
+     * Moves a fully written local file into a new object; {@code source} no longer exists afterwards.
+     */
+    void putFile(String key, Path source) throws IOException;
+
+    /**
+     * Looks an object up without reading it.
+     */
+    Optional<StoredObject> find(String key) throws IOException;
+
+    /**
+     * Opens {@code length} bytes of an object starting at {@code offset}.
+     *
+     * @throws java.nio.file.NoSuchFileException if there is no such object
+     */
+    InputStream open(String key, long offset, long length) throws IOException;
+
+    /**
+     * Removes an object; missing objects are not an error.
+     */
+    void delete(String key) throws IOException;
+
+    /**
+     * Every key currently stored, in no particular order. Keys are fetched as the stream is consumed, so it must be
+     * closed; an {@link java.io.UncheckedIOException} is thrown if a later page can't be read.
+     */
+    Stream<String> list() throws IOException;
+}
@@ -0,0 +1,192 @@
+package me.foglio.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * An object found in a {@link StorageBackend}.
+ * <p>
+ * Objects whose bytes sit in a local file expose it through {@link #file()}, together with the offset of their first
+ * byte, so downloads can hand the region to sendfile/{@code transferTo}. Objects held in memory expose their
+ * {@link #buffer()}; other objects are read with {@link #open}.
+ */
+public final class StoredObject {
+
+    @FunctionalInterface
+    public interface RangeReader {
+        InputStream open(long offset, long length) throws IOException;
+    }
+
+    private final long size;
+    private final Instant lastModified;
+    private final Path file;
+    private final long fileOffset;
+    private final boolean wholeFile;
+    private final RangeReader reader;
+    private final ByteBuffer buffer;
+
+    private StoredObject(long size, Instant lastModified, Path file, long fileOffset, boolean wholeFile,
+                         RangeReader reader, ByteBuffer buffer) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.file = file;
+        this.fileOffset = fileOffset;
+        this.wholeFile = wholeFile;
+        this.reader = reader;
+        this.buffer = buffer;
+    }
+
+    /**
+     * A whole local file, e.g. a rendition kept next to the originals.
+     */
+    public static StoredObject ofFile(Path path) throws IOException {
+        return ofFile(path, Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+    public static StoredObject ofFile(Path path, BasicFileAttributes attributes) {
+        return new StoredObject(attributes.size(), attributes.lastModifiedTime().toInstant(), path, 0, true, null, null);
+    }
+
+    /**
+     * {@code size} bytes at {@code offset} of a local file holding other data as well.
+     */
+    public static StoredObject ofRegion(Path path, long offset, long size, Instant lastModified) {
+        return new StoredObject(size, lastModified, path, offset, false, null, null);
+    }
+
+    public static StoredObject ofRemote(long size, Instant lastModified, RangeReader reader) {
+        return new StoredObject(size, lastModified, null, 0, false, reader, null);
+    }
+
+    /**
+     * An object whose bytes are the whole of {@code buffer}, from position 0 to its limit.
+     */
+    public static StoredObject ofBuffer(ByteBuffer buffer, Instant lastModified) {
+        return new StoredObject(buffer.limit(), lastModified, null, 0, false, null, buffer);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // null if the backend doesn't know
+    public Instant lastModified() {
+        return lastModified;
+    }
+
+    public Optional<Path> file() {
+        return Optional.ofNullable(file);
+    }
+
+    public long fileOffset() {
+        return fileOffset;
+    }
+
+    /**
+     * Whether {@link #file()} holds exactly this object, so it can be handed to APIs taking a whole file.
+     */
+    public boolean isWholeFile() {
+        return wholeFile;
+    }
+
+    // a read-only view of the in-memory bytes, positioned at 0; callers may move its position and limit
+    public Optional<ByteBuffer> buffer() {
+        return buffer == null ? Optional.empty() : Optional.of(buffer.asReadOnlyBuffer().clear());
+    }
+
+    public InputStream open() throws IOException {
+        return open(0, size);
+    }
+
+    public InputStream open(long offset, long length) throws IOException {
+        if (buffer != null) return new BufferInputStream(buffer.asReadOnlyBuffer().slice((int) offset, (int) length));
+        if (file == null) return reader.open(offset, length);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        channel.position(fileOffset + offset);
+        return new Bounded(Channels.newInputStream(channel), length);
+    }
+
+    // stops at the end of the region instead of the end of the file
+    private static final class Bounded extends FilterInputStream {
+
+        private long remaining;
+
+        Bounded(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+
+    private static final class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package me.foglio.controller;
+
+import me.foglio.model.File;
+import me.foglio.model.User;
+import me.foglio.service.BulkDeleteService;
+import me.foglio.service.FileService;
+import me.foglio.storage.StoredObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@DisplayName("FileController Tests")
+class FileControllerTest {
+
+    private static final String BOUNDARY = "foglio-test-boundary";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private FileService fileService;
+
+    @MockitoBean
+    private BulkDeleteService bulkDeleteService;
+
+    private final User testUser = User.builder().id(1L).name("Test User").apiKey(UUID.randomUUID()).build();
+
+    private static byte[] multipartBody(String fileContent) {
+        return ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"notes.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + fileContent + "\r\n"
+                + "--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Should stream multipart upload to the file service")
+    void shouldStreamMultipartUpload() throws Exception {
+        // Given
+        AtomicReference<String> received = new AtomicReference<>();
+        when(fileService.uploadStream(any(), eq("notes.txt"), eq("text/plain"), eq(testUser), eq(true))).thenAnswer(inv -> {
+            received.set(new String(inv.<InputStream>getArgument(0).readAllBytes(), StandardCharsets.UTF_8));
+            return File.builder().id(UUID.randomUUID()).originalName("notes.txt").size(5L).owner(testUser).build();
+        });
+
+        // When & Then
+        mockMvc.perform(post("/api/files/upload/stream?public=true")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("hello"))
+                        .with(authentication(new UsernamePasswordAuthenticationToken(testUser, null, Collections.emptyList()))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.originalName").value("notes.txt"));
+        assertThat(received.get()).isEqualTo("hello");
+    }
+
+    @Test
+    @DisplayName("Should reject streaming upload that is not multipart")
+    void shouldRejectNonMultipartStreamingUpload() throws Exception {
+        // When & Then
+        mockMvc.perform(post("/api/files/upload/stream")
+                        .contentType("application/octet-stream")
+                        .content(new byte[]{1, 2, 3})
+                        .with(authentication(new UsernamePasswordAuthenticationToken(testUser, null, Collections.emptyList()))))
+                .andExpect(status().isUnsupportedMediaType());
+    }
+
+    @Test
+    @DisplayName("Should reject a malformed multipart body with 400")
+    void shouldRejectMalformedMultipartBody() throws Exception {
+        // When & Then: the part headers never end
+        mockMvc.perform(post("/api/files/upload/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"").getBytes(StandardCharsets.UTF_8))
+                        .with(authentication(new UsernamePasswordAuthenticationToken(testUser, null, Collections.emptyList()))))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("Should return 401 for streaming upload without authentication")
+    void shouldReturn401ForStreamingUploadWithoutAuthentication() throws Exception {
+        // When & Then
+        mockMvc.perform(post("/api/files/upload/stream")
+                        .contentType("multipart/form-data; boundary=" + BOUNDARY)
+                        .content(multipartBody("hello")))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    @DisplayName("Should answer 304 for a cached public download without touching storage")
+    void shouldAnswer304WithoutTouchingStorage() throws Exception {
+        // Given
+        File stored = File.builder().id(UUID.randomUUID()).originalName("notes.txt").contentType("text/plain")
+                .size(5L).sha256("abc123").isPublic(true).owner(testUser).build();
+        when(fileService.getFileMetadata(stored.getId())).thenReturn(Optional.of(stored));
+
+        // When & Then
+        mockMvc.perform(get("/api/files/" + stored.getId() + "/download")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"abc123\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"abc123\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=31536000, public, immutable"));
+        verify(fileService, never()).findContent(any());
+        verify(fileService).touch(stored);
+    }
+
+    @Test
+    @DisplayName("Should reject preview sizes that aren't configured")
+    void shouldRejectUnknownPreviewSize() throws Exception {
+        // Given
+        File stored = File.builder().id(UUID.randomUUID()).originalName("photo.jpg").contentType("image/jpeg")
+                .size(5L).isPublic(true).owner(testUser).build();
+        when(fileService.getFileMetadata(stored.getId())).thenReturn(Optional.of(stored));
+
+        // When & Then
+        mockMvc.perform(get("/api/files/" + stored.getId() + "/preview").param("size", "300"))
+                .andExpect(status().isBadRequest());
+        verify(fileService, never()).touch(any());
+    }
+
+    @Test
+    @DisplayName("Should send an undecodable image's preview under the original's ETag")
+    void shouldSendPreviewFallbackUnderOriginalEtag() throws Exception {
+        // Given: a jpeg whose bytes no decoder accepts, so no thumbnail can be rendered
+        byte[] bytes = "not a jpeg".getBytes(StandardCharsets.UTF_8);
+        File stored = File.builder().id(UUID.randomUUID()).originalName("photo.jpg").contentType("image/jpeg")
+                .size((long) bytes.length).sha256("def456").isPublic(true).owner(testUser).build();
+        when(fileService.getFileMetadata(stored.getId())).thenReturn(Optional.of(stored));
+        when(fileService.findContent(stored)).thenAnswer(inv -> Optional.of(StoredObject.ofBuffer(ByteBuffer.wrap(bytes), null)));
+
+        // When & Then
+        mockMvc.perform(get("/api/files/" + stored.getId() + "/preview").param("size", "256"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"def456\""))
+                .andExpect(content().bytes(bytes));
+        mockMvc.perform(get("/api/files/" + stored.getId() + "/preview").param("size", "256")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"def456\""))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    @DisplayName("Should store batch parts and report per-file results, failures included")
+    void shouldReportPerFileResultsOfBatchUpload() throws Exception {
+        // Given
+        when(fileService.writeContent(any(), eq(testUser), eq(true))).thenAnswer(inv -> {
+            MultipartFile part = inv.getArgument(0);
+            if (part.getSize() > 5) throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "File exceeds 5 bytes");
+            return File.builder().id(UUID.randomUUID()).originalName(part.getOriginalFilename()).size(part.getSize()).owner(testUser).build();
+        });
+        when(fileService.registerAll(any())).thenAnswer(inv -> inv.getArgument(0));
+
+        // When & Then
+        mockMvc.perform(multipart("/api/files/upload/batch")
+                        .file(new MockMultipartFile("files", "a.txt", "text/plain", "aaa".getBytes(StandardCharsets.UTF_8)))
+                        .file(new MockMultipartFile("files", "big.txt", "text/plain", "too large".getBytes(StandardCharsets.UTF_8)))
+                        .file(new MockMultipartFile("files", "c.txt", "text/plain", "ccc".getBytes(StandardCharsets.UTF_8)))
+                        .param("public", "true")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(testUser, null, Collections.emptyList()))))
+                .andExpect(status().isMultiStatus())
+                .andExpect(jsonPath("$.stored").value(2))
+                .andExpect(jsonPath("$.failed").value(1))
+                .andExpect(jsonPath("$.results[0].file.originalName").value("a.txt"))
+                .andExpect(jsonPath("$.results[1].status").value(413))
+                .andExpect(jsonPath("$.results[1].error").value("File exceeds 5 bytes"))
+                .andExpect(jsonPath("$.results[2].file.originalName").value("c.txt"));
+        verify(fileService).registerAll(argThat(files -> files.size() == 2));
+    }
+
+    @Test
+    @DisplayName("Should bulk delete by ids or by filter, and reject requests selecting nothing")
+    void shouldBulkDelete() throws Exception {
+        // Given
+        UUID missing = UUID.randomUUID();
+        when(bulkDeleteService.deleteByIds(any(), eq(testUser))).thenReturn(new BulkDeleteService.Result(1, List.of(missing)));
+        when(bulkDeleteService.deleteMatching(eq("image/*"), eq(null), eq(null), eq(testUser)))
+                .thenReturn(new BulkDeleteService.Result(7, List.of()));
+        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(testUser, null, Collections.emptyList());
+
+        // When & Then
+        mockMvc.perform(post("/api/files/bulk-delete")
+                        .contentType("application/json")
+                        .content("{\"ids\": [\"" + UUID.randomUUID() + "\", \"" + missing + "\"]}")
+                        .with(authentication(auth)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deleted").value(1))
+                .andExpect(jsonPath("$.notFound[0]").value(missing.toString()));
+        mockMvc.perform(post("/api/files/bulk-delete")
+                        .contentType("application/json")
+                        .content("{\"contentType\": \"image/*\"}")
+                        .with(authentication(auth)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deleted").value(7));
+        mockMvc.perform(post("/api/files/bulk-delete")
+                        .contentType("application/json")
+                        .content("{}")
+                        .with(authentication(auth)))
+                .andExpect(status().isBadRequest());
+        verify(bulkDeleteService).deleteByIds(argThat(ids -> ids.size() == 2), eq(testUser));
+    }
+
+    @Test
+    @DisplayName("Should stream a ZIP of the requested files, storing images and deflating text")
+    void shouldStreamArchive(@TempDir Path dir) throws Exception {
+        // Given
+        User other = User.builder().id(2L).name("Other").apiKey(UUID.randomUUID()).build();
+        File photo = File.builder().id(UUID.randomUUID()).originalName("photo.png").contentType("image/png")
+                .size(4L).owner(testUser).build();
+        File notes = File.builder().id(UUID.randomUUID()).originalName("../notes.txt").contentType("text/plain")
+                .size(11L).isPublic(true).owner(other).build();
+        File secret = File.builder().id(UUID.randomUUID()).originalName("secret.txt").contentType("text/plain")
+                .size(1L).owner(other).build();
+        for (File f : List.of(photo, notes, secret)) when(fileService.getFileMetadata(f.getId())).thenReturn(Optional.of(f));
+        when(fileService.findContent(photo)).thenReturn(Optional.of(StoredObject.ofBuffer(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), null)));
+        when(fileService.findContent(notes)).thenReturn(Optional.of(StoredObject.ofBuffer(ByteBuffer.wrap("hello notes".getBytes(StandardCharsets.UTF_8)), null)));
+        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(testUser, null, Collections.emptyList());
+
+        // When
+        byte[] zip = mockMvc.perform(post("/api/files/archive")
+                        .contentType("application/json")
+                        .content("{\"ids\": [\"" + photo.getId() + "\", \"" + notes.getId() + "\", \"" + photo.getId() + "\"]}")
+                        .with(authentication(auth)))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/zip"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\""))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        // Then
+        Path file = Files.write(dir.resolve("files.zip"), zip);
+        try (ZipFile archive = new ZipFile(file.toFile())) {
+            assertThat(archive.stream().map(ZipEntry::getName)).containsExactly("photo.png", "notes.txt");
+            assertThat(archive.getEntry("photo.png").getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(archive.getInputStream(archive.getEntry("photo.png")).readAllBytes()).containsExactly(1, 2, 3, 4);
+            assertThat(archive.getEntry("notes.txt").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(archive.getInputStream(archive.getEntry("notes.txt")).readAllBytes()).asString().isEqualTo("hello notes");
+        }
+        verify(fileService, times(1)).touch(photo);
+
+        mockMvc.perform(post("/api/files/archive")
+                        .contentType("application/json")
+                        .content("{\"ids\": [\"" + photo.getId() + "\", \"" + secret.getId() + "\"]}")
+                        .with(authentication(auth)))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(post("/api/files/archive")
+                        .contentType("application/json")
+                        .content("{\"ids\": []}")
+                        .with(authentication(auth)))
+                .andExpect(status().isBadRequest());
+        verify(fileService, never()).findContent(secret);
+    }
+
+    @Test
+    @DisplayName("Should reject archives over the file limit before looking any file up")
+    void shouldRejectOversizedArchiveBeforeLookups() throws Exception {
+        // Given: one id over the default app.files.archive.max-entries
+        String ids = Stream.generate(() -> "\"" + UUID.randomUUID() + "\"").limit(1001).collect(Collectors.joining(","));
+
+        // When & Then
+        mockMvc.perform(post("/api/files/archive")
+                        .contentType("application/json")
+                        .content("{\"ids\": [" + ids + "]}")
+                        .with(authentication(new UsernamePasswordAuthenticationToken(testUser, null, Collections.emptyList()))))
+                .andExpect(status().isBadRequest());
+        verify(fileService, never()).getFileMetadata(any());
+    }
+
+    @Test
+    @DisplayName("Should archive public files for anonymous callers and ask them to authenticate for private ones")
+    void shouldArchivePublicFilesAnonymously() throws Exception {
+        // Given
+        File shared = File.builder().id(UUID.randomUUID()).originalName("shared.png").contentType("image/png")
+                .size(2L).isPublic(true).owner(testUser).build();
+        File secret = File.builder().id(UUID.randomUUID()).originalName("secret.txt").contentType("text/plain")
+                .size(1L).owner(testUser).build();
+        when(fileService.getFileMetadata(shared.getId())).thenReturn(Optional.of(shared));
+        when(fileService.getFileMetadata(secret.getId())).thenReturn(Optional.of(secret));
+        when(fileService.findContent(shared)).thenReturn(Optional.of(StoredObject.ofBuffer(ByteBuffer.wrap(new byte[]{7, 8}), null)));
+
+        // When & Then
+        mockMvc.perform(post("/api/files/archive")
+                        .contentType("application/json")
+                        .content("{\"ids\": [\"" + shared.getId() + "\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/zip"));
+        mockMvc.perform(post("/api/files/archive")
+                        .contentType("application/json")
+                        .content("{\"ids\": [\"" + shared.getId() + "\", \"" + secret.getId() + "\"]}"))
+                .andExpect(status().isUnauthorized());
+        verify(fileService, never()).findContent(secret);
+    }
+}
@@ -0,0 +1,83 @@
+package me.foglio.controller;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("TransferMetricsFilter Tests")
+class TransferMetricsFilterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final TransferMetricsFilter filter = new TransferMetricsFilter(meterRegistry);
+
+    @Test
+    @DisplayName("Should time the first body byte and the whole download by endpoint pattern")
+    void shouldTimeDownloads() throws Exception {
+        // Given
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/123/download");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        double[] activeDuringTransfer = new double[1];
+
+        // When
+        filter.doFilter(request, response, (req, res) -> {
+            req.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/api/files/{id}/download");
+            activeDuringTransfer[0] = meterRegistry.get("foglio.transfers.active").tag("direction", "download").gauge().value();
+            res.getOutputStream().write("hello".getBytes(StandardCharsets.UTF_8));
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20);
+            while (System.nanoTime() < end) LockSupport.parkNanos(end - System.nanoTime());
+        });
+
+        // Then
+        Timer ttfb = meterRegistry.get("foglio.http.ttfb").tag("uri", "/api/files/{id}/download").tag("status", "200").timer();
+        Timer transfer = meterRegistry.get("foglio.http.transfer").tag("uri", "/api/files/{id}/download").timer();
+        assertThat(ttfb.count()).isEqualTo(1);
+        assertThat(transfer.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(20);
+        assertThat(ttfb.totalTime(TimeUnit.MILLISECONDS)).isLessThan(transfer.totalTime(TimeUnit.MILLISECONDS));
+        assertThat(response.getContentAsString()).isEqualTo("hello");
+        assertThat(activeDuringTransfer[0]).isEqualTo(1);
+        assertThat(meterRegistry.get("foglio.transfers.active").tag("direction", "download").gauge().value()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should leave requests outside the file endpoints alone")
+    void shouldSkipOtherPaths() throws Exception {
+        // When
+        filter.doFilter(new MockHttpServletRequest("POST", "/api/users/register"), new MockHttpServletResponse(), (req, res) -> { });
+
+        // Then
+        assertThat(meterRegistry.find("foglio.http.transfer").timer()).isNull();
+    }
+
+    @Test
+    @DisplayName("Should count archives as downloads and bulk deletes as neither")
+    void shouldClassifyByEndpoint() throws Exception {
+        // Given
+        double[] archiveDownloads = new double[1];
+        double[] bulkDeleteTransfers = new double[1];
+
+        // When
+        filter.doFilter(new MockHttpServletRequest("POST", "/api/files/archive"), new MockHttpServletResponse(),
+                (req, res) -> archiveDownloads[0] = active("download"));
+        filter.doFilter(new MockHttpServletRequest("POST", "/api/files/bulk-delete"), new MockHttpServletResponse(),
+                (req, res) -> bulkDeleteTransfers[0] = active("upload") + active("download"));
+
+        // Then
+        assertThat(archiveDownloads[0]).isEqualTo(1);
+        assertThat(bulkDeleteTransfers[0]).isZero();
+        assertThat(active("upload")).isZero();
+    }
+
+    private double active(String direction) {
+        return meterRegistry.get("foglio.transfers.active").tag("direction", direction).gauge().value();
+    }
+}
@@ -2,7 +2,7 @@ package me.foglio.controller;
 
 import me.foglio.model.File;
 import me.foglio.model.User;
-import me.foglio.repository.FileRepository;
+import me.foglio.service.FilePage;
 import me.foglio.service.FileService;
 import me.foglio.service.UserService;
 import org.junit.jupiter.api.DisplayName;
@@ -22,6 +22,8 @@ import java.util.Optional;
 import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
@@ -42,9 +44,6 @@ class UiControllerTest {
     @MockitoBean
     private FileService fileService;
 
-    @MockitoBean
-    private FileRepository fileRepository;
-
     private final User testUser = User.builder().id(1L).name("Test User").apiKey(UUID.randomUUID()).build();
 
     @Test
@@ -126,7 +125,8 @@ class UiControllerTest {
                 File.builder().id(UUID.randomUUID()).originalName("file1.txt").contentType("text/plain").size(100L).build(),
                 File.builder().id(UUID.randomUUID()).originalName("file2.txt").contentType("application/pdf").size(200L).build()
         );
-        when(fileRepository.findByOwner_Id(testUser.getId())).thenReturn(files);
+        when(fileService.listFilesByOwner(eq(testUser), any(), any(), anyBoolean(), any(), anyInt()))
+                .thenReturn(new FilePage(files, null));
 
         // When & Then
         mockMvc.perform(get("/ui/files")
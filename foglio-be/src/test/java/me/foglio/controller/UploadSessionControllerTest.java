@@ -0,0 +1,277 @@
+package me.foglio.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.foglio.model.UploadSession;
+import me.foglio.model.File;
+import me.foglio.model.User;
+import me.foglio.repository.FileRepository;
+import me.foglio.repository.UploadSessionRepository;
+import me.foglio.repository.UserRepository;
+import me.foglio.service.UploadSessionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@DisplayName("UploadSessionController Tests")
+class UploadSessionControllerTest {
+
+    private static final int CHUNK = 256 * 1024;
+    private static final Path STORAGE = tempDir();
+
+    @DynamicPropertySource
+    static void storage(DynamicPropertyRegistry registry) {
+        registry.add("app.files.storage", STORAGE::toString);
+    }
+
+    private static Path tempDir() {
+        try {
+            return Files.createTempDirectory("foglio-uploads-test");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UploadSessionRepository sessionRepository;
+
+    @Autowired
+    private UploadSessionService uploadSessionService;
+
+    @MockitoSpyBean
+    private FileRepository fileRepository;
+
+    private final ObjectMapper json = new ObjectMapper();
+    private User owner;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(User.builder().name("Uploader").apiKey(UUID.randomUUID()).build());
+        content = new byte[2 * CHUNK + 1000];
+        new Random(7).nextBytes(content);
+    }
+
+    private RequestPostProcessor as(User user) {
+        return authentication(new UsernamePasswordAuthenticationToken(user, null, Collections.emptyList()));
+    }
+
+    private String createSession() throws Exception {
+        String body = mockMvc.perform(post("/api/files/uploads")
+                        .param("name", "video.bin")
+                        .param("size", String.valueOf(content.length))
+                        .param("chunkSize", String.valueOf(CHUNK))
+                        .param("public", "true")
+                        .with(as(owner)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.chunkCount").value(3))
+                .andReturn().getResponse().getContentAsString();
+        return json.readTree(body).get("id").asText();
+    }
+
+    private byte[] chunk(int index) {
+        return Arrays.copyOfRange(content, index * CHUNK, Math.min(content.length, (index + 1) * CHUNK));
+    }
+
+    private void putChunk(String session, int index, byte[] bytes, int expectedStatus) throws Exception {
+        mockMvc.perform(put("/api/files/uploads/" + session + "/chunks/" + index)
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(bytes)
+                        .with(as(owner)))
+                .andExpect(status().is(expectedStatus));
+    }
+
+    @Test
+    @DisplayName("Should assemble chunks sent concurrently and out of order into a file")
+    void shouldAssembleConcurrentChunks() throws Exception {
+        // Given
+        String session = createSession();
+
+        // When
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Object>> puts = List.of(2, 0, 1).stream()
+                    .map(i -> pool.submit(() -> {
+                        putChunk(session, i, chunk(i), 204);
+                        return null;
+                    }))
+                    .toList();
+            for (Future<Object> f : puts) f.get();
+        } finally {
+            pool.shutdown();
+        }
+        mockMvc.perform(get("/api/files/uploads/" + session).with(as(owner)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.receivedChunks.length()").value(3));
+        String completed = mockMvc.perform(post("/api/files/uploads/" + session + "/complete").with(as(owner)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        // Then
+        JsonNode file = json.readTree(completed);
+        assertThat(file.get("size").asLong()).isEqualTo(content.length);
+        assertThat(file.get("sha256").asText()).isEqualTo(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content)));
+        byte[] downloaded = mockMvc.perform(get("/api/files/" + file.get("id").asText() + "/download"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        assertThat(downloaded).isEqualTo(content);
+        assertThat(STORAGE.resolve(".uploads/" + session + ".part")).doesNotExist();
+        mockMvc.perform(get("/api/files/uploads/" + session).with(as(owner))).andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Should refuse to complete until every chunk arrived, then resume")
+    void shouldResumeAfterMissingChunks() throws Exception {
+        // Given
+        String session = createSession();
+        putChunk(session, 0, chunk(0), 204);
+        putChunk(session, 2, chunk(2), 204);
+
+        // When & Then
+        mockMvc.perform(post("/api/files/uploads/" + session + "/complete").with(as(owner)))
+                .andExpect(status().isConflict());
+        mockMvc.perform(get("/api/files/uploads/" + session).with(as(owner)))
+                .andExpect(jsonPath("$.receivedChunks[0]").value(0))
+                .andExpect(jsonPath("$.receivedChunks[1]").value(2));
+
+        putChunk(session, 1, chunk(1), 204);
+        mockMvc.perform(post("/api/files/uploads/" + session + "/complete").with(as(owner)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size").value(content.length));
+    }
+
+    @Test
+    @DisplayName("Should reject chunks of the wrong length and acknowledge retries of stored ones")
+    void shouldValidateChunkLength() throws Exception {
+        // Given
+        String session = createSession();
+
+        // When & Then
+        putChunk(session, 0, Arrays.copyOf(chunk(0), CHUNK - 1), 400);
+        putChunk(session, 2, chunk(1), 400);
+        putChunk(session, 3, chunk(2), 400);
+        putChunk(session, 0, chunk(0), 204);
+        // a retry is acknowledged without rewriting the stored bytes
+        putChunk(session, 0, new byte[CHUNK], 204);
+        mockMvc.perform(get("/api/files/uploads/" + session).with(as(owner)))
+                .andExpect(jsonPath("$.receivedChunks.length()").value(1));
+    }
+
+    @Test
+    @DisplayName("Should hide sessions from other users")
+    void shouldHideSessionsFromOtherUsers() throws Exception {
+        // Given
+        String session = createSession();
+        User other = userRepository.save(User.builder().name("Other").apiKey(UUID.randomUUID()).build());
+
+        // When & Then
+        mockMvc.perform(get("/api/files/uploads/" + session).with(as(other)))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(delete("/api/files/uploads/" + session).with(as(other)))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(delete("/api/files/uploads/" + session).with(as(owner)))
+                .andExpect(status().isNoContent());
+        assertThat(STORAGE.resolve(".uploads/" + session + ".part")).doesNotExist();
+    }
+
+    @Test
+    @DisplayName("Should leave a session being completed to complete(), whether aborted or expired")
+    void shouldNotDiscardSessionBeingCompleted() throws Exception {
+        // Given: an expired session that complete() has claimed
+        String session = createSession();
+        UUID id = UUID.fromString(session);
+        sessionRepository.save(sessionRepository.findById(id).orElseThrow().toBuilder()
+                .expiresAt(LocalDateTime.now().minusMinutes(1)).build());
+        sessionRepository.claim(id, LocalDateTime.now());
+        Path part = STORAGE.resolve(".uploads/" + session + ".part");
+
+        // When & Then
+        mockMvc.perform(delete("/api/files/uploads/" + session).with(as(owner)))
+                .andExpect(status().isConflict());
+        uploadSessionService.deleteExpired();
+        assertThat(part).exists();
+        assertThat(sessionRepository.findById(id)).isPresent();
+
+        // once complete() gives it back, the sweep takes it
+        sessionRepository.transition(id, UploadSession.State.COMPLETING, UploadSession.State.OPEN);
+        uploadSessionService.deleteExpired();
+        assertThat(part).doesNotExist();
+        assertThat(sessionRepository.findById(id)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should discard a session whose completion was abandoned past the timeout")
+    void shouldDiscardAbandonedCompletion() throws Exception {
+        // Given: a session that has not expired, claimed two hours ago by a complete() that never finished
+        String session = createSession();
+        UUID id = UUID.fromString(session);
+        sessionRepository.claim(id, LocalDateTime.now().minusHours(2));
+        Path part = STORAGE.resolve(".uploads/" + session + ".part");
+
+        // When
+        uploadSessionService.deleteExpired();
+
+        // Then
+        assertThat(part).doesNotExist();
+        assertThat(sessionRepository.findById(id)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should discard the session when the file row cannot be saved after adopting the part file")
+    void shouldDiscardSessionWhenRegisterFails() throws Exception {
+        // Given: every chunk received, but the files table refuses the row
+        String session = createSession();
+        for (int i = 0; i < 3; i++) putChunk(session, i, chunk(i), 204);
+        doThrow(new DataAccessResourceFailureException("database down")).when(fileRepository).save(any(File.class));
+
+        // When & Then
+        assertThatThrownBy(() -> uploadSessionService.complete(UUID.fromString(session), owner))
+                .isInstanceOf(DataAccessResourceFailureException.class);
+        assertThat(STORAGE.resolve(".uploads/" + session + ".part")).doesNotExist();
+        assertThat(sessionRepository.findById(UUID.fromString(session))).isEmpty();
+        mockMvc.perform(get("/api/files/uploads/" + session).with(as(owner))).andExpect(status().isNotFound());
+    }
+}
@@ -28,6 +28,8 @@ class FileMetadataDTOTest {
                 .extension(".txt")
                 .contentType("text/plain")
                 .size(1024L)
+                .contentEncoding("gzip")
+                .compressedSize(300L)
                 .owner(owner)
                 .isPublic(true)
                 .storedFileName("stored-test.txt")
@@ -45,6 +47,7 @@ class FileMetadataDTOTest {
         assertThat(dto.extension).isEqualTo(".txt");
         assertThat(dto.contentType).isEqualTo("text/plain");
         assertThat(dto.size).isEqualTo(1024L);
+        assertThat(dto.compressedSize).isEqualTo(300L);
         assertThat(dto.ownerId).isEqualTo(1L);
         assertThat(dto.isPublic).isTrue();
         assertThat(dto.storedFileName).isEqualTo("stored-test.txt");
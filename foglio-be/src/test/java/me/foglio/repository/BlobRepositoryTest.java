@@ -0,0 +1,55 @@
+package me.foglio.repository;
+
+import me.foglio.model.Blob;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@DisplayName("BlobRepository Tests")
+class BlobRepositoryTest {
+
+    @Autowired
+    private BlobRepository blobRepository;
+
+    @Test
+    @DisplayName("Should count references atomically and delete unreferenced blobs")
+    void shouldCountReferencesAndDeleteUnreferenced() {
+        // Given
+        blobRepository.save(Blob.builder().sha256("aa").size(10L).refCount(1L).storedFileName("cas/aa").build());
+
+        // When
+        int incremented = blobRepository.incrementRefCount("aa");
+        blobRepository.decrementRefCount("aa");
+        int deletedWhileReferenced = blobRepository.deleteUnreferenced("aa");
+        blobRepository.decrementRefCount("aa");
+        int deletedUnreferenced = blobRepository.deleteUnreferenced("aa");
+
+        // Then
+        assertThat(incremented).isEqualTo(1);
+        assertThat(deletedWhileReferenced).isZero();
+        assertThat(deletedUnreferenced).isEqualTo(1);
+        assertThat(blobRepository.findById("aa")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should not increment a missing blob")
+    void shouldNotIncrementMissingBlob() {
+        assertThat(blobRepository.incrementRefCount("missing")).isZero();
+    }
+
+    @Test
+    @DisplayName("Should sum logical and physical bytes")
+    void shouldSumLogicalAndPhysicalBytes() {
+        // Given
+        blobRepository.save(Blob.builder().sha256("aa").size(10L).refCount(3L).storedFileName("cas/aa").build());
+        blobRepository.save(Blob.builder().sha256("bb").size(5L).refCount(1L).storedFileName("cas/bb").build());
+
+        // When & Then
+        assertThat(blobRepository.physicalBytes()).isEqualTo(15L);
+        assertThat(blobRepository.logicalBytes()).isEqualTo(35L);
+    }
+}
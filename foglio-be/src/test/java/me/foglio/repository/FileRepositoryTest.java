@@ -1,17 +1,27 @@
 package me.foglio.repository;
 
 import me.foglio.model.File;
+import me.foglio.model.PendingDeletion;
 import me.foglio.model.User;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Limit;
 import org.springframework.test.context.jdbc.Sql;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 @DataJpaTest
 @DisplayName("FileRepository Tests")
@@ -23,37 +33,224 @@ class FileRepositoryTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private TestEntityManager entityManager;
+
     @Test
-    @DisplayName("Should find files by owner id")
-    void shouldFindFilesByOwnerId() {
+    @DisplayName("Should insert new files in one JDBC batch without selecting them first")
+    void shouldBatchInsertNewFiles() {
+        // Given
+        User owner = userRepository.save(User.builder().name("Test User").apiKey(UUID.randomUUID()).build());
+        List<File> files = IntStream.range(0, 5)
+                .mapToObj(i -> File.builder().id(UUID.randomUUID()).originalName("file" + i + ".txt").owner(owner).build())
+                .toList();
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+
+        // When
+        fileRepository.saveAll(files);
+        entityManager.flush();
+
+        // Then
+        try {
+            assertThat(statistics.getEntityInsertCount()).isEqualTo(5);
+            assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+            assertThat(files).noneMatch(File::isNew);
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    @Test
+    @DisplayName("Should add request counts in a batch without moving lastRequestedAt backwards")
+    void shouldAddRequestCounts() {
         // Given
         User owner = User.builder().name("Test User").apiKey(UUID.randomUUID()).build();
         userRepository.save(owner);
-
-        File file1 = File.builder().id(UUID.randomUUID()).originalName("file1.txt").owner(owner).build();
+        LocalDateTime later = LocalDateTime.of(2025, 6, 1, 12, 0);
+        File file1 = File.builder().id(UUID.randomUUID()).originalName("file1.txt").owner(owner).requestCount(5L).lastRequestedAt(later).build();
         File file2 = File.builder().id(UUID.randomUUID()).originalName("file2.txt").owner(owner).build();
         fileRepository.save(file1);
         fileRepository.save(file2);
+        entityManager.flush();
+        entityManager.clear();
+
+        // When
+        LocalDateTime earlier = later.minusDays(1);
+        fileRepository.addRequestCounts(List.of(
+                new FileRepositoryCustom.RequestCountDelta(file1.getId(), 3, earlier),
+                new FileRepositoryCustom.RequestCountDelta(file2.getId(), 2, earlier)));
+
+        // Then
+        File reloaded1 = fileRepository.findById(file1.getId()).orElseThrow();
+        File reloaded2 = fileRepository.findById(file2.getId()).orElseThrow();
+        assertThat(reloaded1.getRequestCount()).isEqualTo(8L);
+        assertThat(reloaded1.getLastRequestedAt()).isEqualTo(later);
+        assertThat(reloaded2.getRequestCount()).isEqualTo(2L);
+        assertThat(reloaded2.getLastRequestedAt()).isEqualTo(earlier);
+    }
+
+    @Test
+    @DisplayName("Should page through an owner's files by keyset, breaking createdAt ties by id")
+    void shouldPageByKeyset() {
+        // Given
+        User owner = User.builder().name("Test User").apiKey(UUID.randomUUID()).build();
+        User other = User.builder().name("Other User").apiKey(UUID.randomUUID()).build();
+        userRepository.save(owner);
+        userRepository.save(other);
+        LocalDateTime t = LocalDateTime.of(2025, 5, 1, 12, 0);
+        for (int i = 0; i < 5; i++) {
+            // two files per timestamp
+            fileRepository.save(File.builder().id(UUID.randomUUID()).originalName("f" + i).owner(owner).createdAt(t.plusMinutes(i / 2)).build());
+        }
+        fileRepository.save(File.builder().id(UUID.randomUUID()).originalName("foreign").owner(other).createdAt(t).build());
+        entityManager.flush();
+        entityManager.clear();
+
+        // When
+        List<File> seen = new ArrayList<>();
+        File last = null;
+        do {
+            List<File> page = fileRepository.findPage(new FileRepositoryCustom.FilePageQuery(owner.getId(), null, null, false,
+                    last != null ? last.getCreatedAt() : null, last != null ? last.getId() : null, 2));
+            seen.addAll(page);
+            last = page.size() == 2 ? page.get(1) : null;
+        } while (last != null);
+
+        // Then
+        assertThat(seen).extracting(File::getOriginalName).hasSize(5).doesNotContain("foreign").doesNotHaveDuplicates();
+        assertThat(seen).extracting(File::getCreatedAt).isSortedAccordingTo(Comparator.reverseOrder());
+    }
+
+    @Test
+    @DisplayName("Should filter pages by content type wildcard and visibility")
+    void shouldFilterPages() {
+        // Given
+        User owner = User.builder().name("Test User").apiKey(UUID.randomUUID()).build();
+        userRepository.save(owner);
+        fileRepository.save(File.builder().id(UUID.randomUUID()).originalName("a.png").contentType("image/png").isPublic(true).owner(owner).build());
+        fileRepository.save(File.builder().id(UUID.randomUUID()).originalName("b.jpg").contentType("image/jpeg").isPublic(false).owner(owner).build());
+        fileRepository.save(File.builder().id(UUID.randomUUID()).originalName("c.txt").contentType("text/plain").isPublic(true).owner(owner).build());
+        entityManager.flush();
+        entityManager.clear();
+
+        // When
+        List<File> images = fileRepository.findPage(new FileRepositoryCustom.FilePageQuery(owner.getId(), "image/*", null, true, null, null, 10));
+        List<File> publicImages = fileRepository.findPage(new FileRepositoryCustom.FilePageQuery(owner.getId(), "image/*", true, true, null, null, 10));
+        List<File> text = fileRepository.findPage(new FileRepositoryCustom.FilePageQuery(owner.getId(), "text/plain", null, true, null, null, 10));
+
+        // Then
+        assertThat(images).extracting(File::getOriginalName).containsExactlyInAnyOrder("a.png", "b.jpg");
+        assertThat(publicImages).extracting(File::getOriginalName).containsExactly("a.png");
+        assertThat(text).extracting(File::getOriginalName).containsExactly("c.txt");
+    }
+
+    @Test
+    @DisplayName("Should read pages and metadata with one select each, loading no entities")
+    void shouldReadWithoutLoadingEntities() {
+        // Given
+        List<User> owners = IntStream.range(0, 3)
+                .mapToObj(i -> userRepository.save(User.builder().name("User " + i).apiKey(UUID.randomUUID()).build()))
+                .toList();
+        List<File> files = IntStream.range(0, 30)
+                .mapToObj(i -> fileRepository.save(File.builder().id(UUID.randomUUID()).originalName("f" + i).sha256("ab")
+                        .storedFileName("f" + i).owner(owners.get(i % 3)).build()))
+                .toList();
+        entityManager.flush();
+        entityManager.clear();
+        Statistics statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+
+        // When
+        List<File> page = fileRepository.findPage(new FileRepositoryCustom.FilePageQuery(owners.get(0).getId(), null, null, false,
+                null, null, 20));
+        File metadata = fileRepository.findMetadata(files.get(1).getId()).orElseThrow();
+
+        // Then
+        try {
+            assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+            assertThat(statistics.getEntityLoadCount()).isZero();
+            assertThat(page).hasSize(10).extracting(f -> f.getOwner().getId()).containsOnly(owners.get(0).getId());
+            assertThat(metadata.getOriginalName()).isEqualTo("f1");
+            assertThat(metadata.getOwner().getId()).isEqualTo(owners.get(1).getId());
+            // an existing row: deleting this instance must not be skipped as new
+            assertThat(metadata.isNew()).isFalse();
+            assertThat(fileRepository.findMetadata(UUID.randomUUID())).isEmpty();
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    @Test
+    @DisplayName("Should page through flat stored names and rename them only from the expected name")
+    void shouldFindAndRenameFlatFiles() {
+        // Given
+        User owner = User.builder().name("Test User").apiKey(UUID.randomUUID()).build();
+        userRepository.save(owner);
+        UUID first = new UUID(0, 1);
+        UUID second = new UUID(0, 2);
+        fileRepository.save(File.builder().id(first).storedFileName("flat-1.txt").owner(owner).build());
+        fileRepository.save(File.builder().id(second).storedFileName("flat-2.txt").owner(owner).build());
+        fileRepository.save(File.builder().id(new UUID(0, 3)).storedFileName("ab/cd/sharded.txt").owner(owner).build());
+        entityManager.flush();
 
         // When
-        List<File> files = fileRepository.findByOwner_Id(owner.getId());
+        List<FileRepository.StoredName> page = fileRepository.findFlatAfter(new UUID(0, 0), Limit.of(1));
+        List<FileRepository.StoredName> next = fileRepository.findFlatAfter(page.get(0).getId(), Limit.of(10));
+        int renamed = fileRepository.renameStoredFile(first, "flat-1.txt", "fl/at/flat-1.txt");
+        int stale = fileRepository.renameStoredFile(second, "other.txt", "ot/he/other.txt");
 
         // Then
-        assertThat(files).hasSize(2);
-        assertThat(files).extracting(File::getOriginalName).containsExactlyInAnyOrder("file1.txt", "file2.txt");
+        assertThat(page).extracting(FileRepository.StoredName::getId).containsExactly(first);
+        assertThat(next).extracting(FileRepository.StoredName::getStoredFileName).containsExactly("flat-2.txt");
+        assertThat(renamed).isEqualTo(1);
+        assertThat(stale).isZero();
+        assertThat(fileRepository.countFlat()).isEqualTo(1);
+        assertThat(fileRepository.findById(first)).get().extracting(File::getStoredFileName).isEqualTo("fl/at/flat-1.txt");
     }
 
     @Test
-    @DisplayName("Should return empty list when no files for owner")
-    void shouldReturnEmptyListWhenNoFilesForOwner() {
+    @DisplayName("Should delete rows with set-based statements and queue their stored files")
+    void shouldDeleteAndQueue() {
         // Given
         User owner = User.builder().name("Test User").apiKey(UUID.randomUUID()).build();
+        User other = User.builder().name("Other User").apiKey(UUID.randomUUID()).build();
         userRepository.save(owner);
+        userRepository.save(other);
+        LocalDateTime cutoff = LocalDateTime.of(2025, 6, 1, 0, 0);
+        File oldImage = File.builder().id(UUID.randomUUID()).originalName("a.png").storedFileName("ab/cd/a.png")
+                .contentType("image/png").owner(owner).createdAt(cutoff.minusDays(1)).build();
+        File newImage = File.builder().id(UUID.randomUUID()).originalName("b.png").storedFileName("ab/cd/b.png")
+                .contentType("image/png").owner(owner).createdAt(cutoff.plusDays(1)).build();
+        File oldText = File.builder().id(UUID.randomUUID()).originalName("c.txt").storedFileName("cas/aa/bb/aabb")
+                .sha256("aabb").contentType("text/plain").owner(owner).createdAt(cutoff.minusDays(1)).build();
+        File othersImage = File.builder().id(UUID.randomUUID()).originalName("d.png").storedFileName("ab/cd/d.png")
+                .contentType("image/png").owner(other).createdAt(cutoff.minusDays(1)).build();
+        fileRepository.saveAll(List.of(oldImage, newImage, oldText, othersImage));
+        entityManager.flush();
+        entityManager.clear();
 
         // When
-        List<File> files = fileRepository.findByOwner_Id(owner.getId());
+        List<UUID> matching = fileRepository.findIds(new FileRepositoryCustom.FileFilter(owner.getId(), "image/*", null, cutoff));
+        List<FileRepository.OwnedId> owners = fileRepository.findOwners(List.of(oldText.getId(), othersImage.getId()));
+        int deleted = fileRepository.deleteAndQueue(List.of(oldImage.getId(), oldText.getId(), UUID.randomUUID()));
 
         // Then
-        assertThat(files).isEmpty();
+        assertThat(matching).containsExactly(oldImage.getId());
+        assertThat(owners).extracting(FileRepository.OwnedId::getOwnerId).containsExactlyInAnyOrder(owner.getId(), other.getId());
+        assertThat(deleted).isEqualTo(2);
+        assertThat(fileRepository.findAllById(List.of(oldImage.getId(), oldText.getId()))).isEmpty();
+        assertThat(fileRepository.findById(newImage.getId())).isPresent();
+        List<PendingDeletion> queued = entityManager.getEntityManager()
+                .createQuery("select p from PendingDeletion p", PendingDeletion.class).getResultList();
+        assertThat(queued).extracting(PendingDeletion::getFileId, PendingDeletion::getStoredFileName, PendingDeletion::getSha256)
+                .containsExactlyInAnyOrder(
+                        tuple(oldImage.getId(), "ab/cd/a.png", null),
+                        tuple(oldText.getId(), "cas/aa/bb/aabb", "aabb"));
+        assertThat(queued).allSatisfy(p -> assertThat(p.getAttempts()).isZero());
     }
 }
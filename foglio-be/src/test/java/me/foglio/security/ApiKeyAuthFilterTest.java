@@ -1,5 +1,6 @@
 package me.foglio.security;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.servlet.FilterChain;
 import me.foglio.model.User;
 import me.foglio.repository.UserRepository;
@@ -7,20 +8,23 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import java.time.Duration;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -28,16 +32,15 @@ import static org.mockito.Mockito.when;
 @DisplayName("ApiKeyAuthFilter Tests")
 class ApiKeyAuthFilterTest {
 
-    @Mock(lenient = true)
+    @Mock(strictness = Mock.Strictness.LENIENT)
     private ObjectProvider<UserRepository> userRepositoryProvider;
 
-    @Mock(lenient = true)
+    @Mock(strictness = Mock.Strictness.LENIENT)
     private UserRepository userRepository;
 
-    @Mock(lenient = true)
+    @Mock(strictness = Mock.Strictness.LENIENT)
     private FilterChain filterChain;
 
-    @InjectMocks
     private ApiKeyAuthFilter apiKeyAuthFilter;
 
     private MockHttpServletRequest request;
@@ -45,6 +48,8 @@ class ApiKeyAuthFilterTest {
 
     @BeforeEach
     void setUp() {
+        apiKeyAuthFilter = new ApiKeyAuthFilter(userRepositoryProvider, new SimpleMeterRegistry(),
+                100, Duration.ofMinutes(5), Duration.ofSeconds(30), Set.of());
         request = new MockHttpServletRequest();
         response = new MockHttpServletResponse();
         SecurityContextHolder.clearContext();
@@ -148,4 +153,73 @@ class ApiKeyAuthFilterTest {
         assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
         verify(userRepository, never()).findByApiKey(any());
     }
+
+    @Test
+    @DisplayName("Should serve repeated lookups of the same key from the cache")
+    void shouldCacheApiKeyLookups() throws Exception {
+        // Given
+        UUID apiKey = UUID.randomUUID();
+        User user = User.builder().id(1L).name("Test User").apiKey(apiKey).build();
+        when(userRepositoryProvider.getIfAvailable()).thenReturn(userRepository);
+        when(userRepository.findByApiKey(apiKey)).thenReturn(Optional.of(user));
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletRequest req = new MockHttpServletRequest();
+            req.addHeader("X-API-KEY", apiKey.toString());
+            apiKeyAuthFilter.doFilterInternal(req, response, filterChain);
+        }
+
+        // Then
+        verify(userRepository, times(1)).findByApiKey(apiKey);
+        assertThat(apiKeyAuthFilter.cacheStats().hitCount()).isEqualTo(2);
+        assertThat(SecurityContextHolder.getContext().getAuthentication().getPrincipal()).isEqualTo(user);
+    }
+
+    @Test
+    @DisplayName("Should cache unknown keys until they are invalidated")
+    void shouldCacheUnknownKeysUntilInvalidated() throws Exception {
+        // Given
+        UUID apiKey = UUID.randomUUID();
+        request.addHeader("X-API-KEY", apiKey.toString());
+        when(userRepositoryProvider.getIfAvailable()).thenReturn(userRepository);
+        when(userRepository.findByApiKey(apiKey)).thenReturn(Optional.empty());
+
+        // When
+        apiKeyAuthFilter.doFilterInternal(request, response, filterChain);
+        apiKeyAuthFilter.doFilterInternal(request, response, filterChain);
+        apiKeyAuthFilter.onApiKeyChanged(new ApiKeyChangedEvent(apiKey));
+        apiKeyAuthFilter.doFilterInternal(request, response, filterChain);
+
+        // Then
+        verify(userRepository, times(2)).findByApiKey(apiKey);
+        assertThat(SecurityContextHolder.getContext().getAuthentication()).isNull();
+    }
+
+    @Test
+    @DisplayName("Should grant the admin role only to configured api keys")
+    void shouldGrantAdminRoleToConfiguredKeys() throws Exception {
+        // Given
+        UUID adminKey = UUID.randomUUID();
+        UUID userKey = UUID.randomUUID();
+        ApiKeyAuthFilter filter = new ApiKeyAuthFilter(userRepositoryProvider, new SimpleMeterRegistry(),
+                100, Duration.ofMinutes(5), Duration.ofSeconds(30), Set.of(adminKey));
+        when(userRepositoryProvider.getIfAvailable()).thenReturn(userRepository);
+        when(userRepository.findByApiKey(adminKey)).thenReturn(Optional.of(User.builder().id(1L).apiKey(adminKey).build()));
+        when(userRepository.findByApiKey(userKey)).thenReturn(Optional.of(User.builder().id(2L).apiKey(userKey).build()));
+
+        // When
+        request.addHeader("X-API-KEY", adminKey.toString());
+        filter.doFilterInternal(request, response, filterChain);
+        Authentication admin = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        MockHttpServletRequest other = new MockHttpServletRequest();
+        other.addHeader("X-API-KEY", userKey.toString());
+        filter.doFilterInternal(other, response, filterChain);
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+
+        // Then
+        assertThat(admin.getAuthorities()).extracting(Object::toString).containsExactly("ROLE_ADMIN");
+        assertThat(user.getAuthorities()).isEmpty();
+    }
 }
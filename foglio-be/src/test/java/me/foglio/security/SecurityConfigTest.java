@@ -0,0 +1,87 @@
+package me.foglio.security;
+
+import me.foglio.model.User;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@DisplayName("SecurityConfig Tests")
+class SecurityConfigTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private final User testUser = User.builder().id(1L).name("Test User").apiKey(UUID.randomUUID()).build();
+
+    private RequestPostProcessor user() {
+        return authentication(new UsernamePasswordAuthenticationToken(testUser, null, Collections.emptyList()));
+    }
+
+    private RequestPostProcessor admin() {
+        return authentication(new UsernamePasswordAuthenticationToken(testUser, null,
+                List.of(new SimpleGrantedAuthority("ROLE_" + ApiKeyAuthFilter.ADMIN))));
+    }
+
+    @Test
+    @DisplayName("Should keep health open to anyone")
+    void shouldKeepHealthOpen() throws Exception {
+        // When & Then
+        mockMvc.perform(get("/actuator/health"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @DisplayName("Should refuse the storage layout migration to users without the admin role")
+    void shouldRestrictStorageLayoutToAdmins() throws Exception {
+        // When & Then
+        mockMvc.perform(post("/actuator/storagelayout").with(user()))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/storagelayout").with(user()))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/storagelayout"))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/storagelayout").with(admin()))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @DisplayName("Should refuse storage reconciliation findings and runs to users without the admin role")
+    void shouldRestrictReconciliationToAdmins() throws Exception {
+        // When & Then
+        mockMvc.perform(post("/actuator/reconciliation").param("quarantine", "true").with(user()))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/reconciliation").with(user()))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/reconciliation").with(admin()))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @DisplayName("Should serve metrics and the Prometheus scrape only to admins")
+    void shouldRestrictMetricsToAdmins() throws Exception {
+        // When & Then: Prometheus export is off in tests, so only the rejection is checked there
+        mockMvc.perform(get("/actuator/prometheus").with(user()))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/metrics").with(user()))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/metrics").with(admin()))
+                .andExpect(status().isOk());
+    }
+}
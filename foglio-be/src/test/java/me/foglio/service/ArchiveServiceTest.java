@@ -0,0 +1,250 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.foglio.model.File;
+import me.foglio.storage.StoredObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("ArchiveService Tests")
+class ArchiveServiceTest {
+
+    @Mock
+    private FileService fileService;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ArchiveService archiveService;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        archiveService = new ArchiveService(fileService, meterRegistry, List.of("image/*", "application/zip"), 3, 6);
+    }
+
+    private File file(String name, String contentType, byte[] content) throws Exception {
+        File f = File.builder().id(UUID.randomUUID()).originalName(name).contentType(contentType)
+                .size((long) content.length).createdAt(LocalDateTime.of(2025, 3, 14, 15, 9, 26)).build();
+        when(fileService.findContent(f)).thenReturn(Optional.of(StoredObject.ofBuffer(ByteBuffer.wrap(content), null)));
+        return f;
+    }
+
+    private static byte[] write(ArchiveService.Archive archive) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archive.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    @DisplayName("Should know the length of an archive of stored entries before writing it")
+    void shouldPrecomputeLengthOfStoredArchive() throws Exception {
+        // Given
+        ArchiveService.Archive archive = archiveService.prepare(List.of(
+                file("a.png", "image/png", new byte[]{1, 2, 3}),
+                file("bundle.zip", "application/zip", new byte[70_000])));
+
+        // When
+        byte[] zip = write(archive);
+
+        // Then
+        assertThat(archive.contentLength()).hasValue(zip.length);
+        assertThat(meterRegistry.get("foglio.transfer.bytes").tag("engine", "archive").counter().count()).isEqualTo(zip.length);
+        try (ZipFile read = new ZipFile(Files.write(dir.resolve("a.zip"), zip).toFile())) {
+            ZipEntry entry = read.getEntry("bundle.zip");
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(entry.getSize()).isEqualTo(70_000);
+            assertThat(entry.getTimeLocal()).isEqualTo(LocalDateTime.of(2025, 3, 14, 15, 9, 26));
+            assertThat(read.getInputStream(entry).readAllBytes()).hasSize(70_000);
+        }
+    }
+
+    @Test
+    @DisplayName("Should deflate other entries, decoding files compressed at rest, and leave the length open")
+    void shouldDeflateAndDecode() throws Exception {
+        // Given
+        byte[] text = "hello archive ".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        File encoded = File.builder().id(UUID.randomUUID()).originalName("log.txt").contentType("text/plain")
+                .size((long) text.length).contentEncoding(CompressionPolicy.GZIP).build();
+        byte[] gzipped;
+        try (InputStream in = new CompressionPolicy(new SimpleMeterRegistry(), true,
+                List.of("text/*"), DataSize.ofBytes(1), 6).compress(new ByteArrayInputStream(text))) {
+            gzipped = in.readAllBytes();
+        }
+        when(fileService.findContent(encoded)).thenReturn(Optional.of(StoredObject.ofBuffer(ByteBuffer.wrap(gzipped), null)));
+
+        // When
+        ArchiveService.Archive archive = archiveService.prepare(List.of(encoded, file("b.png", "image/png", new byte[]{9})));
+        byte[] zip = write(archive);
+
+        // Then
+        assertThat(archive.contentLength()).isEmpty();
+        try (ZipFile read = new ZipFile(Files.write(dir.resolve("b.zip"), zip).toFile())) {
+            ZipEntry entry = read.getEntry("log.txt");
+            assertThat(entry.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(entry.getCompressedSize()).isLessThan(text.length / 10);
+            assertThat(read.getInputStream(entry).readAllBytes()).isEqualTo(text);
+        }
+    }
+
+    @Test
+    @DisplayName("Should flatten paths out of entry names and number repeated names")
+    void shouldMakeSafeUniqueNames() {
+        // Given
+        Set<String> taken = new HashSet<>();
+        File traversal = File.builder().id(UUID.randomUUID()).originalName("../../etc/passwd").build();
+        File windows = File.builder().id(UUID.randomUUID()).originalName("C:\\Users\\me\\report.pdf").build();
+        File dots = File.builder().id(UUID.randomUUID()).originalName("..").build();
+
+        // When & Then
+        assertThat(ArchiveService.entryName(traversal)).isEqualTo("passwd");
+        assertThat(ArchiveService.entryName(windows)).isEqualTo("report.pdf");
+        assertThat(ArchiveService.entryName(dots)).isEqualTo(dots.getId().toString());
+        assertThat(ArchiveService.uniqueName("report.pdf", taken)).isEqualTo("report.pdf");
+        assertThat(ArchiveService.uniqueName("Report.pdf", taken)).isEqualTo("Report (2).pdf");
+        assertThat(ArchiveService.uniqueName("report.pdf", taken)).isEqualTo("report (3).pdf");
+    }
+
+    @Test
+    @DisplayName("Should reject archives over the entry limit or with a missing body")
+    void shouldRejectTooManyOrMissing() throws Exception {
+        // Given
+        File missing = File.builder().id(UUID.randomUUID()).originalName("gone.txt").build();
+        when(fileService.findContent(any())).thenReturn(Optional.empty());
+
+        // When & Then
+        assertThatThrownBy(() -> archiveService.prepare(List.of(missing, missing, missing, missing)))
+                .isInstanceOf(ResponseStatusException.class).hasMessageContaining("At most 3");
+        assertThatThrownBy(() -> archiveService.prepare(List.of(missing)))
+                .isInstanceOf(ResponseStatusException.class).hasMessageContaining("404");
+    }
+
+    @Test
+    @DisplayName("Should switch to ZIP64 records past 65535 entries")
+    void shouldWriteZip64EndRecords() throws Exception {
+        // Given
+        List<ZipStreamWriter.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 70_000; i++) {
+            entries.add(new ZipStreamWriter.Entry("f" + i, false, 1, null, StoredObject.ofBuffer(ByteBuffer.wrap(new byte[]{(byte) i}), null)));
+        }
+        Path zip = dir.resolve("many.zip");
+
+        // When
+        try (OutputStream out = Files.newOutputStream(zip)) {
+            ZipStreamWriter.write(entries, 6, out);
+        }
+
+        // Then
+        assertThat(Files.size(zip)).isEqualTo(ZipStreamWriter.length(entries));
+        try (ZipFile read = new ZipFile(zip.toFile())) {
+            assertThat(read.size()).isEqualTo(70_000);
+            assertThat(read.getInputStream(read.getEntry("f69999")).readAllBytes()).containsExactly((byte) 69_999);
+        }
+    }
+
+    @Test
+    @DisplayName("Should write a stored entry over 4 GiB with ZIP64 sizes, as long as precomputed")
+    void shouldWriteZip64Entry() throws Exception {
+        // Given: 4 GiB + 1 of zeros, streamed rather than held
+        long size = (1L << 32) + 1;
+        StoredObject zeros = StoredObject.ofRemote(size, null, (offset, length) -> new InputStream() {
+            private long remaining = length;
+
+            @Override
+            public int read() {
+                return remaining-- > 0 ? 0 : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (remaining <= 0) return -1;
+                int n = (int) Math.min(len, remaining);
+                Arrays.fill(b, off, off + n, (byte) 0);
+                remaining -= n;
+                return n;
+            }
+        });
+        List<ZipStreamWriter.Entry> entries = List.of(
+                new ZipStreamWriter.Entry("zeros.bin", false, size, null, zeros),
+                new ZipStreamWriter.Entry("after.txt", false, 2, null, StoredObject.ofBuffer(ByteBuffer.wrap(new byte[]{'o', 'k'}), null)));
+        Tail tail = new Tail(4096);
+
+        // When
+        ZipStreamWriter.write(entries, 6, tail);
+
+        // Then: the central directory at the end records both entries with 64-bit sizes and offsets
+        assertThat(tail.count).isEqualTo(ZipStreamWriter.length(entries));
+        String directory = new String(tail.bytes(), StandardCharsets.ISO_8859_1);
+        assertThat(directory).contains("zeros.bin").contains("after.txt");
+        ByteBuffer end = ByteBuffer.wrap(tail.bytes()).order(ByteOrder.LITTLE_ENDIAN);
+        int zip64End = directory.lastIndexOf("PK\u0006\u0006");
+        assertThat(zip64End).isPositive();
+        assertThat(end.getLong(zip64End + 48)).isEqualTo(size + 30 + 9 + 20 + 24 + 30 + 9 + 2 + 16);
+        CRC32 crc = new CRC32();
+        crc.update(new byte[]{'o', 'k'});
+        int afterHeader = directory.lastIndexOf("PK\u0001\u0002");
+        assertThat(end.getInt(afterHeader + 16)).isEqualTo((int) crc.getValue());
+    }
+
+    // keeps the last bytes written and counts the rest
+    private static final class Tail extends OutputStream {
+
+        private final byte[] ring;
+        private long count;
+
+        Tail(int size) {
+            this.ring = new byte[size];
+        }
+
+        @Override
+        public void write(int b) {
+            ring[(int) (count++ % ring.length)] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = Math.max(0, len - ring.length); i < len; i++) ring[(int) ((count + i) % ring.length)] = b[off + i];
+            count += len;
+        }
+
+        byte[] bytes() {
+            byte[] out = new byte[ring.length];
+            for (int i = 0; i < ring.length; i++) out[i] = ring[(int) ((count + i) % ring.length)];
+            return out;
+        }
+    }
+}
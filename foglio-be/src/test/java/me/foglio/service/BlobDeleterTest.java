@@ -0,0 +1,99 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.foglio.model.PendingDeletion;
+import me.foglio.repository.PendingDeletionRepository;
+import me.foglio.storage.StorageBackend;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@DisplayName("BlobDeleter Tests")
+class BlobDeleterTest {
+
+    @Autowired
+    private PendingDeletionRepository queue;
+
+    private final StorageBackend storage = mock(StorageBackend.class);
+    private final ContentAddressedStore contentStore = mock(ContentAddressedStore.class);
+    private final ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+    private BlobDeleter deleter;
+
+    @BeforeEach
+    void setUp() {
+        queue.deleteAll();
+        deleter = new BlobDeleter(queue, storage, contentStore, eventPublisher, new SimpleMeterRegistry(), 2, Duration.ofMinutes(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        deleter.shutdown();
+    }
+
+    private PendingDeletion enqueue(String storedFileName, String sha256) {
+        return queue.save(PendingDeletion.builder().fileId(UUID.randomUUID()).storedFileName(storedFileName).sha256(sha256).build());
+    }
+
+    @Test
+    @DisplayName("Should remove queued files, release shared blobs and announce each deletion")
+    void shouldDrainQueue() throws Exception {
+        // Given: more entries than one batch
+        PendingDeletion flat = enqueue("legacy.txt", null);
+        enqueue("ab/cd/abcd.png", null);
+        enqueue("cas/aa/bb/aabb", "aabb");
+
+        // When
+        int removed = deleter.drain();
+
+        // Then
+        assertThat(removed).isEqualTo(3);
+        assertThat(queue.count()).isZero();
+        verify(storage).delete("legacy.txt");
+        verify(storage).delete(StorageLayout.sharded("legacy.txt"));
+        verify(storage).delete("ab/cd/abcd.png");
+        verify(storage, never()).delete("cas/aa/bb/aabb");
+        verify(contentStore).release("aabb");
+        verify(eventPublisher).publishEvent(argThat((Object e) -> e instanceof FileDeletedEvent d
+                && d.file().getId().equals(flat.getFileId())));
+    }
+
+    @Test
+    @DisplayName("Should keep failed entries queued and retry them later")
+    void shouldRetryFailedDeletes() throws Exception {
+        // Given
+        PendingDeletion entry = enqueue("ab/cd/abcd.png", null);
+        doThrow(new IOException("storage unavailable")).when(storage).delete("ab/cd/abcd.png");
+
+        // When
+        int removed = deleter.drain();
+
+        // Then
+        assertThat(removed).isZero();
+        PendingDeletion retried = queue.findById(entry.getFileId()).orElseThrow();
+        assertThat(retried.getAttempts()).isEqualTo(1);
+        assertThat(retried.getLastError()).isEqualTo("storage unavailable");
+        assertThat(retried.getNotBefore()).isAfter(LocalDateTime.now().plusSeconds(30));
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
+    }
+}
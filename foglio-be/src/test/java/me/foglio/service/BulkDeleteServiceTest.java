@@ -0,0 +1,101 @@
+package me.foglio.service;
+
+import me.foglio.model.User;
+import me.foglio.repository.FileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("BulkDeleteService Tests")
+class BulkDeleteServiceTest {
+
+    @Mock
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileMetadataCache metadataCache;
+
+    @Mock
+    private HotObjectCache hotObjects;
+
+    @Mock
+    private BlobDeleter blobDeleter;
+
+    private BulkDeleteService bulkDeleteService;
+
+    private final User owner = User.builder().id(1L).name("Owner").build();
+
+    @BeforeEach
+    void setUp() {
+        bulkDeleteService = new BulkDeleteService(fileRepository, metadataCache, hotObjects, blobDeleter, 3);
+    }
+
+    private static FileRepository.OwnedId owned(UUID id, Long ownerId) {
+        return new FileRepository.OwnedId() {
+            @Override
+            public UUID getId() {
+                return id;
+            }
+
+            @Override
+            public Long getOwnerId() {
+                return ownerId;
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("Should delete the caller's files, report missing ids and wake the deleter")
+    void shouldDeleteOwnedFiles() {
+        // Given
+        UUID mine = UUID.randomUUID();
+        UUID missing = UUID.randomUUID();
+        when(fileRepository.findOwners(any())).thenReturn(List.of(owned(mine, 1L)));
+        when(fileRepository.deleteAndQueue(List.of(mine))).thenReturn(1);
+
+        // When
+        BulkDeleteService.Result result = bulkDeleteService.deleteByIds(List.of(mine, missing, mine), owner);
+
+        // Then
+        assertThat(result.deleted()).isEqualTo(1);
+        assertThat(result.notFound()).containsExactly(missing);
+        verify(metadataCache).invalidate(mine);
+        verify(hotObjects).invalidate(mine);
+        verify(blobDeleter).wakeUp();
+    }
+
+    @Test
+    @DisplayName("Should delete nothing when any file belongs to someone else")
+    void shouldRejectOthersFiles() {
+        // Given
+        UUID mine = UUID.randomUUID();
+        UUID theirs = UUID.randomUUID();
+        when(fileRepository.findOwners(any())).thenReturn(List.of(owned(mine, 1L), owned(theirs, 2L)));
+
+        // When & Then
+        assertThatThrownBy(() -> bulkDeleteService.deleteByIds(List.of(mine, theirs), owner))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN));
+        verify(fileRepository, never()).deleteAndQueue(any());
+        assertThatThrownBy(() -> bulkDeleteService.deleteByIds(
+                List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()), owner))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("At most 3");
+    }
+}
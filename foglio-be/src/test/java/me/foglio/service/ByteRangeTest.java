@@ -0,0 +1,56 @@
+package me.foglio.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("ByteRange Tests")
+class ByteRangeTest {
+
+    @Test
+    @DisplayName("Should parse closed, open and suffix ranges")
+    void shouldParseClosedOpenAndSuffixRanges() {
+        assertThat(ByteRange.parse("bytes=0-99", 1000)).containsExactly(new ByteRange(0, 99));
+        assertThat(ByteRange.parse("bytes=900-", 1000)).containsExactly(new ByteRange(900, 999));
+        assertThat(ByteRange.parse("bytes=-100", 1000)).containsExactly(new ByteRange(900, 999));
+        assertThat(ByteRange.parse("bytes=-5000", 1000)).containsExactly(new ByteRange(0, 999));
+    }
+
+    @Test
+    @DisplayName("Should clamp end past the representation length")
+    void shouldClampEndPastLength() {
+        assertThat(ByteRange.parse("bytes=500-5000", 1000)).containsExactly(new ByteRange(500, 999));
+    }
+
+    @Test
+    @DisplayName("Should coalesce overlapping and adjacent ranges")
+    void shouldCoalesceOverlappingRanges() {
+        // When
+        List<ByteRange> ranges = ByteRange.parse("bytes=200-299, 0-99,100-150,250-400", 1000);
+
+        // Then
+        assertThat(ranges).containsExactly(new ByteRange(0, 150), new ByteRange(200, 400));
+    }
+
+    @Test
+    @DisplayName("Should return empty list when no range is satisfiable")
+    void shouldReturnEmptyWhenUnsatisfiable() {
+        assertThat(ByteRange.parse("bytes=1000-1999", 1000)).isEmpty();
+        assertThat(ByteRange.parse("bytes=-0", 1000)).isEmpty();
+        assertThat(ByteRange.parse("bytes=0-10", 0)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should reject malformed headers")
+    void shouldRejectMalformedHeaders() {
+        assertThatThrownBy(() -> ByteRange.parse("items=0-1", 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ByteRange.parse("bytes=5-1", 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ByteRange.parse("bytes=+1-2", 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ByteRange.parse("bytes=", 10)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ByteRange.parse("bytes=" + "1-2,".repeat(101), 10)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
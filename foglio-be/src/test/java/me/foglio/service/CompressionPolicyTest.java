@@ -0,0 +1,98 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.foglio.model.File;
+import me.foglio.storage.StoredObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("CompressionPolicy Tests")
+class CompressionPolicyTest {
+
+    private final CompressionPolicy policy = new CompressionPolicy(new SimpleMeterRegistry(), true,
+            List.of("text/*", "application/json"), DataSize.ofKilobytes(1), 6);
+
+    @Test
+    @DisplayName("Should match content types against the configured patterns")
+    void shouldMatchContentTypes() {
+        assertThat(policy.appliesTo("text/csv")).isTrue();
+        assertThat(policy.appliesTo("text/plain; charset=UTF-8")).isTrue();
+        assertThat(policy.appliesTo("application/json")).isTrue();
+        assertThat(policy.appliesTo("application/octet-stream")).isFalse();
+        assertThat(policy.appliesTo("not a type")).isFalse();
+        assertThat(policy.appliesTo(null)).isFalse();
+        assertThat(new CompressionPolicy(new SimpleMeterRegistry(), false, List.of("text/*"), DataSize.ofKilobytes(1), 6)
+                .appliesTo("text/csv")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should produce a gzip stream any gzip decoder reads back")
+    void shouldRoundTripThroughGzip() throws Exception {
+        // Given: compressible text with some noise, larger than the codec's buffers
+        StringBuilder log = new StringBuilder();
+        Random random = new Random(7);
+        while (log.length() < 300_000) {
+            log.append("2025-01-01T10:00:00Z INFO request ").append(random.nextInt(100_000)).append(" served\n");
+        }
+        byte[] content = log.toString().getBytes(StandardCharsets.UTF_8);
+
+        // When
+        CompressionPolicy.Encoded encoded = policy.encode("text/plain", new ByteArrayInputStream(content));
+        byte[] compressed;
+        try (InputStream in = encoded.stream()) {
+            compressed = in.readAllBytes();
+        }
+
+        // Then
+        assertThat(encoded.encoding()).isEqualTo(CompressionPolicy.GZIP);
+        assertThat(compressed.length).isLessThan(content.length / 3);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    @DisplayName("Should store uploads shorter than the minimum size as they come")
+    void shouldNotCompressShortUploads() throws Exception {
+        // When
+        CompressionPolicy.Encoded encoded = policy.encode("text/plain", new ByteArrayInputStream("short".getBytes(StandardCharsets.UTF_8)));
+
+        // Then
+        assertThat(encoded.encoding()).isNull();
+        assertThat(encoded.stream()).hasContent("short");
+    }
+
+    @Test
+    @DisplayName("Should read ranges of the logical content from compressed bytes")
+    void shouldDecodeRanges() throws Exception {
+        // Given
+        byte[] content = "0123456789abcdefghijklmnopqrstuvwxyz".repeat(100).getBytes(StandardCharsets.UTF_8);
+        byte[] compressed;
+        try (InputStream in = policy.compress(new ByteArrayInputStream(content))) {
+            compressed = in.readAllBytes();
+        }
+        File file = File.builder().size((long) content.length).contentEncoding(CompressionPolicy.GZIP).build();
+        StoredObject stored = StoredObject.ofRemote(compressed.length, null,
+                (offset, length) -> new ByteArrayInputStream(compressed, (int) offset, (int) length));
+
+        // When
+        StoredObject decoded = CompressionPolicy.decoded(stored, file);
+
+        // Then
+        assertThat(decoded.size()).isEqualTo(content.length);
+        try (InputStream in = decoded.open(1000, 36)) {
+            assertThat(in.readNBytes(36)).isEqualTo(Arrays.copyOfRange(content, 1000, 1036));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.foglio.model.Blob;
+import me.foglio.repository.BlobRepository;
+import me.foglio.storage.LocalStorageBackend;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("ContentAddressedStore Tests")
+class ContentAddressedStoreTest {
+
+    private static final String SHA = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private BlobRepository blobRepository;
+
+    @TempDir
+    Path storage;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ContentAddressedStore store;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        store = new ContentAddressedStore(blobRepository, new LocalStorageBackend(storage.toString(), DataSize.ofKilobytes(64)),
+                meterRegistry, storage.toString(), true);
+    }
+
+    @Test
+    @DisplayName("Should move a new blob into the sharded content-addressed path")
+    void shouldMoveNewBlobIntoPlace() throws Exception {
+        // Given
+        Path upload = store.tempFile();
+        Files.writeString(upload, "hello");
+        when(blobRepository.incrementRefCount(SHA)).thenReturn(0);
+        when(blobRepository.save(any(Blob.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        // When
+        String name = store.commit(upload, SHA, 5, null).getStoredFileName();
+
+        // Then
+        assertThat(name).isEqualTo("cas/2c/f2/" + SHA);
+        assertThat(Files.readString(storage.resolve(name))).isEqualTo("hello");
+        assertThat(upload).doesNotExist();
+        ArgumentCaptor<Blob> blob = ArgumentCaptor.forClass(Blob.class);
+        verify(blobRepository).save(blob.capture());
+        assertThat(blob.getValue().getRefCount()).isEqualTo(1L);
+        assertThat(blob.getValue().getSize()).isEqualTo(5L);
+    }
+
+    @Test
+    @DisplayName("Should drop the upload when the blob already exists")
+    void shouldDropDuplicateUpload() throws Exception {
+        // Given
+        Path upload = store.tempFile();
+        Files.writeString(upload, "hello");
+        when(blobRepository.incrementRefCount(SHA)).thenReturn(1);
+        when(blobRepository.findById(SHA)).thenReturn(Optional.of(Blob.builder().sha256(SHA).storedFileName("cas/2c/f2/" + SHA)
+                .contentEncoding(CompressionPolicy.GZIP).compressedSize(25L).build()));
+
+        // When
+        Blob blob = store.commit(upload, SHA, 5, null);
+        String name = blob.getStoredFileName();
+
+        // Then
+        assertThat(name).isEqualTo("cas/2c/f2/" + SHA);
+        assertThat(upload).doesNotExist();
+        // the existing blob's encoding wins over the upload's
+        assertThat(blob.getContentEncoding()).isEqualTo(CompressionPolicy.GZIP);
+        verify(blobRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Should delete the physical blob only when its last reference goes")
+    void shouldDeleteBlobOnLastRelease() throws Exception {
+        // Given
+        Path blob = storage.resolve("cas/2c/f2/" + SHA);
+        Files.createDirectories(blob.getParent());
+        Files.writeString(blob, "hello");
+        when(blobRepository.deleteUnreferenced(SHA)).thenReturn(0, 1);
+
+        // When & Then
+        store.release(SHA);
+        assertThat(blob).exists();
+        store.release(SHA);
+        assertThat(blob).doesNotExist();
+    }
+
+    @Test
+    @DisplayName("Should expose the dedup ratio")
+    void shouldExposeDedupRatio() {
+        // Given
+        when(blobRepository.physicalBytes()).thenReturn(100L);
+        when(blobRepository.logicalBytes()).thenReturn(250L);
+
+        // When & Then
+        assertThat(meterRegistry.get("foglio.storage.dedup.ratio").gauge().value()).isEqualTo(2.5);
+    }
+}
@@ -0,0 +1,366 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.foglio.model.File;
+import me.foglio.storage.StoredObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("DownloadService Tests")
+class DownloadServiceTest {
+
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+    private static final String SHA256 = "9a2d1a1b30e4e2fb0b1d8f1a35e7e54f5c3a1b1d0f3e2d4c5b6a798877665544";
+
+    @TempDir
+    Path tempDir;
+
+    private final DownloadService downloadService = new DownloadService(new TransferEngine(new SimpleMeterRegistry(),
+            TransferEngine.Mode.SENDFILE, DataSize.ofMegabytes(8), DataSize.ofKilobytes(64), DataSize.ofKilobytes(48)), Duration.ofDays(365));
+
+    private Path path;
+    private File file;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        path = tempDir.resolve("stored.txt");
+        Files.writeString(path, CONTENT);
+        Files.setLastModifiedTime(path, FileTime.from(Instant.parse("2025-01-01T10:00:00Z")));
+        file = File.builder().id(UUID.randomUUID()).originalName("a.txt").contentType("text/plain").size((long) CONTENT.length())
+                .createdAt(LocalDateTime.ofInstant(Instant.parse("2025-01-01T10:00:00Z"), ZoneId.systemDefault())).build();
+        request = new MockHttpServletRequest("GET", "/api/files/x/download");
+        response = new MockHttpServletResponse();
+    }
+
+    @Test
+    @DisplayName("Should send full body and advertise byte ranges")
+    void shouldSendFullBody() throws Exception {
+        // When
+        downloadService.send(file, path, "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+        assertThat(response.getContentLengthLong()).isEqualTo(CONTENT.length());
+    }
+
+    @Test
+    @DisplayName("Should send a single range as 206")
+    void shouldSendSingleRange() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-15");
+
+        // When
+        downloadService.send(file, path, "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 10-15/36");
+        assertThat(response.getContentAsString()).isEqualTo("abcdef");
+        assertThat(response.getContentLengthLong()).isEqualTo(6);
+    }
+
+    @Test
+    @DisplayName("Should send multiple ranges as multipart/byteranges")
+    void shouldSendMultipleRanges() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1,-2");
+
+        // When
+        downloadService.send(file, path, "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentType()).startsWith("multipart/byteranges; boundary=");
+        String body = response.getContentAsString(StandardCharsets.US_ASCII);
+        assertThat(body).contains("Content-Range: bytes 0-1/36\r\n\r\n01\r\n");
+        assertThat(body).contains("Content-Range: bytes 34-35/36\r\n\r\nyz\r\n");
+        assertThat(response.getContentLengthLong()).isEqualTo(response.getContentAsByteArray().length);
+    }
+
+    @Test
+    @DisplayName("Should answer 416 for unsatisfiable ranges")
+    void shouldAnswer416ForUnsatisfiableRanges() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-200");
+
+        // When
+        downloadService.send(file, path, "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */36");
+    }
+
+    @Test
+    @DisplayName("Should ignore the range when If-Range does not match")
+    void shouldIgnoreRangeWhenIfRangeDoesNotMatch() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, "Wed, 01 Jan 2020 00:00:00 GMT");
+
+        // When
+        downloadService.send(file, path, "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    @DisplayName("Should honour the range when If-Range matches Last-Modified")
+    void shouldHonourRangeWhenIfRangeMatches() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, "Wed, 01 Jan 2025 10:00:00 GMT");
+
+        // When
+        downloadService.send(file, path, "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsString()).isEqualTo("01");
+    }
+
+    @Test
+    @DisplayName("Should expose the content digest as a strong ETag and the upload time as Last-Modified")
+    void shouldExposeValidators() throws Exception {
+        // Given
+        File stored = digested(false);
+
+        // When
+        downloadService.send(stored, path, "attachment", request, response);
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + SHA256 + "\"");
+        assertThat(response.getDateHeader(HttpHeaders.LAST_MODIFIED)).isEqualTo(Instant.parse("2025-03-01T08:30:00Z").toEpochMilli());
+        assertThat(response.getHeader(HttpHeaders.CACHE_CONTROL)).isEqualTo("private, no-cache");
+    }
+
+    @Test
+    @DisplayName("Should mark public file bodies as immutable")
+    void shouldMarkPublicBodiesImmutable() throws Exception {
+        // When
+        downloadService.send(digested(true), path, "inline", request, response);
+
+        // Then
+        assertThat(response.getHeader(HttpHeaders.CACHE_CONTROL)).isEqualTo("max-age=31536000, public, immutable");
+    }
+
+    @Test
+    @DisplayName("Should answer 304 when If-None-Match matches the ETag")
+    void shouldAnswer304ForMatchingIfNoneMatch() {
+        // Given
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", \"" + SHA256 + "\"");
+
+        // When
+        boolean notModified = downloadService.checkNotModified(digested(false), request, response);
+
+        // Then
+        assertThat(notModified).isTrue();
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + SHA256 + "\"");
+        assertThat(response.getHeader(HttpHeaders.CACHE_CONTROL)).isEqualTo("private, no-cache");
+    }
+
+    @Test
+    @DisplayName("Should answer 304 when If-Modified-Since is not older than the upload")
+    void shouldAnswer304ForIfModifiedSince() {
+        // Given
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, "Sat, 01 Mar 2025 08:30:00 GMT");
+
+        // When
+        boolean notModified = downloadService.checkNotModified(digested(true), request, response);
+
+        // Then
+        assertThat(notModified).isTrue();
+        assertThat(response.getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    @DisplayName("Should not short-circuit when the ETag differs")
+    void shouldNotShortCircuitForStaleETag() {
+        // Given
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"stale\"");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, "Sat, 01 Mar 2025 08:30:00 GMT");
+
+        // When
+        boolean notModified = downloadService.checkNotModified(digested(false), request, response);
+
+        // Then
+        assertThat(notModified).isFalse();
+        assertThat(response.getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    @DisplayName("Should honour the range when If-Range carries the current ETag")
+    void shouldHonourRangeWhenIfRangeETagMatches() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"" + SHA256 + "\"");
+
+        // When
+        downloadService.send(digested(false), path, "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsString()).isEqualTo("01");
+    }
+
+    @Test
+    @DisplayName("Should ignore the range when If-Range carries a weak ETag")
+    void shouldIgnoreRangeForWeakIfRange() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, "W/\"" + SHA256 + "\"");
+
+        // When
+        downloadService.send(digested(false), path, "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    @DisplayName("Should give derived renditions their own ETag and content type")
+    void shouldTagRenditionsSeparately() throws Exception {
+        // Given
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"" + SHA256 + "\"");
+
+        // When
+        boolean notModified = downloadService.checkNotModified(digested(true), "w256", request, response);
+        downloadService.send(digested(true), "w256", "image/png", path, "inline", request, response);
+
+        // Then
+        assertThat(notModified).isFalse();
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + SHA256 + "-w256\"");
+        assertThat(response.getContentType()).isEqualTo("image/png");
+    }
+
+    private File digested(boolean isPublic) {
+        return file.toBuilder()
+                .sha256(SHA256)
+                .isPublic(isPublic)
+                .createdAt(LocalDateTime.ofInstant(Instant.parse("2025-03-01T08:30:00Z"), ZoneId.systemDefault()))
+                .build();
+    }
+
+    private Path gzipped() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(CONTENT.getBytes(StandardCharsets.UTF_8));
+        }
+        file.setSha256(SHA256);
+        file.setContentEncoding(CompressionPolicy.GZIP);
+        file.setCompressedSize((long) bytes.size());
+        return Files.write(tempDir.resolve("stored.txt.gz"), bytes.toByteArray());
+    }
+
+    @Test
+    @DisplayName("Should pass compressed bytes through to clients accepting gzip")
+    void shouldSendCompressedRepresentation() throws Exception {
+        // Given
+        Path stored = gzipped();
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "br;q=1.0, gzip;q=0.8");
+
+        // When
+        downloadService.send(file, stored, "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(response.getHeader(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + SHA256 + "-gzip\"");
+        assertThat(response.getContentLengthLong()).isEqualTo(file.getCompressedSize());
+        assertThat(response.getContentAsByteArray()).isEqualTo(Files.readAllBytes(stored));
+    }
+
+    @Test
+    @DisplayName("Should decode compressed files for clients not accepting gzip, ranges included")
+    void shouldDecodeForIdentityClients() throws Exception {
+        // Given
+        Path stored = gzipped();
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, identity");
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-15");
+
+        // When
+        downloadService.send(file, stored, "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(response.getHeader(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + SHA256 + "\"");
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 10-15/36");
+        assertThat(response.getContentAsString()).isEqualTo("abcdef");
+    }
+
+    @Test
+    @DisplayName("Should validate conditional requests against the negotiated representation")
+    void shouldMatchEtagOfNegotiatedRepresentation() throws Exception {
+        // Given
+        gzipped();
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"" + SHA256 + "\"");
+
+        // When
+        boolean notModified = downloadService.checkNotModified(file, request, response);
+
+        // Then
+        assertThat(notModified).isFalse();
+        assertThat(response.getHeader(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+    }
+
+    @Test
+    @DisplayName("Should parse Accept-Encoding quality values")
+    void shouldParseAcceptEncoding() {
+        assertThat(DownloadService.acceptsEncoding("gzip, deflate, br", "gzip")).isTrue();
+        assertThat(DownloadService.acceptsEncoding("x-gzip", "gzip")).isTrue();
+        assertThat(DownloadService.acceptsEncoding("*;q=0.1", "gzip")).isTrue();
+        assertThat(DownloadService.acceptsEncoding("gzip;q=0, *", "gzip")).isFalse();
+        assertThat(DownloadService.acceptsEncoding("identity", "gzip")).isFalse();
+        assertThat(DownloadService.acceptsEncoding(null, "gzip")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should send ranges of in-memory objects from their buffer")
+    void shouldSendFromBuffer() throws Exception {
+        // Given
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CONTENT.length());
+        buffer.put(CONTENT.getBytes(StandardCharsets.UTF_8)).flip();
+        request.addHeader(HttpHeaders.RANGE, "bytes=10-15");
+
+        // When
+        downloadService.send(file, StoredObject.ofBuffer(buffer, null), "attachment", request, response);
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsString()).isEqualTo("abcdef");
+        assertThat(buffer.position()).isZero();
+    }
+}
@@ -0,0 +1,130 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.foglio.model.File;
+import me.foglio.repository.FileRepositoryCustom.RequestCountDelta;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("FileMetadataCache Tests")
+class FileMetadataCacheTest {
+
+    private final FileMetadataCache cache = new FileMetadataCache(new SimpleMeterRegistry(), 100, Duration.ofMinutes(10));
+
+    @Test
+    @DisplayName("Should load a file once and serve it from the cache afterwards")
+    void shouldLoadOnce() {
+        // Given
+        File file = File.builder().id(UUID.randomUUID()).originalName("a.txt").build();
+        AtomicInteger loads = new AtomicInteger();
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            cache.get(file.getId(), id -> {
+                loads.incrementAndGet();
+                return Optional.of(file);
+            });
+        }
+
+        // Then
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    @DisplayName("Should not cache missing files")
+    void shouldNotCacheMissingFiles() {
+        // Given
+        UUID id = UUID.randomUUID();
+        AtomicInteger loads = new AtomicInteger();
+
+        // When
+        cache.get(id, k -> { loads.incrementAndGet(); return Optional.empty(); });
+        Optional<File> result = cache.get(id, k -> { loads.incrementAndGet(); return Optional.empty(); });
+
+        // Then
+        assertThat(result).isEmpty();
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("Should reload after invalidation")
+    void shouldReloadAfterInvalidation() {
+        // Given
+        File file = File.builder().id(UUID.randomUUID()).build();
+        cache.put(file);
+
+        // When
+        cache.invalidate(file.getId());
+        Optional<File> result = cache.get(file.getId(), id -> Optional.empty());
+
+        // Then
+        assertThat(result).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should carry flushed counter deltas into cached entries")
+    void shouldApplyRequestCounts() {
+        // Given
+        LocalDateTime at = LocalDateTime.of(2025, 3, 1, 9, 30);
+        File file = File.builder().id(UUID.randomUUID()).requestCount(4L).build();
+        cache.put(file);
+
+        // When
+        cache.applyRequestCounts(List.of(new RequestCountDelta(file.getId(), 3, at)));
+        File cached = cache.get(file.getId(), id -> Optional.empty()).orElseThrow();
+
+        // Then
+        assertThat(cached.getRequestCount()).isEqualTo(7L);
+        assertThat(cached.getLastRequestedAt()).isEqualTo(at);
+        assertThat(file.getRequestCount()).isEqualTo(4L);
+    }
+
+    @Test
+    @DisplayName("Should not keep a row loaded while the file was being deleted")
+    void shouldNotCacheRowLoadedDuringDelete() throws Exception {
+        // Given: a lookup reads the row, then the delete removes it and invalidates before the lookup stores it
+        File file = File.builder().id(UUID.randomUUID()).originalName("a.txt").build();
+        CountDownLatch read = new CountDownLatch(1);
+        CountDownLatch deleted = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // When
+        Future<Optional<File>> lookup;
+        try {
+            lookup = executor.submit(() -> cache.get(file.getId(), id -> {
+                read.countDown();
+                try {
+                    deleted.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return Optional.of(file);
+            }));
+            read.await();
+            cache.invalidate(file.getId());
+            deleted.countDown();
+            lookup.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        Optional<File> after = cache.get(file.getId(), id -> Optional.empty());
+
+        // Then
+        assertThat(lookup.get()).contains(file);
+        assertThat(after).isEmpty();
+    }
+}
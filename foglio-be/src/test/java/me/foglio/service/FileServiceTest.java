@@ -0,0 +1,336 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.foglio.model.Blob;
+import me.foglio.model.File;
+import me.foglio.model.User;
+import me.foglio.repository.FileRepository;
+import me.foglio.repository.FileRepositoryCustom.FilePageQuery;
+import me.foglio.storage.LocalStorageBackend;
+import me.foglio.storage.StoredObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("FileService Tests")
+class FileServiceTest {
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private FileRepository fileRepository;
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private ContentAddressedStore contentStore;
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private RequestCounter requestCounter;
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private FileMetadataCache metadataCache;
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private HotObjectCache hotObjects;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @TempDir
+    Path storage;
+
+    private FileService fileService;
+
+    private final User owner = User.builder().id(1L).name("Owner").build();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        fileService = new FileService(fileRepository, new LocalStorageBackend(storage.toString(), DataSize.ofKilobytes(64)),
+                contentStore, compression(false), requestCounter, metadataCache, hotObjects, eventPublisher, meterRegistry,
+                DataSize.ofBytes(10), DataSize.ofBytes(100));
+        when(fileRepository.save(any(File.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(hotObjects.get(any())).thenReturn(Optional.empty());
+        when(hotObjects.admit(any(), any())).thenAnswer(inv -> inv.getArgument(1));
+    }
+
+    private CompressionPolicy compression(boolean enabled) {
+        return new CompressionPolicy(meterRegistry, enabled, List.of("text/*", "application/json"), DataSize.ofBytes(64), 6);
+    }
+
+    @Test
+    @DisplayName("Should stream upload to storage with size and digest")
+    void shouldStreamUploadWithSizeAndDigest() throws Exception {
+        // When
+        File saved = fileService.uploadStream(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)),
+                "greeting.txt", "text/plain", owner, true);
+
+        // Then
+        assertThat(saved.getSize()).isEqualTo(5L);
+        assertThat(saved.getSha256()).isEqualTo("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824");
+        assertThat(saved.getExtension()).isEqualTo(".txt");
+        assertThat(saved.getIsPublic()).isTrue();
+        assertThat(fileService.findContent(saved).orElseThrow().open()).hasContent("hello");
+        verify(eventPublisher).publishEvent(new FileStoredEvent(saved));
+        assertThat(meterRegistry.get("foglio.upload.bytes").counter().count()).isEqualTo(5);
+        assertThat(meterRegistry.get("foglio.storage.write").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should store new uploads in fan-out shards and still resolve flat names")
+    void shouldShardNewUploads() throws Exception {
+        // Given
+        File saved = fileService.uploadStream(new ByteArrayInputStream("hi".getBytes(StandardCharsets.UTF_8)),
+                "a.txt", "text/plain", owner, false);
+        String id = saved.getId().toString();
+        File legacy = File.builder().id(UUID.randomUUID()).storedFileName(id + ".txt").build();
+
+        // When & Then
+        assertThat(saved.getStoredFileName()).isEqualTo(id.substring(0, 2) + "/" + id.substring(2, 4) + "/" + id + ".txt");
+        assertThat(storage.resolve(saved.getStoredFileName())).hasContent("hi");
+        // a row read before the migration moved the file resolves to its shard
+        assertThat(fileService.findContent(legacy).orElseThrow().file()).contains(storage.resolve(saved.getStoredFileName()));
+    }
+
+    @Test
+    @DisplayName("Should gzip uploads of compressible types at rest, keeping their logical size and digest")
+    void shouldCompressMatchingUploads() throws Exception {
+        // Given
+        FileService compressing = new FileService(fileRepository, new LocalStorageBackend(storage.toString(), DataSize.ofKilobytes(64)),
+                contentStore, compression(true), requestCounter, metadataCache, hotObjects, eventPublisher, meterRegistry,
+                DataSize.ofKilobytes(64), DataSize.ofKilobytes(64));
+        byte[] csv = "id,name,size\n1,report.pdf,1024\n".repeat(200).getBytes(StandardCharsets.UTF_8);
+
+        // When
+        File text = compressing.uploadStream(new ByteArrayInputStream(csv), "export.csv", "text/csv; charset=utf-8", owner, false);
+        File image = compressing.uploadStream(new ByteArrayInputStream(csv), "photo.png", "image/png", owner, false);
+        File small = compressing.uploadStream(new ByteArrayInputStream("a,b".getBytes(StandardCharsets.UTF_8)), "tiny.csv", "text/csv", owner, false);
+
+        // Then
+        assertThat(text.getContentEncoding()).isEqualTo(CompressionPolicy.GZIP);
+        assertThat(text.getSize()).isEqualTo(csv.length);
+        assertThat(text.getSha256()).isEqualTo(image.getSha256());
+        assertThat(text.getCompressedSize()).isEqualTo(Files.size(storage.resolve(text.getStoredFileName()))).isLessThan(csv.length / 10);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(storage.resolve(text.getStoredFileName())))) {
+            assertThat(in.readAllBytes()).isEqualTo(csv);
+        }
+        assertThat(image.getContentEncoding()).isNull();
+        assertThat(image.getCompressedSize()).isNull();
+        assertThat(small.getContentEncoding()).isNull();
+        assertThat(meterRegistry.get("foglio.storage.compression.logical").counter().count()).isEqualTo(csv.length);
+        assertThat(meterRegistry.get("foglio.storage.compression.ratio").summary().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should save written files in one batch and drop their bytes if the batch fails")
+    void shouldRegisterWrittenFilesTogether() throws Exception {
+        // Given
+        File first = fileService.writeContent(new MockMultipartFile("files", "a.txt", "text/plain", "aaa".getBytes(StandardCharsets.UTF_8)), owner, false);
+        File second = fileService.writeContent(new MockMultipartFile("files", "b.txt", "text/plain", "bbb".getBytes(StandardCharsets.UTF_8)), owner, false);
+        when(fileRepository.saveAll(any())).thenAnswer(inv -> inv.getArgument(0))
+                .thenThrow(new DataIntegrityViolationException("duplicate"));
+
+        // When
+        List<File> saved = fileService.registerAll(List.of(first, second));
+        File third = fileService.writeContent(new MockMultipartFile("files", "c.txt", "text/plain", "ccc".getBytes(StandardCharsets.UTF_8)), owner, false);
+
+        // Then
+        assertThat(saved).containsExactly(first, second);
+        verify(fileRepository, never()).save(any());
+        verify(eventPublisher).publishEvent(new FileStoredEvent(second));
+        assertThat(storage.resolve(third.getStoredFileName())).hasContent("ccc");
+        assertThatThrownBy(() -> fileService.registerAll(List.of(third))).isInstanceOf(DataIntegrityViolationException.class);
+        assertThat(storage.resolve(third.getStoredFileName())).doesNotExist();
+    }
+
+    @Test
+    @DisplayName("Should serve hot files from memory and drop them on delete")
+    void shouldServeHotFilesFromMemory() throws Exception {
+        // Given
+        File hot = File.builder().id(UUID.randomUUID()).storedFileName("ab/cd/gone.png").isPublic(true).build();
+        StoredObject cached = StoredObject.ofBuffer(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)), null);
+        when(hotObjects.get(hot)).thenReturn(Optional.of(cached));
+
+        // When
+        Optional<StoredObject> content = fileService.findContent(hot);
+        fileService.deleteFile(hot);
+
+        // Then
+        assertThat(content).containsSame(cached);
+        verify(hotObjects, never()).admit(any(), any());
+        verify(hotObjects).invalidate(hot.getId());
+    }
+
+    @Test
+    @DisplayName("Should reject and clean up uploads over the size limit")
+    void shouldRejectUploadsOverLimit() throws Exception {
+        // When & Then
+        assertThatThrownBy(() -> fileService.uploadStream(new ByteArrayInputStream(new byte[11]), "big.bin", null, owner, false))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+        // shard directories are shared with concurrent uploads and stay; no file may
+        try (Stream<Path> files = Files.walk(storage)) {
+            assertThat(files.filter(Files::isRegularFile)).isEmpty();
+        }
+        verify(fileRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Should answer 400 when the multipart body breaks off mid-file")
+    void shouldRejectMalformedMultipartBody() throws Exception {
+        // Given
+        InputStream truncated = new MultipartStreamReader(new ByteArrayInputStream(
+                "--b\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a.txt\"\r\n\r\nhel".getBytes(StandardCharsets.UTF_8)),
+                "b").next().body();
+
+        // When & Then
+        assertThatThrownBy(() -> fileService.uploadStream(truncated, "a.txt", null, owner, false))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+        try (Stream<Path> files = Files.walk(storage)) {
+            assertThat(files.filter(Files::isRegularFile)).isEmpty();
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject oversized requests before reading them")
+    void shouldRejectOversizedRequestLength() {
+        fileService.checkRequestLength(100);
+        assertThatThrownBy(() -> fileService.checkRequestLength(101)).isInstanceOf(ResponseStatusException.class);
+    }
+
+    @Test
+    @DisplayName("Should commit uploads to the content-addressed store when dedup is enabled")
+    void shouldCommitToContentAddressedStore() throws Exception {
+        // Given
+        Path temp = storage.resolve("upload.tmp");
+        when(contentStore.isEnabled()).thenReturn(true);
+        when(contentStore.tempFile()).thenReturn(temp);
+        when(contentStore.commit(eq(temp), any(), eq(5L), isNull()))
+                .thenReturn(Blob.builder().storedFileName("cas/2c/f2/2cf24dba").build());
+
+        // When
+        File saved = fileService.uploadStream(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)),
+                "greeting.txt", "text/plain", owner, false);
+
+        // Then
+        assertThat(saved.getStoredFileName()).isEqualTo("cas/2c/f2/2cf24dba");
+        verify(contentStore).commit(temp, "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824", 5L, null);
+    }
+
+    @Test
+    @DisplayName("Should release the shared blob when deleting a content-addressed file")
+    void shouldReleaseSharedBlobOnDelete() {
+        // Given
+        File file = File.builder().storedFileName("cas/ab/cd/abcd").sha256("abcd").build();
+
+        // When
+        fileService.deleteFile(file);
+
+        // Then: the cached row goes only once the database row has
+        InOrder order = inOrder(fileRepository, metadataCache, hotObjects);
+        order.verify(fileRepository).delete(file);
+        order.verify(metadataCache).invalidate(file.getId());
+        order.verify(hotObjects).invalidate(file.getId());
+        verify(contentStore).release("abcd");
+    }
+
+    @Test
+    @DisplayName("Should record requests without writing the entity")
+    void shouldRecordRequestsWithoutSaving() {
+        // Given
+        File file = File.builder().id(java.util.UUID.randomUUID()).build();
+
+        // When
+        fileService.touch(file);
+
+        // Then
+        verify(requestCounter).record(file.getId());
+        verify(fileRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Should return a next cursor pointing at the last file of a full page")
+    void shouldReturnNextCursorForFullPage() {
+        // Given
+        LocalDateTime t = LocalDateTime.of(2025, 5, 1, 12, 0);
+        File first = File.builder().id(UUID.randomUUID()).owner(owner).createdAt(t.plusMinutes(2)).build();
+        File second = File.builder().id(UUID.randomUUID()).owner(owner).createdAt(t.plusMinutes(1)).build();
+        File third = File.builder().id(UUID.randomUUID()).owner(owner).createdAt(t).build();
+        when(fileRepository.findPage(any())).thenReturn(List.of(first, second, third));
+
+        // When
+        FilePage page = fileService.listFilesByOwner(owner, "image/*", true, false, null, 2);
+
+        // Then
+        assertThat(page.files()).containsExactly(first, second);
+        assertThat(FileCursor.decode(page.nextCursor())).isEqualTo(new FileCursor(second.getCreatedAt(), second.getId(), false));
+        verify(fileRepository).findPage(new FilePageQuery(1L, "image/*", true, false, null, null, 3));
+    }
+
+    @Test
+    @DisplayName("Should continue after the cursor and stop on the last page")
+    void shouldContinueAfterCursor() {
+        // Given
+        FileCursor cursor = new FileCursor(LocalDateTime.of(2025, 5, 1, 12, 0), UUID.randomUUID(), true);
+        File last = File.builder().id(UUID.randomUUID()).owner(owner).build();
+        when(fileRepository.findPage(any())).thenReturn(List.of(last));
+
+        // When
+        FilePage page = fileService.listFilesByOwner(owner, null, null, true, cursor.encode(), 2);
+
+        // Then
+        assertThat(page.files()).containsExactly(last);
+        assertThat(page.nextCursor()).isNull();
+        verify(fileRepository).findPage(new FilePageQuery(1L, null, null, true, cursor.createdAt(), cursor.id(), 3));
+    }
+
+    @Test
+    @DisplayName("Should reject malformed cursors and cursors issued for another sort order")
+    void shouldRejectBadCursors() {
+        // Given
+        String descending = new FileCursor(LocalDateTime.of(2025, 5, 1, 12, 0), UUID.randomUUID(), false).encode();
+
+        // When & Then
+        assertThatThrownBy(() -> fileService.listFilesByOwner(owner, null, null, false, "not-a-cursor", 10))
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(e -> ((ResponseStatusException) e).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThatThrownBy(() -> fileService.listFilesByOwner(owner, null, null, true, descending, 10))
+                .isInstanceOf(ResponseStatusException.class);
+        assertThatThrownBy(() -> fileService.listFilesByOwner(owner, null, null, true, null, FileService.MAX_PAGE_SIZE + 1))
+                .isInstanceOf(ResponseStatusException.class);
+    }
+}
@@ -0,0 +1,145 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.foglio.model.File;
+import me.foglio.storage.StoredObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("HotObjectCache Tests")
+class HotObjectCacheTest {
+
+    private static final byte[] BODY = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final HotObjectCache cache = new HotObjectCache(meterRegistry, true, DataSize.ofKilobytes(1),
+            DataSize.ofBytes(100), 10, Duration.ofHours(1));
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private File file(boolean isPublic, long requests, LocalDateTime lastRequestedAt, long size) {
+        return File.builder().id(UUID.randomUUID()).isPublic(isPublic).size(size)
+                .requestCount(requests).lastRequestedAt(lastRequestedAt).build();
+    }
+
+    private StoredObject stored() {
+        return StoredObject.ofRemote(BODY.length, null, (offset, length) -> {
+            reads.incrementAndGet();
+            return new ByteArrayInputStream(BODY, (int) offset, (int) length);
+        });
+    }
+
+    @Test
+    @DisplayName("Should keep frequently requested public files in direct buffers")
+    void shouldCacheHotFiles() throws Exception {
+        // Given
+        File hot = file(true, 10, LocalDateTime.now().minusMinutes(5), BODY.length);
+
+        // When
+        StoredObject admitted = cache.admit(hot, stored());
+        StoredObject hit = cache.get(hot).orElseThrow();
+
+        // Then
+        assertThat(admitted.buffer()).hasValueSatisfying(buffer -> assertThat(buffer.isDirect()).isTrue());
+        assertThat(hit.open(2, 5)).hasContent("23456");
+        assertThat(reads).hasValue(1);
+        cache.invalidate(hot.getId());
+        assertThat(cache.get(hot)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should pass through private, cold, stale and large files untouched")
+    void shouldNotAdmitOtherFiles() {
+        // Given
+        LocalDateTime now = LocalDateTime.now();
+        File[] files = {
+                file(false, 100, now, BODY.length),
+                file(true, 9, now, BODY.length),
+                file(true, 100, now.minusHours(2), BODY.length),
+                file(true, 100, null, BODY.length),
+                file(true, 100, now, 101)
+        };
+
+        // When & Then
+        for (File file : files) {
+            StoredObject content = stored();
+            assertThat(cache.admit(file, content)).isSameAs(content);
+            assertThat(cache.get(file)).isEmpty();
+        }
+        assertThat(reads).hasValue(0);
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should read bodies outside the cache, and not keep one whose file was deleted meanwhile")
+    void shouldNotKeepBodyInvalidatedWhileReading() throws Exception {
+        // Given: the file is deleted while its body is being read
+        File hot = file(true, 10, LocalDateTime.now(), BODY.length);
+        StoredObject deletedWhileRead = StoredObject.ofRemote(BODY.length, null, (offset, length) -> {
+            reads.incrementAndGet();
+            cache.invalidate(hot.getId());
+            return new ByteArrayInputStream(BODY, (int) offset, (int) length);
+        });
+
+        // When
+        StoredObject served = cache.admit(hot, deletedWhileRead);
+
+        // Then
+        assertThat(served.open()).hasBinaryContent(BODY);
+        assertThat(cache.get(hot)).isEmpty();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should read a body once for concurrent misses")
+    void shouldReadOnceForConcurrentMisses() throws Exception {
+        // Given
+        File hot = file(true, 10, LocalDateTime.now(), BODY.length);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StoredObject slow = StoredObject.ofRemote(BODY.length, null, (offset, length) -> {
+            reads.incrementAndGet();
+            reading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new ByteArrayInputStream(BODY, (int) offset, (int) length);
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // When
+        try {
+            Future<StoredObject> first = executor.submit(() -> cache.admit(hot, slow));
+            reading.await();
+            Future<StoredObject> second = executor.submit(() -> cache.admit(hot, slow));
+            // other files are admitted while the first read is in progress
+            File other = file(true, 10, LocalDateTime.now(), BODY.length);
+            assertThat(cache.admit(other, stored()).buffer()).isPresent();
+            release.countDown();
+
+            // Then
+            assertThat(first.get(5, TimeUnit.SECONDS).open()).hasBinaryContent(BODY);
+            assertThat(second.get(5, TimeUnit.SECONDS).open()).hasBinaryContent(BODY);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(reads).hasValue(2);
+        assertThat(cache.get(hot)).isPresent();
+    }
+}
@@ -0,0 +1,120 @@
+package me.foglio.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("MultipartStreamReader Tests")
+class MultipartStreamReaderTest {
+
+    private static final String BOUNDARY = "----FoglioBoundary7MA4YWxk";
+
+    private static byte[] body(byte[] fileContent) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(("preamble to ignore\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"public\"\r\n\r\n"
+                + "true\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"photo.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(fileContent);
+        out.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    // delivers the body in small uneven reads, like a slow client
+    private static InputStream trickle(byte[] data) {
+        return new FilterInputStream(new ByteArrayInputStream(data)) {
+            private int call;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1 + (call++ % 97)));
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("Should stream form fields and file parts")
+    void shouldStreamFormFieldsAndFileParts() throws Exception {
+        // Given
+        byte[] content = new byte[300_000];
+        new Random(7).nextBytes(content);
+        MultipartStreamReader reader = new MultipartStreamReader(trickle(body(content)), BOUNDARY);
+
+        // When
+        MultipartStreamReader.Part field = reader.next();
+        String fieldValue = new String(field.body().readAllBytes(), StandardCharsets.UTF_8);
+        MultipartStreamReader.Part file = reader.next();
+        byte[] fileBytes = file.body().readAllBytes();
+
+        // Then
+        assertThat(field.name()).isEqualTo("public");
+        assertThat(field.isFile()).isFalse();
+        assertThat(fieldValue).isEqualTo("true");
+        assertThat(file.name()).isEqualTo("file");
+        assertThat(file.filename()).isEqualTo("photo.jpg");
+        assertThat(file.contentType()).isEqualTo("image/jpeg");
+        assertThat(fileBytes).isEqualTo(content);
+        assertThat(reader.next()).isNull();
+    }
+
+    @Test
+    @DisplayName("Should keep data that merely looks like the delimiter")
+    void shouldKeepDataResemblingDelimiter() throws Exception {
+        // Given
+        byte[] content = ("line\r\n--" + BOUNDARY.substring(0, 10) + "\r\n--").getBytes(StandardCharsets.UTF_8);
+        MultipartStreamReader reader = new MultipartStreamReader(trickle(body(content)), BOUNDARY);
+
+        // When
+        reader.next();
+        MultipartStreamReader.Part file = reader.next();
+
+        // Then
+        assertThat(file.body().readAllBytes()).isEqualTo(content);
+    }
+
+    @Test
+    @DisplayName("Should skip unread parts")
+    void shouldSkipUnreadParts() throws Exception {
+        // Given
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(body(new byte[10_000])), BOUNDARY);
+
+        // When & Then
+        assertThat(reader.next().name()).isEqualTo("public");
+        assertThat(reader.next().name()).isEqualTo("file");
+        assertThat(reader.next()).isNull();
+    }
+
+    @Test
+    @DisplayName("Should fail on a truncated body")
+    void shouldFailOnTruncatedBody() throws Exception {
+        // Given
+        byte[] full = body(new byte[1_000]);
+        byte[] truncated = java.util.Arrays.copyOf(full, full.length - 20);
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(truncated), BOUNDARY);
+        reader.next();
+        MultipartStreamReader.Part file = reader.next();
+
+        // When & Then
+        assertThatThrownBy(() -> file.body().readAllBytes()).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    @DisplayName("Should extract the boundary from a multipart content type")
+    void shouldExtractBoundary() {
+        assertThat(MultipartStreamReader.boundaryOf("multipart/form-data; boundary=abc")).isEqualTo("abc");
+        assertThat(MultipartStreamReader.boundaryOf("multipart/form-data; boundary=\"a b\"")).isEqualTo("a b");
+        assertThat(MultipartStreamReader.boundaryOf("application/json")).isNull();
+        assertThat(MultipartStreamReader.boundaryOf(null)).isNull();
+    }
+}
@@ -0,0 +1,125 @@
+package me.foglio.service;
+
+import me.foglio.repository.FileRepository;
+import me.foglio.repository.FileRepositoryCustom.RequestCountDelta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("RequestCounter Tests")
+class RequestCounterTest {
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private FileRepository fileRepository;
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private FileMetadataCache metadataCache;
+
+    private RequestCounter requestCounter;
+    private final List<RequestCountDelta> flushed = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        requestCounter = new RequestCounter(fileRepository, metadataCache);
+        doAnswer(inv -> {
+            flushed.addAll(inv.<Collection<RequestCountDelta>>getArgument(0));
+            return null;
+        }).when(fileRepository).addRequestCounts(any());
+    }
+
+    private long flushedFor(UUID id) {
+        return flushed.stream().filter(d -> d.fileId().equals(id)).mapToLong(RequestCountDelta::requests).sum();
+    }
+
+    @Test
+    @DisplayName("Should flush accumulated counts as one batch")
+    void shouldFlushAccumulatedCounts() {
+        // Given
+        UUID a = UUID.randomUUID();
+        UUID b = UUID.randomUUID();
+        requestCounter.record(a);
+        requestCounter.record(a);
+        requestCounter.record(b);
+
+        // When
+        assertThat(requestCounter.pending(a)).isEqualTo(2);
+        requestCounter.flush();
+
+        // Then
+        assertThat(flushedFor(a)).isEqualTo(2);
+        assertThat(flushedFor(b)).isEqualTo(1);
+        assertThat(flushed).allSatisfy(d -> assertThat(d.lastRequestedAt()).isNotNull());
+        assertThat(requestCounter.pending(a)).isZero();
+        verify(metadataCache).applyRequestCounts(any());
+    }
+
+    @Test
+    @DisplayName("Should not touch the database when nothing was recorded")
+    void shouldSkipEmptyFlush() {
+        // When
+        requestCounter.flush();
+
+        // Then
+        verify(fileRepository, never()).addRequestCounts(any());
+    }
+
+    @Test
+    @DisplayName("Should not lose increments under concurrent recording and flushing")
+    void shouldNotLoseConcurrentIncrements() throws Exception {
+        // Given
+        UUID id = UUID.randomUUID();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+
+        // When
+        for (int t = 0; t < 8; t++) {
+            pool.submit(() -> {
+                for (int i = 0; i < 10_000; i++) requestCounter.record(id);
+            });
+        }
+        for (int i = 0; i < 20; i++) requestCounter.flush();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        requestCounter.shutdown();
+
+        // Then
+        assertThat(flushedFor(id)).isEqualTo(80_000);
+    }
+
+    @Test
+    @DisplayName("Should keep counts for the next flush when the database write fails")
+    void shouldRetryFailedFlush() {
+        // Given
+        UUID id = UUID.randomUUID();
+        requestCounter.record(id);
+        doThrow(new RuntimeException("db down")).doAnswer(inv -> {
+            flushed.addAll(inv.<Collection<RequestCountDelta>>getArgument(0));
+            return null;
+        }).when(fileRepository).addRequestCounts(any());
+
+        // When
+        requestCounter.flush();
+        requestCounter.flush();
+
+        // Then
+        assertThat(flushedFor(id)).isEqualTo(1);
+    }
+}
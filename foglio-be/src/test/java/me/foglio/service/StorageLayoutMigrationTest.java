@@ -0,0 +1,112 @@
+package me.foglio.service;
+
+import me.foglio.repository.FileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("StorageLayoutMigration Tests")
+class StorageLayoutMigrationTest {
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private FileRepository fileRepository;
+
+    @Mock
+    private FileMetadataCache metadataCache;
+
+    @TempDir
+    Path storage;
+
+    private StorageLayoutMigration migration;
+
+    @BeforeEach
+    void setUp() {
+        migration = new StorageLayoutMigration(fileRepository, metadataCache, storage.toString(), 2, false);
+    }
+
+    private static FileRepository.StoredName row(UUID id, String name) {
+        return new FileRepository.StoredName() {
+            @Override
+            public UUID getId() {
+                return id;
+            }
+
+            @Override
+            public String getStoredFileName() {
+                return name;
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("Should move flat files into their shard and switch the row")
+    void shouldMoveFlatFiles() throws Exception {
+        // Given
+        UUID id = UUID.randomUUID();
+        String flat = id + ".txt";
+        Files.writeString(storage.resolve(flat), "hello");
+        when(fileRepository.findFlatAfter(eq(new UUID(0, 0)), any(Limit.class))).thenReturn(List.of(row(id, flat)));
+        when(fileRepository.findFlatAfter(eq(id), any(Limit.class))).thenReturn(List.of());
+        when(fileRepository.renameStoredFile(id, flat, StorageLayout.sharded(flat))).thenReturn(1);
+
+        // When
+        migration.migrate(2);
+
+        // Then
+        assertThat(storage.resolve(flat)).doesNotExist();
+        assertThat(storage.resolve(StorageLayout.sharded(flat))).hasContent("hello");
+        verify(metadataCache).invalidate(id);
+        assertThat(migration.status()).containsEntry("moved", 1L).containsEntry("failed", 0L);
+    }
+
+    @Test
+    @DisplayName("Should drop the shard link when the row changed meanwhile")
+    void shouldUndoLinkWhenRowChanged() throws Exception {
+        // Given
+        UUID id = UUID.randomUUID();
+        String flat = id + ".txt";
+        Files.writeString(storage.resolve(flat), "hello");
+        when(fileRepository.renameStoredFile(eq(id), eq(flat), anyString())).thenReturn(0);
+
+        // When
+        migration.migrateOne(id, flat);
+
+        // Then
+        assertThat(storage.resolve(flat)).hasContent("hello");
+        assertThat(storage.resolve(StorageLayout.sharded(flat))).doesNotExist();
+        verify(metadataCache, never()).invalidate(id);
+    }
+
+    @Test
+    @DisplayName("Should count rows whose file is gone without touching them")
+    void shouldCountMissingFiles() {
+        // Given
+        UUID id = UUID.randomUUID();
+
+        // When
+        migration.migrateOne(id, id + ".txt");
+
+        // Then
+        verify(fileRepository, never()).renameStoredFile(any(), anyString(), anyString());
+        assertThat(migration.status()).containsEntry("missing", 1L);
+    }
+}
@@ -0,0 +1,124 @@
+package me.foglio.service;
+
+import me.foglio.repository.BlobRepository;
+import me.foglio.repository.FileRepository;
+import me.foglio.repository.PendingDeletionRepository;
+import me.foglio.storage.LocalStorageBackend;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("StorageReconciler Tests")
+class StorageReconcilerTest {
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private FileRepository fileRepository;
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private BlobRepository blobRepository;
+
+    @Mock(strictness = Mock.Strictness.LENIENT)
+    private PendingDeletionRepository pendingDeletions;
+
+    @TempDir
+    Path storage;
+
+    private StorageReconciler reconciler;
+
+    @BeforeEach
+    void setUp() {
+        LocalStorageBackend backend = new LocalStorageBackend(storage.toString(), DataSize.ofKilobytes(64));
+        reconciler = new StorageReconciler(backend, fileRepository, blobRepository, pendingDeletions, 0, Duration.ofHours(1), false);
+    }
+
+    private Path store(String key, boolean old) throws Exception {
+        Path path = storage.resolve(key);
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, key);
+        if (old) Files.setLastModifiedTime(path, FileTime.from(Instant.now().minus(Duration.ofDays(1))));
+        return path;
+    }
+
+    private static FileRepository.StoredName row(UUID id, String name) {
+        return new FileRepository.StoredName() {
+            @Override
+            public UUID getId() {
+                return id;
+            }
+
+            @Override
+            public String getStoredFileName() {
+                return name;
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("Should report orphan objects and rows without a stored object, and quarantine orphans on request")
+    @SuppressWarnings("unchecked")
+    void shouldReconcileStorageWithDatabase() throws Exception {
+        // Given
+        String sha256 = "aa".repeat(32);
+        String orphanSha256 = "bb".repeat(32);
+        store("ab/cd/abcd-kept.png", true);
+        store("ab/cd/abcd-unmigrated.png", true);
+        store("ab/cd/abcd-queued.png", true);
+        store("ab/cd/abcd-orphan.png", true);
+        store("ab/cd/abcd-uploading.png", false);
+        store(ContentAddressedStore.storedName(sha256), true);
+        Path orphanBlob = store(ContentAddressedStore.storedName(orphanSha256), true);
+        store("thumbs/abcd-256.jpg", true);
+        store(".uploads/session/0.part", true);
+
+        UUID kept = UUID.randomUUID();
+        UUID lost = UUID.randomUUID();
+        when(fileRepository.findStoredNamesIn(any())).thenAnswer(inv -> inv.<Collection<String>>getArgument(0).stream()
+                .filter(List.of("ab/cd/abcd-kept.png", "abcd-unmigrated.png", "ab/cd/abcd-lost.png")::contains).toList());
+        when(pendingDeletions.findStoredNamesIn(any())).thenAnswer(inv -> inv.<Collection<String>>getArgument(0).stream()
+                .filter("ab/cd/abcd-queued.png"::equals).toList());
+        when(blobRepository.findExisting(any())).thenReturn(List.of(sha256));
+        when(fileRepository.findStoredNamesAfter(eq(new UUID(0, 0)), any(Limit.class)))
+                .thenReturn(List.of(row(kept, "ab/cd/abcd-kept.png"), row(lost, "ab/cd/abcd-lost.png")));
+        when(fileRepository.existsById(lost)).thenReturn(true);
+
+        // When
+        reconciler.reconcile(true);
+
+        // Then
+        Map<String, Object> status = reconciler.status();
+        assertThat(status).containsEntry("objectsScanned", 7L)
+                .containsEntry("rowsScanned", 2L)
+                .containsEntry("orphans", 2L)
+                .containsEntry("quarantined", 2L)
+                .containsEntry("missing", 1L)
+                .containsEntry("failed", 0L);
+        assertThat((List<String>) status.get("orphanKeys"))
+                .containsExactlyInAnyOrder("ab/cd/abcd-orphan.png", ContentAddressedStore.storedName(orphanSha256));
+        assertThat((List<String>) status.get("missingFiles")).containsExactly(lost.toString());
+        assertThat(orphanBlob).doesNotExist();
+        assertThat(storage.resolve(StorageReconciler.QUARANTINE + "ab/cd/abcd-orphan.png")).hasContent("ab/cd/abcd-orphan.png");
+        assertThat(storage.resolve("ab/cd/abcd-uploading.png")).exists();
+    }
+}
@@ -0,0 +1,160 @@
+package me.foglio.service;
+
+import me.foglio.model.File;
+import me.foglio.storage.StoredObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atMostOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@DisplayName("ThumbnailService Tests")
+class ThumbnailServiceTest {
+
+    @TempDir
+    Path storage;
+
+    private FileService fileService;
+    private ThumbnailService thumbnailService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fileService = mock(FileService.class);
+        when(fileService.findContent(any())).thenAnswer(inv -> Optional.of(StoredObject.ofFile(storage.resolve(inv.<File>getArgument(0).getStoredFileName()))));
+        thumbnailService = new ThumbnailService(fileService, storage.toString(), new int[]{64, 16}, 1, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        thumbnailService.shutdown();
+    }
+
+    private File image(String name, String contentType, int width, int height, int type, String format) throws Exception {
+        BufferedImage img = new BufferedImage(width, height, type);
+        ImageIO.write(img, format, storage.resolve(name).toFile());
+        return File.builder().id(UUID.randomUUID()).storedFileName(name).contentType(contentType).build();
+    }
+
+    @Test
+    @DisplayName("Should render every configured size as JPEG, keeping the aspect ratio")
+    void shouldRenderEverySize() throws Exception {
+        // Given
+        File photo = image("photo.jpg", "image/jpeg", 400, 200, BufferedImage.TYPE_INT_RGB, "jpg");
+
+        // When
+        Optional<ThumbnailService.Rendition> small = thumbnailService.rendition(photo, 16);
+
+        // Then
+        assertThat(small).isPresent();
+        assertThat(small.get().contentType()).isEqualTo("image/jpeg");
+        BufferedImage rendered = ImageIO.read(small.get().path().toFile());
+        assertThat(rendered.getWidth()).isEqualTo(16);
+        assertThat(rendered.getHeight()).isEqualTo(8);
+        assertThat(storage.resolve("thumbs/" + photo.getId() + "-64.jpg")).exists();
+    }
+
+    @Test
+    @DisplayName("Should keep transparency as PNG and never upscale")
+    void shouldKeepTransparency() throws Exception {
+        // Given
+        File logo = image("logo.png", "image/png", 40, 20, BufferedImage.TYPE_INT_ARGB, "png");
+
+        // When
+        Optional<ThumbnailService.Rendition> large = thumbnailService.rendition(logo, 64);
+
+        // Then
+        assertThat(large).isPresent();
+        assertThat(large.get().contentType()).isEqualTo("image/png");
+        BufferedImage rendered = ImageIO.read(large.get().path().toFile());
+        assertThat(rendered.getWidth()).isEqualTo(40);
+        assertThat(rendered.getColorModel().hasAlpha()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Should decode the original once for concurrent requests")
+    void shouldRenderOnceForConcurrentRequests() throws Exception {
+        // Given
+        File photo = image("photo.jpg", "image/jpeg", 800, 600, BufferedImage.TYPE_INT_RGB, "jpg");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // When
+        Future<?>[] results = new Future<?>[8];
+        for (int i = 0; i < results.length; i++) {
+            int size = i % 2 == 0 ? 16 : 64;
+            results[i] = pool.submit(() -> {
+                start.await();
+                return thumbnailService.rendition(photo, size);
+            });
+        }
+        start.countDown();
+
+        // Then
+        for (Future<?> result : results) {
+            assertThat((Optional<?>) result.get(10, TimeUnit.SECONDS)).isPresent();
+        }
+        pool.shutdown();
+        // the path is resolved once per decode of the original
+        verify(fileService, atMostOnce()).findContent(photo);
+    }
+
+    @Test
+    @DisplayName("Should report nothing for undecodable originals")
+    void shouldReturnEmptyForUndecodableOriginals() throws Exception {
+        // Given
+        Files.writeString(storage.resolve("broken.png"), "not an image");
+        File broken = File.builder().id(UUID.randomUUID()).storedFileName("broken.png").contentType("image/png").build();
+
+        // When & Then
+        assertThat(thumbnailService.rendition(broken, 16)).isEmpty();
+        assertThat(thumbnailService.rendition(broken, 16)).isEmpty();
+        verify(fileService, atMostOnce()).findContent(broken);
+    }
+
+    @Test
+    @DisplayName("Should render in the background after upload and drop renditions on delete")
+    void shouldRenderAfterUploadAndDropOnDelete() throws Exception {
+        // Given
+        File photo = image("photo.jpg", "image/jpeg", 100, 100, BufferedImage.TYPE_INT_RGB, "jpg");
+        Path thumb = storage.resolve("thumbs/" + photo.getId() + "-16.jpg");
+
+        // When
+        thumbnailService.onFileStored(new FileStoredEvent(photo));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Files.exists(thumb) && System.currentTimeMillis() < deadline) Thread.sleep(10);
+
+        // Then
+        assertThat(thumb).exists();
+        thumbnailService.onFileDeleted(new FileDeletedEvent(photo));
+        assertThat(thumb).doesNotExist();
+    }
+
+    @Test
+    @DisplayName("Should only render image types with a decoder")
+    void shouldOnlyRenderDecodableTypes() {
+        assertThat(thumbnailService.canRender(File.builder().contentType("image/png").build())).isTrue();
+        assertThat(thumbnailService.canRender(File.builder().contentType("video/mp4").build())).isFalse();
+        assertThat(thumbnailService.canRender(File.builder().contentType("image/svg+xml").build())).isFalse();
+        assertThat(thumbnailService.isConfiguredSize(64)).isTrue();
+        assertThat(thumbnailService.isConfiguredSize(100)).isFalse();
+    }
+}
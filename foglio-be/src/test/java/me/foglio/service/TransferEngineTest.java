@@ -0,0 +1,101 @@
+package me.foglio.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("TransferEngine Tests")
+class TransferEngineTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private Path path;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        content = new byte[200_000];
+        new Random(42).nextBytes(content);
+        path = tempDir.resolve("blob.bin");
+        Files.write(path, content);
+    }
+
+    private TransferEngine engine(TransferEngine.Mode mode) {
+        return new TransferEngine(meterRegistry, mode, DataSize.ofKilobytes(16), DataSize.ofKilobytes(4), DataSize.ofKilobytes(48));
+    }
+
+    private double bytes(String engine) {
+        return meterRegistry.get("foglio.transfer.bytes").tag("engine", engine).counter().count();
+    }
+
+    @Test
+    @DisplayName("Should hand the region to the container when sendfile is supported")
+    void shouldUseContainerSendfileWhenSupported() throws Exception {
+        // Given
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(TransferEngine.SENDFILE_SUPPORTED_ATTR, Boolean.TRUE);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // When
+        engine(TransferEngine.Mode.SENDFILE).transfer(path, 100, 100_000, request, response);
+
+        // Then
+        assertThat(request.getAttribute(TransferEngine.SENDFILE_FILENAME_ATTR)).isEqualTo(path.toAbsolutePath().toString());
+        assertThat(request.getAttribute(TransferEngine.SENDFILE_START_ATTR)).isEqualTo(100L);
+        assertThat(request.getAttribute(TransferEngine.SENDFILE_END_ATTR)).isEqualTo(100_100L);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        assertThat(meterRegistry.get("foglio.transfer.sendfile.bytes").counter().count()).isEqualTo(100_000);
+        assertThat(meterRegistry.find("foglio.transfer.bytes").tag("engine", "sendfile").counter()).isNull();
+    }
+
+    @Test
+    @DisplayName("Should fall back to the channel copy when sendfile is unavailable")
+    void shouldFallBackToChannelCopy() throws Exception {
+        // Given
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // When
+        engine(TransferEngine.Mode.SENDFILE).transfer(path, 0, content.length, request, response);
+
+        // Then
+        assertThat(request.getAttribute(TransferEngine.SENDFILE_FILENAME_ATTR)).isNull();
+        assertThat(response.getContentAsByteArray()).isEqualTo(content);
+        assertThat(bytes("channel")).isEqualTo(content.length);
+    }
+
+    @Test
+    @DisplayName("Should copy regions identically through channel and heap modes")
+    void shouldCopyRegionsThroughChannelAndHeap() throws Exception {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (TransferEngine.Mode mode : new TransferEngine.Mode[]{TransferEngine.Mode.CHANNEL, TransferEngine.Mode.HEAP}) {
+                // When
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                engine(mode).copy(channel, 1_000, 150_000, out);
+
+                // Then
+                byte[] expected = new byte[150_000];
+                System.arraycopy(content, 1_000, expected, 0, expected.length);
+                assertThat(out.toByteArray()).isEqualTo(expected);
+            }
+        }
+        assertThat(bytes("heap")).isEqualTo(150_000);
+    }
+}
@@ -0,0 +1,46 @@
+package me.foglio.service;
+
+import me.foglio.model.User;
+import me.foglio.repository.UserRepository;
+import me.foglio.security.ApiKeyChangedEvent;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("UserService Tests")
+class UserServiceTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @InjectMocks
+    private UserService userService;
+
+    @Test
+    @DisplayName("Should register user with a fresh api key and announce it")
+    void shouldRegisterUserAndAnnounceApiKey() {
+        // Given
+        when(userRepository.save(any(User.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        // When
+        User user = userService.registerUser("Test User");
+
+        // Then
+        assertThat(user.getName()).isEqualTo("Test User");
+        assertThat(user.getApiKey()).isNotNull();
+        verify(eventPublisher).publishEvent(new ApiKeyChangedEvent(user.getApiKey()));
+    }
+}
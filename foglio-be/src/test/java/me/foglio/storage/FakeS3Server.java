@@ -0,0 +1,215 @@
+package me.foglio.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for MinIO: one path-style bucket kept in memory, with the object, listing and multipart upload
+ * operations {@link S3StorageBackend} uses. Requests whose SigV4 signature doesn't verify get a 403.
+ */
+final class FakeS3Server implements AutoCloseable {
+
+    static final String BUCKET = "foglio";
+    static final String ACCESS_KEY = "minioadmin";
+    static final String SECRET_KEY = "minio-secret";
+    static final String REGION = "us-east-1";
+
+    private static final Pattern CREDENTIAL = Pattern.compile("Credential=[^/]+/(\\d{8})/[^,]+, SignedHeaders=([^,]+), Signature=([0-9a-f]+)");
+
+    final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    final List<String> requests = new CopyOnWriteArrayList<>();
+    int listPageSize = 1000;
+    // answer ranged GETs with the whole object, as some S3-compatible servers do
+    boolean ignoreRange;
+    private final S3RequestSigner signer = new S3RequestSigner(ACCESS_KEY, SECRET_KEY, REGION);
+    private final HttpServer server;
+
+    FakeS3Server() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    URI endpoint() {
+        return URI.create("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            requests.add(method + (query.isEmpty() ? "" : " " + String.join("&", new TreeMap<>(query).keySet())));
+            if (!verified(exchange, body)) {
+                reply(exchange, 403, "<Error><Code>SignatureDoesNotMatch</Code></Error>");
+                return;
+            }
+            String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), StandardCharsets.UTF_8);
+            if (!path.startsWith("/" + BUCKET + "/")) {
+                reply(exchange, 404, "<Error><Code>NoSuchBucket</Code></Error>");
+                return;
+            }
+            String key = path.substring(BUCKET.length() + 2);
+
+            if (query.containsKey("list-type") && method.equals("GET") && key.isEmpty()) {
+                list(exchange, query);
+            } else if (query.containsKey("uploads") && method.equals("POST")) {
+                String id = UUID.randomUUID().toString();
+                uploads.put(id, new ConcurrentHashMap<>());
+                reply(exchange, 200, "<InitiateMultipartUploadResult><UploadId>" + id + "</UploadId></InitiateMultipartUploadResult>");
+            } else if (query.containsKey("uploadId")) {
+                Map<Integer, byte[]> parts = uploads.get(query.get("uploadId"));
+                if (parts == null) {
+                    reply(exchange, 404, "<Error><Code>NoSuchUpload</Code></Error>");
+                } else if (method.equals("PUT")) {
+                    parts.put(Integer.parseInt(query.get("partNumber")), body);
+                    exchange.getResponseHeaders().add("ETag", "\"" + S3RequestSigner.sha256Hex(body).substring(0, 32) + "\"");
+                    reply(exchange, 200, "");
+                } else if (method.equals("POST")) {
+                    ByteArrayOutputStream assembled = new ByteArrayOutputStream();
+                    for (byte[] part : new TreeMap<>(parts).values()) assembled.writeBytes(part);
+                    objects.put(key, assembled.toByteArray());
+                    uploads.remove(query.get("uploadId"));
+                    reply(exchange, 200, "<CompleteMultipartUploadResult><Key>" + key + "</Key></CompleteMultipartUploadResult>");
+                } else {
+                    uploads.remove(query.get("uploadId"));
+                    reply(exchange, 204, null);
+                }
+            } else {
+                object(exchange, method, key, body);
+            }
+        }
+    }
+
+    // ListObjectsV2; the continuation token is simply the last key of the previous page
+    private void list(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        String after = query.getOrDefault("continuation-token", "");
+        List<String> keys = new TreeMap<>(objects).keySet().stream()
+                .filter(k -> k.startsWith(prefix) && k.compareTo(after) > 0)
+                .toList();
+        List<String> page = keys.subList(0, Math.min(listPageSize, keys.size()));
+        StringBuilder xml = new StringBuilder("<ListBucketResult>");
+        for (String k : page) {
+            xml.append("<Contents><Key>").append(k.replace("&", "&amp;")).append("</Key></Contents>");
+        }
+        boolean truncated = keys.size() > page.size();
+        xml.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated) xml.append("<NextContinuationToken>").append(page.get(page.size() - 1).replace("&", "&amp;")).append("</NextContinuationToken>");
+        reply(exchange, 200, xml.append("</ListBucketResult>").toString());
+    }
+
+    private void object(HttpExchange exchange, String method, String key, byte[] body) throws IOException {
+        switch (method) {
+            case "PUT" -> {
+                objects.put(key, body);
+                reply(exchange, 200, "");
+            }
+            case "DELETE" -> {
+                objects.remove(key);
+                reply(exchange, 204, null);
+            }
+            case "HEAD", "GET" -> {
+                byte[] content = objects.get(key);
+                if (content == null) {
+                    reply(exchange, 404, method.equals("HEAD") ? null : "<Error><Code>NoSuchKey</Code></Error>");
+                    return;
+                }
+                exchange.getResponseHeaders().add("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME
+                        .format(ZonedDateTime.ofInstant(Instant.parse("2025-01-01T10:00:00Z"), ZoneOffset.UTC)));
+                if (method.equals("HEAD")) {
+                    exchange.getResponseHeaders().add("Content-Length", String.valueOf(content.length));
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (range == null || ignoreRange) {
+                    send(exchange, 200, content);
+                    return;
+                }
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+                send(exchange, 206, Arrays.copyOfRange(content, start, end + 1));
+            }
+            default -> reply(exchange, 405, "");
+        }
+    }
+
+    // recomputes the signature from the request as received
+    private boolean verified(HttpExchange exchange, byte[] body) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String amzDate = exchange.getRequestHeaders().getFirst("x-amz-date");
+        String payload = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        if (authorization == null || amzDate == null || payload == null) return false;
+        if (!payload.equals(S3RequestSigner.sha256Hex(body))) return false;
+        Matcher m = CREDENTIAL.matcher(authorization);
+        if (!m.find()) return false;
+        TreeMap<String, String> headers = new TreeMap<>();
+        for (String name : m.group(2).split(";")) {
+            String value = exchange.getRequestHeaders().getFirst(name);
+            if (value == null) return false;
+            headers.put(name, value);
+        }
+        Instant time = S3RequestSigner.AMZ_DATE.parse(amzDate, Instant::from);
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        String expected = signer.authorization(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(),
+                S3RequestSigner.canonicalQuery(query(rawQuery)), headers, payload, time);
+        return expected.equals(authorization);
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            params.put(name, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        send(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package me.foglio.storage;
+
+import me.foglio.repository.PackedObjectRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@DisplayName("PackedStorageBackend Tests")
+class PackedStorageBackendTest {
+
+    @Autowired
+    private PackedObjectRepository index;
+
+    @TempDir
+    Path storage;
+
+    private PackedStorageBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        index.deleteAll();
+        backend = new PackedStorageBackend(index, storage.toString(), DataSize.ofKilobytes(64),
+                DataSize.ofBytes(100), DataSize.ofBytes(250));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        backend.close();
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    @DisplayName("Should append small objects to a shared pack and read them back as regions")
+    void shouldPackSmallObjects() throws Exception {
+        // Given
+        byte[] first = bytes(80, 1);
+        byte[] second = bytes(90, 2);
+
+        // When
+        backend.put("ab/cd/first.bin", new ByteArrayInputStream(first));
+        backend.putFile("ab/cd/second.bin", Files.write(storage.resolve("upload.part"), second));
+
+        // Then
+        StoredObject one = backend.find("ab/cd/first.bin").orElseThrow();
+        StoredObject two = backend.find("ab/cd/second.bin").orElseThrow();
+        assertThat(one.file()).isEqualTo(two.file()).contains(backend.packPath(0));
+        assertThat(one.isWholeFile()).isFalse();
+        assertThat(two.fileOffset()).isEqualTo(80);
+        try (InputStream in = two.open(10, 20)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(second, 10, 30));
+        }
+        assertThat(storage.resolve("ab/cd/first.bin")).doesNotExist();
+        assertThat(storage.resolve("upload.part")).doesNotExist();
+    }
+
+    @Test
+    @DisplayName("Should store objects over the threshold as plain files")
+    void shouldStoreLargeObjectsAsFiles() throws Exception {
+        // Given
+        byte[] large = bytes(1000, 3);
+
+        // When
+        long stored = backend.put("ab/cd/large.bin", new ByteArrayInputStream(large));
+
+        // Then
+        assertThat(stored).isEqualTo(1000);
+        assertThat(storage.resolve("ab/cd/large.bin")).hasBinaryContent(large);
+        assertThat(backend.find("ab/cd/large.bin").orElseThrow().isWholeFile()).isTrue();
+        backend.delete("ab/cd/large.bin");
+        assertThat(storage.resolve("ab/cd/large.bin")).doesNotExist();
+    }
+
+    @Test
+    @DisplayName("Should roll over to a new pack and remove full packs once all their objects are deleted")
+    void shouldReclaimEmptyPacks() throws Exception {
+        // Given: 250-byte packs hold three 80-byte objects
+        for (int i = 0; i < 4; i++) {
+            backend.put("obj-" + i, new ByteArrayInputStream(bytes(80, i)));
+        }
+        assertThat(backend.find("obj-3").orElseThrow().file()).contains(backend.packPath(1));
+
+        // When
+        backend.delete("obj-0");
+        backend.delete("obj-1");
+        Path firstPack = backend.packPath(0);
+        boolean keptWhileReferenced = Files.exists(firstPack);
+        backend.delete("obj-2");
+
+        // Then
+        assertThat(keptWhileReferenced).isTrue();
+        assertThat(firstPack).doesNotExist();
+        assertThat(backend.find("obj-2")).isEmpty();
+        assertThat(backend.find("obj-3")).isPresent();
+        // the pack being appended to is kept even when empty
+        backend.delete("obj-3");
+        assertThat(backend.packPath(1)).exists();
+    }
+
+    @Test
+    @DisplayName("Should list packed and plain objects but not the packs themselves")
+    void shouldListKeys() throws Exception {
+        // Given
+        backend.put("ab/cd/small.bin", new ByteArrayInputStream(bytes(10, 4)));
+        backend.put("cas/aa/bb/aabb", new ByteArrayInputStream(bytes(1000, 5)));
+        Files.createDirectories(storage.resolve(".uploads"));
+        Files.write(storage.resolve(".uploads/session.part"), bytes(10, 6));
+
+        // When
+        List<String> keys;
+        try (Stream<String> listed = backend.list()) {
+            keys = listed.toList();
+        }
+
+        // Then
+        assertThat(keys).containsExactlyInAnyOrder("ab/cd/small.bin", "cas/aa/bb/aabb");
+    }
+}
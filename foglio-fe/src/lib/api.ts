@@ -32,6 +32,7 @@ export interface FileMetadataDTO {
   extension: string;
   contentType: string;
   size: number;
+  compressedSize: number | null;
   ownerId: number;
   isPublic: boolean;
   storedFileName: string;
@@ -40,6 +41,11 @@ export interface FileMetadataDTO {
   lastRequestedAt: string | null;
 }
 
+export interface FilePageDTO {
+  items: FileMetadataDTO[];
+  nextCursor: string | null;
+}
+
 export const authAPI = {
   register: async (name: string): Promise<UserDTO> => {
     const response = await api.post(`/users/register?name=${encodeURIComponent(name)}`);
@@ -54,8 +60,16 @@ export const authAPI = {
 
 export const fileAPI = {
   listMine: async (): Promise<FileMetadataDTO[]> => {
-    const response = await api.get('/files');
-    return response.data;
+    const files: FileMetadataDTO[] = [];
+    let cursor: string | null = null;
+    do {
+      const response: { data: FilePageDTO } = await api.get('/files', {
+        params: { limit: 200, ...(cursor ? { cursor } : {}) },
+      });
+      files.push(...response.data.items);
+      cursor = response.data.nextCursor;
+    } while (cursor);
+    return files;
   },
   upload: async (file: File, isPublic: boolean = false): Promise<FileMetadataDTO> => {
     const formData = new FormData();